@@ -1,12 +1,20 @@
 package bearmaps;
 
-import bearmaps.utils.graph.streetmap.Node;
+import bearmaps.utils.graph.Components;
+import bearmaps.utils.graph.ContractionHierarchy;
+import bearmaps.utils.graph.Heuristic;
+import bearmaps.utils.graph.Landmarks;
+import bearmaps.utils.graph.TransitNodeRouting;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.ContractedGraph;
+import bearmaps.utils.graph.streetmap.EdgeWeightOverlay;
+import bearmaps.utils.graph.streetmap.GraphSnapshot;
 import bearmaps.utils.graph.streetmap.StreetMapGraph;
-import bearmaps.utils.ps.KDTree;
 import bearmaps.utils.ps.MyTrieSet;
-import bearmaps.utils.ps.Point;
-import bearmaps.utils.ps.WeirdPointSet;
+import bearmaps.utils.ps.StaticKDTree;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -17,35 +25,249 @@ import java.util.*;
  * @author Alan Yao, Josh Hug, ________
  */
 public class AugmentedStreetMapGraph extends StreetMapGraph {
-    private List<Point> points = new ArrayList<Point>();
-    private HashMap<Point, Node> nodePointHashMap = new HashMap<>();
-    private HashMap<String, List<Node>> nameNodeHashMap = new HashMap<>();
-    private KDTree thisTree;
-    private WeirdPointSet weird;
+    /** Number of routes Router keeps for repeated requests. */
+    private static final int ROUTE_CACHE_CAPACITY = 4096;
+
+    /* Vertex indices into csr(), keyed by location and by cleaned name. */
+    private StaticKDTree spatialIndex;
+    private HashMap<String, List<Integer>> nameNodeHashMap = new HashMap<>();
     private MyTrieSet trie = new MyTrieSet();
+    /* Spatial index of the largest component only, built on first use. */
+    private volatile StaticKDTree largestComponentIndex;
+    /* Connected components of csr(), for answering routes between them at once. */
+    private final Components components;
+    /* The graph Router searches, with degree-2 chains collapsed, and runtime weight changes. */
+    private EdgeWeightOverlay routingWeights;
+    /* Routes computed on the current weights, emptied whenever they change. */
+    private final RouteCache routeCache = new RouteCache(ROUTE_CACHE_CAPACITY);
+    /* Preprocessed shortest paths for the built weights, if the snapshot has them. */
+    private ContractionHierarchy hierarchy;
+    /* Distance tables over the hierarchy for long routes, if the snapshot has them. */
+    private TransitNodeRouting transitNodes;
+    /* Lower bounds on distances for A*, which stay valid as weights are raised at runtime. */
+    private Landmarks landmarks;
 
     public AugmentedStreetMapGraph(String dbPath) {
-        super(dbPath);
-        List<Node> nodes = this.getNodes();
-        for (Node n : nodes) {
-            if (!this.neighbors(n.id()).isEmpty()) {
-                Point nPoint = new Point(n.lon(), n.lat());
-                nodePointHashMap.put(nPoint, n);
-                points.add(nPoint);
+        this(dbPath, true);
+    }
+
+    public AugmentedStreetMapGraph(String dbPath, boolean useSnapshot) {
+        this(dbPath, useSnapshot, false);
+    }
+
+    /**
+     * Loads the graph for the OSM file at DBPATH, from its snapshot if
+     * USESNAPSHOT is set and the snapshot is up to date, and otherwise by
+     * parsing the file, in two passes if TWOPASS is set.
+     */
+    public AugmentedStreetMapGraph(String dbPath, boolean useSnapshot, boolean twoPass) {
+        super(dbPath, useSnapshot, twoPass);
+        CSRGraph g = csr();
+        components = Components.of(g);
+        routingWeights = new EdgeWeightOverlay(ContractedGraph.build(g));
+        routingWeights.addListener(next -> routeCache.invalidate());
+        double[] lons = new double[g.vertexCount()];
+        double[] lats = new double[g.vertexCount()];
+        for (int v = 0; v < g.vertexCount(); v++) {
+            lons[v] = g.lon(v);
+            lats[v] = g.lat(v);
+        }
+
+        ByteBuffer hierarchySection = snapshot() == null ? null
+                : snapshot().section(GraphSnapshot.CONTRACTION_HIERARCHY);
+        if (hierarchySection != null) {
+            hierarchy = ContractionHierarchy.readFrom(hierarchySection);
+            ByteBuffer transitSection = snapshot().section(GraphSnapshot.TRANSIT_NODES);
+            if (transitSection != null) {
+                transitNodes = TransitNodeRouting.readFrom(transitSection, hierarchy);
+            }
+        }
+
+        ByteBuffer landmarkSection = snapshot() == null ? null
+                : snapshot().section(GraphSnapshot.LANDMARKS);
+        if (landmarkSection != null) {
+            landmarks = Landmarks.readFrom(landmarkSection);
+        }
+
+        ByteBuffer index = snapshot() == null ? null
+                : snapshot().section(GraphSnapshot.SEARCH_INDEX);
+        if (index != null) {
+            spatialIndex = StaticKDTree.fromLayout(
+                    GraphSnapshot.getInts(index, index.getInt()), lons, lats);
+            String[] cleanNames = GraphSnapshot.getStrings(index);
+            for (String cleanName : cleanNames) {
+                int[] vertices = GraphSnapshot.getInts(index, index.getInt());
+                List<Integer> nodes = new LinkedList<>();
+                for (int v : vertices) {
+                    nodes.add(v);
+                }
+                trie.add(cleanName);
+                nameNodeHashMap.put(cleanName, nodes);
+            }
+            return;
+        }
+
+        int routable = 0;
+        for (int v = 0; v < g.vertexCount(); v++) {
+            if (g.degree(v) > 0) {
+                routable += 1;
+            }
+        }
+        int[] points = new int[routable];
+        routable = 0;
+        for (int v = 0; v < g.vertexCount(); v++) {
+            if (g.degree(v) > 0) {
+                points[routable] = v;
+                routable += 1;
             }
         }
-        for (Node n: nodes) {
-            if (n.name() != null) {
-                String cleanName = cleanString(n.name());
+        spatialIndex = StaticKDTree.build(points, lons, lats);
+        for (int v = 0; v < g.vertexCount(); v++) {
+            if (g.name(v) != null) {
+                String cleanName = cleanString(g.name(v));
                 trie.add(cleanName);
                 if (!nameNodeHashMap.containsKey(cleanName)) {
                     nameNodeHashMap.put(cleanName, new LinkedList<>());
                 }
-                nameNodeHashMap.get(cleanName).add(n);
+                nameNodeHashMap.get(cleanName).add(v);
             }
         }
-        thisTree = new KDTree(points);
-        weird = new WeirdPointSet(points);
+    }
+
+    /**
+     * Writes a snapshot of this graph and its search indexes next to the OSM
+     * file at DBPATH, for later instances to load instead of parsing it.
+     */
+    public void writeSnapshot(String dbPath) throws IOException {
+        String[] cleanNames = nameNodeHashMap.keySet().toArray(new String[0]);
+        int size = 4 + 4 * spatialIndex.size() + GraphSnapshot.stringsBytes(cleanNames);
+        for (String cleanName : cleanNames) {
+            size += 4 + 4 * nameNodeHashMap.get(cleanName).size();
+        }
+        ByteBuffer index = GraphSnapshot.newBuffer(size);
+        index.putInt(spatialIndex.size());
+        for (int v : spatialIndex.layout()) {
+            index.putInt(v);
+        }
+        GraphSnapshot.putStrings(index, cleanNames);
+        for (String cleanName : cleanNames) {
+            List<Integer> nodes = nameNodeHashMap.get(cleanName);
+            index.putInt(nodes.size());
+            for (int v : nodes) {
+                index.putInt(v);
+            }
+        }
+        index.flip();
+
+        Map<Integer, ByteBuffer> indexes = new HashMap<>();
+        indexes.put(GraphSnapshot.SEARCH_INDEX, index);
+        if (hierarchy != null) {
+            ByteBuffer section = GraphSnapshot.newBuffer(hierarchy.bytes());
+            hierarchy.writeTo(section);
+            section.flip();
+            indexes.put(GraphSnapshot.CONTRACTION_HIERARCHY, section);
+        }
+        if (transitNodes != null) {
+            ByteBuffer section = GraphSnapshot.newBuffer(transitNodes.bytes());
+            transitNodes.writeTo(section);
+            section.flip();
+            indexes.put(GraphSnapshot.TRANSIT_NODES, section);
+        }
+        if (landmarks != null) {
+            ByteBuffer section = GraphSnapshot.newBuffer(landmarks.bytes());
+            landmarks.writeTo(section);
+            section.flip();
+            indexes.put(GraphSnapshot.LANDMARKS, section);
+        }
+        GraphSnapshot.write(dbPath, csr(), indexes);
+    }
+
+    /**
+     * Builds the contraction hierarchy of this graph, to be saved by
+     * writeSnapshot. This takes far longer than loading the graph, so it is
+     * done offline by GraphCompiler rather than on startup.
+     */
+    public void buildHierarchy() {
+        hierarchy = ContractionHierarchy.build(csr());
+    }
+
+    /**
+     * Returns the contraction hierarchy for the weights the graph was built
+     * with, or null if it has not been built or loaded from the snapshot.
+     */
+    public ContractionHierarchy hierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Builds the transit-node tables on top of the contraction hierarchy,
+     * which must have been built first, with about the square root of the
+     * number of vertices as transit nodes. Like the hierarchy, they are
+     * saved by writeSnapshot.
+     */
+    public void buildTransitNodes() {
+        CSRGraph g = csr();
+        double[] lons = new double[g.vertexCount()];
+        double[] lats = new double[g.vertexCount()];
+        for (int v = 0; v < g.vertexCount(); v++) {
+            lons[v] = g.lon(v);
+            lats[v] = g.lat(v);
+        }
+        int transitCount = Math.max(16, (int) Math.sqrt(g.vertexCount()));
+        transitNodes = TransitNodeRouting.build(hierarchy, lons, lats, transitCount);
+    }
+
+    /**
+     * Returns the transit-node tables for the weights the graph was built
+     * with, or null if they have not been built or loaded from the snapshot.
+     */
+    public TransitNodeRouting transitNodes() {
+        return transitNodes;
+    }
+
+    /** Chooses COUNT landmarks for the ALT heuristic, to be saved by writeSnapshot. */
+    public void buildLandmarks(int count) {
+        landmarks = Landmarks.build(csr(), count);
+    }
+
+    /**
+     * Returns the landmark distances for the weights the graph was built
+     * with, as a heuristic on csr() indices, or null if they have not been
+     * built or loaded from the snapshot.
+     */
+    public Landmarks landmarks() {
+        return landmarks;
+    }
+
+    /**
+     * Returns the best available lower bound on the distance between two
+     * nodes, by OSM id, for AStarSolver: the landmark bound if there are
+     * landmarks, and the straight-line distance otherwise.
+     */
+    public Heuristic<Long> heuristic() {
+        if (landmarks == null) {
+            return this::estimatedDistanceToGoal;
+        }
+        CSRGraph g = csr();
+        return (s, goal) -> landmarks.estimatedDistanceToGoal(g.indexOf(s), g.indexOf(goal));
+    }
+
+    /**
+     * Returns the current version of the contracted view of this graph that
+     * routes are searched on, including any runtime weight changes.
+     */
+    public ContractedGraph routingGraph() {
+        return routingWeights.current();
+    }
+
+    /** Returns the runtime edge weight changes applied to routingGraph(). */
+    public EdgeWeightOverlay routingWeights() {
+        return routingWeights;
+    }
+
+    /** Returns the cache of routes Router has computed on this graph. */
+    public RouteCache routeCache() {
+        return routeCache;
     }
 
     /**
@@ -56,7 +278,55 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
      * @return The id of the node in the graph closest to the target.
      */
     public long closest(double lon, double lat) {
-        return nodePointHashMap.get(weird.nearest(lon, lat)).id();
+        return csr().id(spatialIndex.nearest(lon, lat));
+    }
+
+    /**
+     * Returns the vertex closest to the given longitude and latitude, only
+     * among the vertices of the largest connected component if
+     * LARGESTCOMPONENT is set. Snapping there keeps a location next to a
+     * small disconnected piece of road, such as a parking lot, from ending
+     * up somewhere no route can reach.
+     */
+    public long closest(double lon, double lat, boolean largestComponent) {
+        if (!largestComponent) {
+            return closest(lon, lat);
+        }
+        return csr().id(largestComponentIndex().nearest(lon, lat));
+    }
+
+    private StaticKDTree largestComponentIndex() {
+        StaticKDTree index = largestComponentIndex;
+        if (index != null) {
+            return index;
+        }
+        synchronized (this) {
+            if (largestComponentIndex == null) {
+                CSRGraph g = csr();
+                int[] points = new int[components.count() == 0 ? 0 : components.size(0)];
+                double[] lons = new double[g.vertexCount()];
+                double[] lats = new double[g.vertexCount()];
+                int count = 0;
+                for (int v = 0; v < g.vertexCount(); v++) {
+                    lons[v] = g.lon(v);
+                    lats[v] = g.lat(v);
+                    if (components.component(v) == 0) {
+                        points[count] = v;
+                        count += 1;
+                    }
+                }
+                largestComponentIndex = StaticKDTree.build(points, lons, lats);
+            }
+            return largestComponentIndex;
+        }
+    }
+
+    /**
+     * Returns the connected components of csr(). Vertices in different
+     * components have no route between them under any runtime weights.
+     */
+    public Components components() {
+        return components;
     }
 
 
@@ -71,9 +341,9 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
     public List<String> getLocationsByPrefix(String prefix) {
         List<String> output = new LinkedList<>();
         for (String cleanName: trie.keysWithPrefix(cleanString(prefix))) {
-            for (Node n : nameNodeHashMap.get(cleanName)) {
-                if (!output.contains(n.name())) {
-                    output.add(n.name());
+            for (int v : nameNodeHashMap.get(cleanName)) {
+                if (!output.contains(csr().name(v))) {
+                    output.add(csr().name(v));
                 }
             }
         }
@@ -97,12 +367,12 @@ public class AugmentedStreetMapGraph extends StreetMapGraph {
         List<Map<String, Object>> output = new LinkedList<>();
         String cleanName = cleanString(locationName);
         if (nameNodeHashMap.containsKey(cleanName)) {
-            for (Node n : nameNodeHashMap.get(cleanName)) {
+            for (int v : nameNodeHashMap.get(cleanName)) {
                 Map<String, Object> information = new HashMap<>();
-                information.put("lat", n.lat());
-                information.put("lon", n.lon());
-                information.put("name", n.name());
-                information.put("id", n.id());
+                information.put("lat", csr().lat(v));
+                information.put("lon", csr().lon(v));
+                information.put("name", csr().name(v));
+                information.put("id", csr().id(v));
                 output.add(information);
             }
         }
@@ -0,0 +1,36 @@
+package bearmaps;
+
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.streetmap.GraphSnapshot;
+
+import java.io.IOException;
+
+/**
+ * Offline "compile" command. Parses an OSM XML or PBF file, builds the graph,
+ * its search indexes, its contraction hierarchy, transit-node tables and A*
+ * landmarks, and writes them to a GraphSnapshot that MapServer loads on
+ * startup instead of parsing the file and preprocessing the graph again.
+ *
+ * Usage: java bearmaps.GraphCompiler [--two-pass] [osm-file]
+ * The file defaults to Constants.OSM_DB_PATH. With --two-pass the file is
+ * read twice so that nodes no way uses are never loaded, which keeps peak
+ * memory close to the size of the final graph on large extracts.
+ */
+public class GraphCompiler {
+    /** Landmarks for the ALT heuristic; each adds 4 bytes per vertex to the snapshot. */
+    private static final int LANDMARK_COUNT = 16;
+
+    public static void main(String[] args) throws IOException {
+        boolean twoPass = args.length > 0 && args[0].equals("--two-pass");
+        int first = twoPass ? 1 : 0;
+        String dbPath = args.length > first ? args[first] : Constants.OSM_DB_PATH;
+        long start = System.currentTimeMillis();
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(dbPath, false, twoPass);
+        graph.buildHierarchy();
+        graph.buildTransitNodes();
+        graph.buildLandmarks(LANDMARK_COUNT);
+        graph.writeSnapshot(dbPath);
+        System.out.println(String.format("Compiled %s to %s in %.1f s.", dbPath,
+                GraphSnapshot.pathFor(dbPath), (System.currentTimeMillis() - start) / 1000.0));
+    }
+}
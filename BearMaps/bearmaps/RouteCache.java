@@ -0,0 +1,188 @@
+package bearmaps;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A bounded cache of routes, keyed on the snapped start and end nodes and the
+ * version of the routing weights the route was computed on. The least
+ * recently used route is evicted when the cache is full.
+ *
+ * Requests for a route that is being computed wait for that computation
+ * instead of starting their own, so a burst of identical requests costs one
+ * search. Routes of an older version are never returned, since their key
+ * differs, and invalidate() drops them all at once when the weights change.
+ */
+public class RouteCache {
+    private final Map<Key, List<Long>> routes;
+    private final ConcurrentHashMap<Key, CompletableFuture<List<Long>>> inFlight =
+            new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /** Creates an empty cache that holds up to CAPACITY routes. */
+    public RouteCache(int capacity) {
+        routes = new LinkedHashMap<Key, List<Long>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<Long>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the route from SRC to DEST on version VERSION of the routing
+     * weights, computing it with COMPUTE if it is neither cached nor being
+     * computed by another thread. The list returned is unmodifiable. Only
+     * routes that end at DEST are cached: a search that gave up returns an
+     * empty route or one that stops short, and might succeed next time.
+     * Likewise a request that waited for another thread's search, and got a
+     * route that gave up under that thread's deadline, computes its own.
+     */
+    public List<Long> get(long src, long dest, long version, Supplier<List<Long>> compute) {
+        Key key = new Key(src, dest, version);
+        List<Long> route = cached(key);
+        if (route != null) {
+            hits.increment();
+            return route;
+        }
+        CompletableFuture<List<Long>> mine = new CompletableFuture<>();
+        CompletableFuture<List<Long>> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            coalesced.increment();
+            try {
+                route = running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause() : e;
+            }
+            if (reaches(route, dest)) {
+                return route;
+            }
+            coalesced.decrement();
+            misses.increment();
+            return computeAndCache(key, dest, compute);
+        }
+        try {
+            /* Another thread may have finished this route since the first look. */
+            route = cached(key);
+            if (route != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                route = computeAndCache(key, dest, compute);
+            }
+            mine.complete(route);
+            return route;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private List<Long> computeAndCache(Key key, long dest, Supplier<List<Long>> compute) {
+        List<Long> route = Collections.unmodifiableList(compute.get());
+        if (reaches(route, dest)) {
+            synchronized (routes) {
+                routes.put(key, route);
+            }
+        }
+        return route;
+    }
+
+    private static boolean reaches(List<Long> route, long dest) {
+        return !route.isEmpty() && route.get(route.size() - 1) == dest;
+    }
+
+    /**
+     * Returns the cached route from SRC to DEST on version VERSION of the
+     * routing weights, or null if there is none. Only a route found counts,
+     * as a hit.
+     */
+    public List<Long> getIfPresent(long src, long dest, long version) {
+        List<Long> route = cached(new Key(src, dest, version));
+        if (route != null) {
+            hits.increment();
+        }
+        return route;
+    }
+
+    private List<Long> cached(Key key) {
+        synchronized (routes) {
+            return routes.get(key);
+        }
+    }
+
+    /** Drops every cached route, for example when the routing weights change. */
+    public void invalidate() {
+        synchronized (routes) {
+            routes.clear();
+        }
+    }
+
+    /** Returns the number of routes cached. */
+    public int size() {
+        synchronized (routes) {
+            return routes.size();
+        }
+    }
+
+    /** Returns the number of requests answered from the cache. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** Returns the number of requests that computed their route. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Returns the number of requests that waited for another request's computation. */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /** Returns the share of requests that did not compute their route, or 0 before any. */
+    public double hitRate() {
+        long h = hits() + coalesced();
+        long total = h + misses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    private static final class Key {
+        private final long src;
+        private final long dest;
+        private final long version;
+
+        Key(long src, long dest, long version) {
+            this.src = src;
+            this.dest = dest;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return src == other.src && dest == other.dest && version == other.version;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(src) * 31 * 31 + Long.hashCode(dest) * 31
+                    + Long.hashCode(version);
+        }
+    }
+}
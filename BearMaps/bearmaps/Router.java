@@ -1,9 +1,26 @@
 package bearmaps;
 
-import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.AlternativeRoutes;
+import bearmaps.utils.graph.BoundedSearch;
+import bearmaps.utils.graph.ContractionHierarchySolver;
+import bearmaps.utils.graph.Deadline;
+import bearmaps.utils.graph.DistanceMatrix;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.IntHeuristic;
+import bearmaps.utils.graph.SearchWorkspace;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.ContractedGraph;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -12,11 +29,35 @@ import java.util.regex.Pattern;
  * @author Josh Hug, ______
  */
 public class Router {
+    /** Seconds a route search may take before it gives up. */
+    public static final double ROUTE_TIMEOUT = 20;
+
+    /** Epsilon of the weighted A* that routes are found with while the server is busy. */
+    public static final double SHED_EPSILON = 0.1;
+
+    /** Number of searches running at once from which the server counts as busy. */
+    private static final int SHED_THRESHOLD = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** Route searches running now, on any thread. */
+    private static final AtomicInteger SEARCHES = new AtomicInteger();
+
+    /** Workers for batch routing, one per core; each keeps its own search workspace. */
+    private static final ForkJoinPool BATCH_POOL =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
     /**
      * Overloaded method for shortestPath that has flexibility to specify a solver
      * and returns a List of longs representing the shortest path from the node
      * closest to a start location and the node closest to the destination location.
+     * Nodes in different connected components get an empty route at once.
+     * While no edge weight has been changed at runtime, the route comes from
+     * the graph's transit-node tables when the two points are far enough
+     * apart, and from its contraction hierarchy otherwise, if it has them.
+     * Otherwise the search runs on the graph's contracted routing graph,
+     * guided by its landmarks if it has them, and the path it finds is
+     * expanded back into every node it passes through. Routes are kept in
+     * the graph's route cache, so repeated requests between the same nodes
+     * are only searched once per version of the weights.
      * @param g The graph to use.
      * @param stlon The longitude of the start location.
      * @param stlat The latitude of the start location.
@@ -26,9 +67,300 @@ public class Router {
      */
     public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
                                           double destlon, double destlat) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, Deadline.after(ROUTE_TIMEOUT));
+    }
+
+    /**
+     * As shortestPath above, giving up when DEADLINE is reached or cancelled.
+     * If the search on the routing graph gives up, the route returned leads
+     * from the start to the node it got closest to the destination, and
+     * does not end at the node closest to the destination location; such
+     * routes are not cached. A contraction hierarchy search that gives up
+     * returns an empty route.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                          double destlon, double destlat, Deadline deadline) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, deadline, 0);
+    }
+
+    /**
+     * As shortestPath above, accepting a route up to 1 + EPSILON times as
+     * long as the shortest one, which weighted A* finds faster. While
+     * SHED_THRESHOLD or more searches are running, EPSILON is raised to at
+     * least SHED_EPSILON, so that a busy server answers sooner with slightly
+     * longer routes. Only the search on the routing graph is weighted; the
+     * routes of the contraction hierarchy and transit-node tables are exact.
+     * A weighted search still returns a shortest route if one is cached, but
+     * its own routes are not cached.
+     */
+    public static List<Long> shortestPath(AugmentedStreetMapGraph g, double stlon, double stlat,
+                                          double destlon, double destlat, Deadline deadline,
+                                          double epsilon) {
+        return route(g, stlon, stlat, destlon, destlat, deadline, epsilon).nodes();
+    }
+
+    /**
+     * As shortestPath above, also returning the epsilon the route was found
+     * with, which is larger than EPSILON if the server was busy, and 0 if the
+     * route is a shortest one.
+     */
+    public static Route route(AugmentedStreetMapGraph g, double stlon, double stlat,
+                              double destlon, double destlat, Deadline deadline, double epsilon) {
         long src = g.closest(stlon, stlat);
         long dest = g.closest(destlon, destlat);
-        return new AStarSolver<>(g, src, dest, 20).solution();
+        return cachedSearch(g, src, dest, deadline, epsilon);
+    }
+
+    /**
+     * Returns the shortest paths for many pairs of locations at once, in the
+     * order given, solved in parallel on a pool with a worker per core.
+     * @param g The graph to use.
+     * @param endpoints The {start lon, start lat, destination lon,
+     *                  destination lat} of each route.
+     * @return A list with the route of each pair, as for shortestPath.
+     */
+    public static List<List<Long>> shortestPaths(AugmentedStreetMapGraph g,
+                                                 double[][] endpoints) {
+        return shortestPaths(g, endpoints, BATCH_POOL);
+    }
+
+    /** As shortestPaths above, solved on POOL. */
+    public static List<List<Long>> shortestPaths(AugmentedStreetMapGraph g,
+                                                 double[][] endpoints, ForkJoinPool pool) {
+        List<List<Long>> routes = new ArrayList<>(endpoints.length);
+        for (ForkJoinTask<List<Long>> task
+                : submitShortestPaths(g, endpoints, pool, Deadline.never())) {
+            routes.add(task.join());
+        }
+        return routes;
+    }
+
+    /**
+     * Snaps every pair of ENDPOINTS to nodes, in parallel, and submits a
+     * search for each pair to POOL. The tasks are returned in the order of
+     * ENDPOINTS, so that results can be sent on in that order as each
+     * finishes. Identical pairs are searched once, through the route cache.
+     * Each search gets ROUTE_TIMEOUT seconds from when it starts, and all
+     * of them give up, returning partial routes as shortestPath does, once
+     * BATCH is reached or cancelled.
+     */
+    public static List<ForkJoinTask<List<Long>>> submitShortestPaths(
+            AugmentedStreetMapGraph g, double[][] endpoints, ForkJoinPool pool, Deadline batch) {
+        long[] nodes = new long[2 * endpoints.length];
+        pool.submit(() -> IntStream.range(0, nodes.length).parallel().forEach(k -> {
+            double[] pair = endpoints[k / 2];
+            nodes[k] = g.closest(pair[2 * (k % 2)], pair[2 * (k % 2) + 1]);
+        })).join();
+
+        List<ForkJoinTask<List<Long>>> tasks = new ArrayList<>(endpoints.length);
+        for (int i = 0; i < endpoints.length; i++) {
+            long src = nodes[2 * i];
+            long dest = nodes[2 * i + 1];
+            tasks.add(pool.submit(
+                    () -> cachedSearch(g, src, dest, batch.within(ROUTE_TIMEOUT), 0).nodes()));
+        }
+        return tasks;
+    }
+
+    /** The shared batch pool, for callers that stream results from submitShortestPaths. */
+    public static ForkJoinPool batchPool() {
+        return BATCH_POOL;
+    }
+
+    private static Route cachedSearch(AugmentedStreetMapGraph g, long src, long dest,
+                                      Deadline deadline, double epsilon) {
+        CSRGraph csr = g.csr();
+        if (!g.components().connected(csr.indexOf(src), csr.indexOf(dest))) {
+            return new Route(Collections.emptyList(), 0);
+        }
+        /* One version of the weights for the whole request, read without waiting for writers. */
+        ContractedGraph routing = g.routingGraph();
+        long version = routing.version();
+        if (!usesHierarchy(g, routing)) {
+            if (SEARCHES.get() >= SHED_THRESHOLD) {
+                epsilon = Math.max(epsilon, SHED_EPSILON);
+            }
+            if (epsilon > 0) {
+                List<Long> cached = g.routeCache().getIfPresent(src, dest, version);
+                return cached != null ? new Route(cached, 0)
+                        : search(g, routing, src, dest, deadline, epsilon);
+            }
+        }
+        return new Route(g.routeCache().get(src, dest, version,
+                () -> search(g, routing, src, dest, deadline, 0).nodes()), 0);
+    }
+
+    /*
+     * Returns true if routes on G with the weights of ROUTING come from G's
+     * contraction hierarchy, which is exact only while no weight is changed.
+     */
+    private static boolean usesHierarchy(AugmentedStreetMapGraph g, ContractedGraph routing) {
+        return g.hierarchy() != null && routing.changedEdgeCount() == 0;
+    }
+
+    /*
+     * Searches for a path from SRC to DEST, by OSM id, with the weights of
+     * ROUTING and without the cache, at most 1 + EPSILON times as long as the
+     * shortest. Running searches are counted in SEARCHES, which is how busy
+     * the server is.
+     */
+    private static Route search(AugmentedStreetMapGraph g, ContractedGraph routing, long src,
+                                long dest, Deadline deadline, double epsilon) {
+        SEARCHES.incrementAndGet();
+        try {
+            if (usesHierarchy(g, routing)) {
+                CSRGraph csr = g.csr();
+                int s = csr.indexOf(src);
+                int t = csr.indexOf(dest);
+                int[] path = g.transitNodes() == null ? null : g.transitNodes().path(s, t);
+                if (path == null) {
+                    path = new ContractionHierarchySolver(g.hierarchy(), s, t, deadline).path();
+                }
+                List<Long> route = new ArrayList<>(path.length);
+                for (int v : path) {
+                    route.add(csr.id(v));
+                }
+                return new Route(route, 0);
+            }
+            ContractedGraph.Query query = routing.query(src, dest);
+            IntHeuristic heuristic = g.landmarks() == null ? query::estimatedDistanceToGoal
+                    : g.landmarks();
+            IntAStarSolver solver = new IntAStarSolver(query, query.start(), query.goal(),
+                    deadline, true, epsilon, SearchWorkspace.forCurrentThread(query.vertexCount()),
+                    heuristic);
+            return new Route(query.expand(solver.path()), solver.suboptimalityBound() - 1);
+        } finally {
+            SEARCHES.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns up to K routes between the nodes closest to a start and a
+     * destination location, by the current weights: the shortest route
+     * first, then alternatives that are not much longer and differ enough
+     * from the routes before them, as chosen by AlternativeRoutes. The
+     * routes are not cached. There are none if there is no path.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param k The largest number of routes to return.
+     * @return A list of routes, each a list of node ids as for shortestPath.
+     */
+    public static List<List<Long>> alternativeRoutes(AugmentedStreetMapGraph g, double stlon,
+                                                     double stlat, double destlon,
+                                                     double destlat, int k) {
+        CSRGraph current = g.routingGraph().graph();
+        int s = current.indexOf(g.closest(stlon, stlat));
+        int t = current.indexOf(g.closest(destlon, destlat));
+        List<List<Long>> routes = new ArrayList<>();
+        if (!g.components().connected(s, t)) {
+            return routes;
+        }
+        AlternativeRoutes found = AlternativeRoutes.find(current, current.reversed(), s, t, k);
+        for (int i = 0; i < found.count(); i++) {
+            List<Long> route = new ArrayList<>(found.path(i).length);
+            for (int v : found.path(i)) {
+                route.add(current.id(v));
+            }
+            routes.add(route);
+        }
+        return routes;
+    }
+
+    /**
+     * Returns up to K alternatives to ROUTE, which leads between the nodes
+     * closest to a start and a destination location but may have come from
+     * any search, exact or not. The alternatives are those of
+     * alternativeRoutes that share at most AlternativeRoutes.MAX_SHARING of
+     * their own length, by the current weights, with ROUTE. Nothing is
+     * searched if K is 0 or ROUTE is empty.
+     * @param g The graph to use.
+     * @param stlon The longitude of the start location.
+     * @param stlat The latitude of the start location.
+     * @param destlon The longitude of the destination location.
+     * @param destlat The latitude of the destination location.
+     * @param route The route to find alternatives to, as node ids.
+     * @param k The largest number of alternatives to return.
+     * @return A list of routes, each a list of node ids as for shortestPath.
+     */
+    public static List<List<Long>> alternativesTo(AugmentedStreetMapGraph g, double stlon,
+                                                  double stlat, double destlon, double destlat,
+                                                  List<Long> route, int k) {
+        List<List<Long>> alternatives = new ArrayList<>();
+        if (k <= 0 || route.isEmpty()) {
+            return alternatives;
+        }
+        CSRGraph current = g.routingGraph().graph();
+        Set<Long> used = new HashSet<>();
+        for (int i = 1; i < route.size(); i++) {
+            used.add((long) current.indexOf(route.get(i - 1)) << 32
+                    | current.indexOf(route.get(i)));
+        }
+        /* One more than K, since one of them is usually ROUTE itself or close to it. */
+        for (List<Long> alternative
+                : alternativeRoutes(g, stlon, stlat, destlon, destlat, k + 1)) {
+            double length = 0;
+            double shared = 0;
+            for (int i = 1; i < alternative.size(); i++) {
+                int v = current.indexOf(alternative.get(i - 1));
+                int w = current.indexOf(alternative.get(i));
+                double weight = current.weight(current.findEdge(v, w));
+                length += weight;
+                if (used.contains((long) v << 32 | w)) {
+                    shared += weight;
+                }
+            }
+            if (shared <= AlternativeRoutes.MAX_SHARING * length && alternatives.size() < k) {
+                alternatives.add(alternative);
+            }
+        }
+        return alternatives;
+    }
+
+    /**
+     * Returns the lengths of the shortest paths from the node closest to each
+     * source location to the node closest to each target location, as a
+     * dense row-major matrix: the entry for SOURCES[i] and TARGETS[j] is at
+     * i * TARGETS.length + j, and is infinite if there is no path. Like
+     * shortestPath, this uses the contraction hierarchy while no edge weight
+     * has been changed, and the current weights otherwise.
+     * @param g The graph to use.
+     * @param sources The {longitude, latitude} of each source location.
+     * @param targets The {longitude, latitude} of each target location.
+     */
+    public static double[] distanceMatrix(AugmentedStreetMapGraph g, double[][] sources,
+                                          double[][] targets) {
+        CSRGraph csr = g.csr();
+        int[] s = new int[sources.length];
+        for (int i = 0; i < s.length; i++) {
+            s[i] = csr.indexOf(g.closest(sources[i][0], sources[i][1]));
+        }
+        int[] t = new int[targets.length];
+        for (int j = 0; j < t.length; j++) {
+            t[j] = csr.indexOf(g.closest(targets[j][0], targets[j][1]));
+        }
+        ContractedGraph routing = g.routingGraph();
+        if (usesHierarchy(g, routing)) {
+            return DistanceMatrix.compute(g.hierarchy(), s, t);
+        }
+        return DistanceMatrix.compute(routing.graph(), s, t);
+    }
+
+    /**
+     * Returns the nodes within BUDGET of the node closest to a location, by
+     * the current weights, in order of distance. The nodes within any
+     * smaller budget are a prefix of them.
+     * @param g The graph to use.
+     * @param lon The longitude of the location.
+     * @param lat The latitude of the location.
+     * @param budget The largest distance to search to.
+     */
+    public static BoundedSearch reachable(AugmentedStreetMapGraph g, double lon, double lat,
+                                          double budget) {
+        CSRGraph current = g.routingGraph().graph();
+        return BoundedSearch.run(current, current.indexOf(g.closest(lon, lat)), budget);
     }
 
     /**
@@ -41,8 +373,85 @@ public class Router {
      */
     public static List<NavigationDirection> routeDirections(AugmentedStreetMapGraph g,
                                                             List<Long> route) {
-        /* fill in for part IV */
-        return null;
+        List<NavigationDirection> directions = new ArrayList<>();
+        if (route == null || route.size() < 2) {
+            return directions;
+        }
+        CSRGraph csr = g.csr();
+        int[] path = new int[route.size()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = csr.indexOf(route.get(i));
+        }
+
+        /* Way changes are found by comparing way name ids, not the names. */
+        int way = wayNameId(csr, path[0], path[1]);
+        NavigationDirection current = new NavigationDirection();
+        current.direction = NavigationDirection.START;
+        current.way = wayName(csr, way);
+        for (int i = 1; i < path.length; i++) {
+            int v = path[i - 1];
+            int w = path[i];
+            int next = wayNameId(csr, v, w);
+            if (next != way) {
+                directions.add(current);
+                double prevBearing = NavigationDirection.bearing(csr.lon(path[i - 2]),
+                        csr.lon(v), csr.lat(path[i - 2]), csr.lat(v));
+                double currBearing = NavigationDirection.bearing(csr.lon(v), csr.lon(w),
+                        csr.lat(v), csr.lat(w));
+                current = new NavigationDirection();
+                current.direction = NavigationDirection.getDirection(prevBearing, currBearing);
+                current.way = wayName(csr, next);
+                way = next;
+            }
+            current.distance += csr.distance(v, w);
+        }
+        directions.add(current);
+        return directions;
+    }
+
+    /* Returns the way name id of the edge from V to W, or -1 if there is no such edge. */
+    private static int wayNameId(CSRGraph g, int v, int w) {
+        if (v < 0 || w < 0) {
+            return -1;
+        }
+        int e = g.findEdge(v, w);
+        return e < 0 ? -1 : g.edgeNameId(e);
+    }
+
+    private static String wayName(CSRGraph g, int id) {
+        if (id < 0 || g.wayName(id).isEmpty()) {
+            return NavigationDirection.UNKNOWN_ROAD;
+        }
+        return g.wayName(id);
+    }
+
+    /**
+     * A route as a list of node ids, with the epsilon of the weighted A* that
+     * found it: it is at most 1 + epsilon times as long as the shortest one.
+     */
+    public static class Route {
+        private final List<Long> nodes;
+        private final double epsilon;
+
+        Route(List<Long> nodes, double epsilon) {
+            this.nodes = nodes;
+            this.epsilon = epsilon;
+        }
+
+        /** Returns the node ids in the order visited, empty if there is no route. */
+        public List<Long> nodes() {
+            return nodes;
+        }
+
+        /** Returns the epsilon the route was found with, 0 if it is a shortest one. */
+        public double epsilon() {
+            return epsilon;
+        }
+
+        /** Returns how many times as long as the shortest route this one may be. */
+        public double suboptimalityBound() {
+            return 1 + epsilon;
+        }
     }
 
     /**
@@ -0,0 +1,80 @@
+package bearmaps.bench;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the throughput of batch routing as the number of workers grows.
+ * The same long routes are solved one after another with shortestPath, then
+ * as one batch with shortestPaths on pools of 1, 2, 4 and so on up to the
+ * number of cores. The route cache is emptied before every round, so that
+ * each round searches every route, and every batch must return the same
+ * routes as the sequential run.
+ *
+ * Usage: java bearmaps.bench.BatchRoutingBenchmark [osm-file] [routes]
+ */
+public class BatchRoutingBenchmark {
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        String dbPath = args.length > 0 ? args[0] : Constants.OSM_DB_PATH;
+        int routes = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        AugmentedStreetMapGraph graph = new AugmentedStreetMapGraph(dbPath);
+        CSRGraph g = graph.csr();
+        long[][] pairs = LayoutBenchmark.longRoutes(g, routes, new Random(42));
+        double[][] endpoints = new double[pairs.length][];
+        for (int i = 0; i < pairs.length; i++) {
+            int s = g.indexOf(pairs[i][0]);
+            int t = g.indexOf(pairs[i][1]);
+            endpoints[i] = new double[]{g.lon(s), g.lat(s), g.lon(t), g.lat(t)};
+        }
+        System.out.println(String.format("%d vertices, %d routes, %d cores", g.vertexCount(),
+                endpoints.length, Runtime.getRuntime().availableProcessors()));
+
+        List<List<Long>> expected = new ArrayList<>();
+        long start = 0;
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            if (round == 0) {
+                start = System.nanoTime();
+            }
+            graph.routeCache().invalidate();
+            expected.clear();
+            for (double[] e : endpoints) {
+                expected.add(Router.shortestPath(graph, e[0], e[1], e[2], e[3]));
+            }
+        }
+        report("sequential", start, endpoints.length);
+
+        for (int workers = 1; ; workers *= 2) {
+            workers = Math.min(workers, Runtime.getRuntime().availableProcessors());
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+                if (round == 0) {
+                    start = System.nanoTime();
+                }
+                graph.routeCache().invalidate();
+                if (!Router.shortestPaths(graph, endpoints, pool).equals(expected)) {
+                    throw new IllegalStateException(workers + " workers found other routes");
+                }
+            }
+            report(workers + " workers", start, endpoints.length);
+            pool.shutdown();
+            if (workers == Runtime.getRuntime().availableProcessors()) {
+                break;
+            }
+        }
+    }
+
+    private static void report(String name, long start, int count) {
+        double seconds = (System.nanoTime() - start) / 1e9 / ROUNDS;
+        System.out.println(String.format("%-12s %9.1f routes/s", name, count / seconds));
+    }
+}
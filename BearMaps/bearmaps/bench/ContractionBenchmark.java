@@ -0,0 +1,85 @@
+package bearmaps.bench;
+
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.ContractedGraph;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+
+import java.util.Random;
+
+/**
+ * Measures how much contracting degree-2 chains saves A*. The same routes,
+ * between random vertices with edges, are searched on the full graph and on
+ * its ContractedGraph, and the states each search settles and the time it
+ * takes are added up. Every route on the contracted graph must have the
+ * same length as on the full one.
+ *
+ * To run it on a synthetic extract, whose blocks have up to two shape points:
+ *   java bearmaps.bench.SyntheticExtract synthetic.osm.xml 300
+ *   java bearmaps.bench.ContractionBenchmark synthetic.osm.xml
+ *
+ * Usage: java bearmaps.bench.ContractionBenchmark [osm-file] [routes]
+ */
+public class ContractionBenchmark {
+    public static void main(String[] args) {
+        String dbPath = args.length > 0 ? args[0] : Constants.OSM_DB_PATH;
+        int routes = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        CSRGraph g = new StreetMapGraph(dbPath).csr();
+        ContractedGraph contracted = ContractedGraph.build(g);
+        int core = 0;
+        for (int v = 0; v < g.vertexCount(); v++) {
+            if (contracted.isCore(v)) {
+                core += 1;
+            }
+        }
+        System.out.println(String.format("%d vertices, %d core, %d edges, %d shortcuts, "
+                + "%d routes", g.vertexCount(), core, g.edgeCount(), contracted.edgeCount(),
+                routes));
+
+        Random random = new Random(42);
+        long fullStates = 0;
+        long contractedStates = 0;
+        long fullNanos = 0;
+        long contractedNanos = 0;
+        int solved = 0;
+        for (int r = 0; r < routes; r++) {
+            int s = routable(g, random);
+            int t = routable(g, random);
+            long start = System.nanoTime();
+            IntAStarSolver full = new IntAStarSolver(g, s, t, 60);
+            long middle = System.nanoTime();
+            ContractedGraph.Query query = contracted.query(g.id(s), g.id(t));
+            IntAStarSolver fast = new IntAStarSolver(query, query.start(), query.goal(), 60);
+            long end = System.nanoTime();
+            if (full.outcome() != fast.outcome()
+                    || Math.abs(full.solutionWeight() - fast.solutionWeight()) > 1e-9) {
+                throw new IllegalStateException("Routes differ from " + g.id(s) + " to "
+                        + g.id(t));
+            }
+            if (full.outcome() == SolverOutcome.SOLVED) {
+                solved += 1;
+            }
+            fullStates += full.numStatesExplored();
+            contractedStates += fast.numStatesExplored();
+            fullNanos += middle - start;
+            contractedNanos += end - middle;
+        }
+        System.out.println(String.format("%d routes solved, all the same length", solved));
+        System.out.println(String.format("full        %10d states  %8.3f ms/route", fullStates,
+                fullNanos / 1e6 / routes));
+        System.out.println(String.format("contracted  %10d states  %8.3f ms/route",
+                contractedStates, contractedNanos / 1e6 / routes));
+        System.out.println(String.format("%.2fx fewer states",
+                (double) fullStates / contractedStates));
+    }
+
+    private static int routable(CSRGraph g, Random random) {
+        int v;
+        do {
+            v = random.nextInt(g.vertexCount());
+        } while (g.degree(v) == 0);
+        return v;
+    }
+}
@@ -0,0 +1,116 @@
+package bearmaps.bench;
+
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.SearchWorkspace;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import bearmaps.utils.pq.DoubleMapPQ;
+import bearmaps.utils.pq.IndexedHeapPQ;
+import bearmaps.utils.pq.IntMinHeap;
+import bearmaps.utils.pq.MinHeapPQ;
+import bearmaps.utils.pq.PriorityQueue;
+import bearmaps.utils.pq.RadixHeap;
+
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares the priority queues A* can use as its fringe, on the same long
+ * routes. The generic AStarSolver is timed with DoubleMapPQ, MinHeapPQ and
+ * IndexedHeapPQ over a 4-ary heap and over a radix heap, and IntAStarSolver
+ * with a binary heap, a 4-ary heap and a radix heap. Every run must find
+ * routes of the same total weight.
+ *
+ * MinHeapPQ finds items by scanning its heap, so a route takes time
+ * quadratic in the number of vertices reached; it only gets the first
+ * SLOW_ROUTES routes.
+ *
+ * Usage: java bearmaps.bench.FringeBenchmark [osm-file] [routes]
+ */
+public class FringeBenchmark {
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int ROUNDS = 5;
+    private static final int SLOW_ROUTES = 3;
+
+    public static void main(String[] args) {
+        String dbPath = args.length > 0 ? args[0] : Constants.OSM_DB_PATH;
+        int routes = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        StreetMapGraph graph = new StreetMapGraph(dbPath);
+        CSRGraph g = graph.csr();
+        long[][] pairs = LayoutBenchmark.longRoutes(g, routes, new Random(42));
+        System.out.println(String.format("%d vertices, %d edges, %d routes", g.vertexCount(),
+                g.edgeCount(), pairs.length));
+
+        double[] expected = new double[pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            expected[i] = new AStarSolver<>(graph, pairs[i][0], pairs[i][1], 60)
+                    .solutionWeight();
+        }
+        runGeneric("DoubleMapPQ", graph, pairs, expected, pairs.length, DoubleMapPQ::new);
+        runGeneric("MinHeapPQ", graph, pairs, expected, Math.min(SLOW_ROUTES, pairs.length),
+                MinHeapPQ::new);
+        runGeneric("IndexedHeapPQ 4-ary", graph, pairs, expected, pairs.length,
+                IndexedHeapPQ::new);
+        runGeneric("IndexedHeapPQ radix", graph, pairs, expected, pairs.length,
+                () -> new IndexedHeapPQ<>(new RadixHeap(16)));
+        int n = g.vertexCount();
+        runInt("int binary heap", g, pairs, expected,
+                new SearchWorkspace(n, new IntMinHeap(n, 2)));
+        runInt("int 4-ary heap", g, pairs, expected, new SearchWorkspace(n, new IntMinHeap(n)));
+        runInt("int radix heap", g, pairs, expected, new SearchWorkspace(n, new RadixHeap(n)));
+    }
+
+    private static void runGeneric(String name, StreetMapGraph graph, long[][] pairs,
+                                   double[] expected, int count,
+                                   Supplier<PriorityQueue<Long>> fringes) {
+        long explored = 0;
+        long start = 0;
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            if (round == 0) {
+                start = System.nanoTime();
+                explored = 0;
+            }
+            for (int i = 0; i < count; i++) {
+                AStarSolver<Long> solver = new AStarSolver<>(graph, pairs[i][0], pairs[i][1], 60,
+                        fringes.get());
+                check(name, solver.solutionWeight(), expected[i]);
+                explored += solver.numStatesExplored();
+            }
+        }
+        report(name, start, count, explored);
+    }
+
+    private static void runInt(String name, CSRGraph g, long[][] pairs, double[] expected,
+                               SearchWorkspace workspace) {
+        long explored = 0;
+        long start = 0;
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            if (round == 0) {
+                start = System.nanoTime();
+                explored = 0;
+            }
+            for (int i = 0; i < pairs.length; i++) {
+                IntAStarSolver solver = new IntAStarSolver(g, g.indexOf(pairs[i][0]),
+                        g.indexOf(pairs[i][1]), 60, workspace);
+                check(name, solver.solutionWeight(), expected[i]);
+                explored += solver.numStatesExplored();
+            }
+        }
+        report(name, start, pairs.length, explored);
+    }
+
+    private static void check(String name, double weight, double expected) {
+        if (Math.abs(weight - expected) > 1e-9 * Math.max(1, expected)) {
+            throw new IllegalStateException(name + " found a route of weight " + weight
+                    + " instead of " + expected);
+        }
+    }
+
+    private static void report(String name, long start, int count, long explored) {
+        double ms = (System.nanoTime() - start) / 1e6 / (ROUNDS * count);
+        System.out.println(String.format("%-20s %9.3f ms/route  %8d states/route", name, ms,
+                explored / (ROUNDS * count)));
+    }
+}
@@ -0,0 +1,48 @@
+package bearmaps.bench;
+
+import bearmaps.utils.Constants;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Measures the time and peak heap use of building a graph from an OSM file
+ * in one pass or in two. The peak is the sum of the peak use of each heap
+ * pool, which bounds the true peak from above; the heap a build needs is
+ * best confirmed by running it with a fixed -Xmx and seeing that it does
+ * not run out of memory. Run one mode per JVM, so that the peaks of one
+ * build do not count against the other.
+ *
+ * To build the input and compare the two modes on the same extract:
+ *   java bearmaps.bench.SyntheticExtract unreferenced.osm.xml 300 1500000
+ *   java -Xmx400m bearmaps.bench.GraphBuildBenchmark unreferenced.osm.xml
+ *   java -Xmx400m bearmaps.bench.GraphBuildBenchmark --two-pass unreferenced.osm.xml
+ *
+ * Usage: java bearmaps.bench.GraphBuildBenchmark [--two-pass] [osm-file]
+ */
+public class GraphBuildBenchmark {
+    public static void main(String[] args) {
+        boolean twoPass = args.length > 0 && args[0].equals("--two-pass");
+        int first = twoPass ? 1 : 0;
+        String dbPath = args.length > first ? args[first] : Constants.OSM_DB_PATH;
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long start = System.nanoTime();
+        CSRGraph g = StreetMapGraph.readFromOSM(dbPath, twoPass).csr();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.println(String.format("%s: %d vertices, %d edges in %.1f s, peak heap %d MB",
+                twoPass ? "two passes" : "one pass", g.vertexCount(), g.edgeCount(), seconds,
+                peak >> 20));
+    }
+}
@@ -0,0 +1,118 @@
+package bearmaps.bench;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes a synthetic OSM XML extract for the benchmarks, so that their
+ * inputs can be rebuilt anywhere from a few numbers instead of shipping a
+ * large file. The extract is a city grid over the Berkeley area: SIZE by
+ * SIZE intersections, each joined to its neighbors to the east and north by
+ * a way with up to two shape points, unless that block is missing. Ways get
+ * a random highway type, a few of which are not routable, and most get a
+ * street name. UNREFERENCED further nodes lie anywhere on the map and are on
+ * no way, as building outlines and points of interest are in real extracts;
+ * one in five of those has a name. The same arguments always give the same
+ * file.
+ *
+ * Usage: java bearmaps.bench.SyntheticExtract out-file [size] [unreferenced] [seed]
+ */
+public class SyntheticExtract {
+    private static final double SOUTH = 37.82;
+    private static final double WEST = -122.30;
+    private static final double HEIGHT = 0.07;
+    private static final double WIDTH = 0.09;
+    private static final String[] HIGHWAYS = {"residential", "primary", "secondary",
+        "tertiary", "footway", "service", "unclassified", "living_street"};
+
+    public static void main(String[] args) throws IOException {
+        String out = args[0];
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int unreferenced = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        Random random = new Random(seed);
+        try (PrintWriter w = new PrintWriter(new BufferedWriter(new FileWriter(out), 1 << 16))) {
+            w.println("<?xml version='1.0' encoding='UTF-8'?>");
+            w.println("<osm version=\"0.6\" generator=\"bearmaps.bench.SyntheticExtract\">");
+            long id = 1;
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    node(w, id, SOUTH + HEIGHT * i / size + 0.0003 * random.nextGaussian(),
+                            WEST + WIDTH * j / size + 0.0003 * random.nextGaussian(),
+                            random.nextInt(40) == 0 ? "Cafe " + id : null);
+                    id += 1;
+                }
+            }
+
+            /* Blocks to the north (d = 0) and east (d = 1), with their shape points. */
+            long[][] ways = new long[2 * size * size][];
+            int wayCount = 0;
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    for (int d = 0; d < 2; d++) {
+                        int ni = i + 1 - d;
+                        int nj = j + d;
+                        if (ni >= size || nj >= size || random.nextInt(10) == 0) {
+                            continue;
+                        }
+                        int shape = random.nextInt(3);
+                        long[] way = new long[shape + 3];
+                        way[0] = d;
+                        way[1] = (long) i * size + j + 1;
+                        way[shape + 2] = (long) ni * size + nj + 1;
+                        for (int s = 1; s <= shape; s++) {
+                            double f = s / (shape + 1.0);
+                            node(w, id, SOUTH + HEIGHT * (i + (ni - i) * f) / size
+                                            + 0.0001 * random.nextGaussian(),
+                                    WEST + WIDTH * (j + (nj - j) * f) / size
+                                            + 0.0001 * random.nextGaussian(), null);
+                            way[s + 1] = id;
+                            id += 1;
+                        }
+                        ways[wayCount] = way;
+                        wayCount += 1;
+                    }
+                }
+            }
+            for (int k = 0; k < unreferenced; k++) {
+                node(w, id, SOUTH + HEIGHT * random.nextDouble(),
+                        WEST + WIDTH * random.nextDouble(),
+                        random.nextInt(5) == 0 ? "Place " + id : null);
+                id += 1;
+            }
+
+            for (int k = 0; k < wayCount; k++) {
+                long[] way = ways[k];
+                w.println("  <way id=\"" + (k + 1) + "\" version=\"1\">");
+                for (int s = 1; s < way.length; s++) {
+                    w.println("    <nd ref=\"" + way[s] + "\"/>");
+                }
+                w.println("    <tag k=\"highway\" v=\"" + HIGHWAYS[random.nextInt(HIGHWAYS.length)]
+                        + "\"/>");
+                if (random.nextInt(5) != 0) {
+                    long street = way[0] == 0 ? (way[1] - 1) % size : (way[1] - 1) / size;
+                    w.println("    <tag k=\"name\" v=\"" + (way[0] == 0 ? "Avenue " : "Street ")
+                            + street + "\"/>");
+                }
+                w.println("  </way>");
+            }
+            w.println("</osm>");
+        }
+    }
+
+    private static void node(PrintWriter w, long id, double lat, double lon, String name) {
+        String node = String.format(Locale.ROOT, "  <node id=\"%d\" lat=\"%.7f\" lon=\"%.7f\"",
+                id, lat, lon);
+        if (name == null) {
+            w.println(node + "/>");
+        } else {
+            w.println(node + ">");
+            w.println("    <tag k=\"name\" v=\"" + name + "\"/>");
+            w.println("  </node>");
+        }
+    }
+}
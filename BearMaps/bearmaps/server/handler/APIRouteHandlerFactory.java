@@ -20,8 +20,12 @@ public class APIRouteHandlerFactory {
         handlerMap = new HashMap<>();
         handlerMap.put("raster", new RasterAPIHandler());
         handlerMap.put("route", new RoutingAPIHandler());
+        handlerMap.put("route_batch", new RouteBatchAPIHandler());
         handlerMap.put("clear_route", new ClearRouteAPIHandler());
         handlerMap.put("search", new SearchAPIHandler());
+        handlerMap.put("matrix", new MatrixAPIHandler());
+        handlerMap.put("isochrone", new IsochroneAPIHandler());
+        handlerMap.put("admin/edge_weights", new EdgeWeightAPIHandler());
         handlerMap.put("", new RedirectAPIHandler());
     }
 
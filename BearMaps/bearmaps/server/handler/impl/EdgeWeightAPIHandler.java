@@ -0,0 +1,119 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.graph.streetmap.EdgeWeightOverlay;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Admin endpoint for changing edge weights while the server runs, for example
+ * to close a street for a festival or to slow down traffic through
+ * construction. Routes requested after a change avoid or penalize the changed
+ * edges; routes already being computed finish on the weights they started
+ * with.
+ *
+ * The endpoint is only enabled if the BEARMAPS_ADMIN_TOKEN environment
+ * variable is set, and every request must pass the same value as token.
+ */
+public class EdgeWeightAPIHandler extends APIRouteHandler<Map<String, String>, Map<String, Object>> {
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /** HTTP response for an authorized request with an unknown action or bad parameters. */
+    private static final int BAD_REQUEST = 400;
+
+    private static final String ADMIN_TOKEN = System.getenv("BEARMAPS_ADMIN_TOKEN");
+
+    /**
+     * Each request has the following parameters:<br>
+     * token : the admin token,<br>
+     * action : close, open, scale or reset,<br>
+     * ids : for all but reset, comma-separated OSM ids of consecutive nodes
+     * along the street, whose edges are changed in both directions,<br>
+     * factor : for scale, the factor of at least 1 to multiply their built
+     * weights by.
+     */
+    private static final String[] PARAMS = {"token", "action", "ids", "factor"};
+
+    @Override
+    protected Map<String, String> parseRequestParams(Request request) {
+        Map<String, String> params = new HashMap<>();
+        for (String param : PARAMS) {
+            String value = request.queryParams(param);
+            if (value != null) {
+                params.put(param, value);
+            }
+        }
+        if (ADMIN_TOKEN == null || ADMIN_TOKEN.isEmpty()
+                || !ADMIN_TOKEN.equals(params.get("token"))) {
+            halt(HALT_RESPONSE, "Admin API disabled or wrong token.");
+        }
+        return params;
+    }
+
+    /**
+     * Applies the requested change.
+     * @return A map with "version", the version of the routing graph after the
+     * change, "changed_edges", the number of edges this request changed, and
+     * "total_changed_edges", the number of edges that differ from the built
+     * graph.
+     */
+    @Override
+    protected Map<String, Object> processRequest(Map<String, String> requestParams,
+                                                 Response response) {
+        EdgeWeightOverlay overlay = SEMANTIC_STREET_GRAPH.routingWeights();
+        String action = requestParams.getOrDefault("action", "");
+        int changed = 0;
+        try {
+            switch (action) {
+                case "reset":
+                    changed = overlay.changedEdgeCount();
+                    overlay.reset();
+                    break;
+                case "close":
+                    changed = overlay.close(parseIds(requestParams.get("ids")));
+                    break;
+                case "open":
+                    changed = overlay.open(parseIds(requestParams.get("ids")));
+                    break;
+                case "scale":
+                    String factor = requestParams.get("factor");
+                    if (factor == null) {
+                        throw new IllegalArgumentException("factor missing");
+                    }
+                    changed = overlay.scale(parseIds(requestParams.get("ids")),
+                            Double.parseDouble(factor), true);
+                    break;
+                default:
+                    halt(BAD_REQUEST, "Unknown action - use close, open, scale or reset.");
+            }
+        } catch (IllegalArgumentException e) {
+            halt(BAD_REQUEST, "Incorrect parameters - " + e.getMessage());
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("version", overlay.version());
+        result.put("changed_edges", changed);
+        result.put("total_changed_edges", overlay.changedEdgeCount());
+        return result;
+    }
+
+    private static long[] parseIds(String ids) {
+        if (ids == null) {
+            throw new IllegalArgumentException("ids missing");
+        }
+        String[] parts = ids.split(",");
+        long[] path = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            path[i] = Long.parseLong(parts[i].trim());
+        }
+        return path;
+    }
+}
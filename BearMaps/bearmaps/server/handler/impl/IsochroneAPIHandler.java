@@ -0,0 +1,118 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.Router;
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.graph.BoundedSearch;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.ps.ConvexHull;
+import spark.Request;
+import spark.Response;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for the area reachable from a location within one or
+ * more distances, for service-area analysis. All the distances of a request
+ * are answered from a single search up to the largest one.
+ */
+public class IsochroneAPIHandler extends APIRouteHandler<Map<String, Object>, List<Map<String, Object>>> {
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /** Largest number of budgets a request may ask for. */
+    private static final int MAX_BUDGETS = 16;
+
+    /**
+     * Each request has the following parameters:<br>
+     * lon : longitude of the location,<br>
+     * lat : latitude of the location,<br>
+     * budgets : comma-separated distances in miles,<br>
+     * hull : optional, true to include the convex hull of each set of nodes.
+     */
+    private static final String[] REQUIRED_PARAMS = {"lon", "lat", "budgets"};
+
+    @Override
+    protected Map<String, Object> parseRequestParams(Request request) {
+        Map<String, Object> params = new HashMap<>();
+        for (String param : REQUIRED_PARAMS) {
+            if (request.queryParams(param) == null) {
+                halt(HALT_RESPONSE, "Request failed - parameters missing.");
+            }
+        }
+        try {
+            params.put("lon", Double.parseDouble(request.queryParams("lon")));
+            params.put("lat", Double.parseDouble(request.queryParams("lat")));
+            String[] parts = request.queryParams("budgets").split(",");
+            double[] budgets = new double[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                budgets[i] = Double.parseDouble(parts[i].trim());
+                if (!(budgets[i] >= 0) || Double.isInfinite(budgets[i])) {
+                    throw new NumberFormatException("Not a distance: " + parts[i]);
+                }
+            }
+            params.put("budgets", budgets);
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+        }
+        if (((double[]) params.get("budgets")).length > MAX_BUDGETS) {
+            halt(HALT_RESPONSE, "Request failed - at most " + MAX_BUDGETS + " budgets.");
+        }
+        params.put("hull", "true".equals(request.queryParams("hull")));
+        return params;
+    }
+
+    /**
+     * Finds the nodes within each budget of the node closest to the location.
+     * @return A list with a map for each budget, in the order given: <br>
+     * "budget" : Number, the budget in miles. <br>
+     * "nodes" : Array of the OSM ids of the nodes within it, closest first. <br>
+     * "hull" : If requested, the corners of the convex hull of those nodes as
+     * [lon, lat] pairs, counterclockwise.
+     */
+    @Override
+    protected List<Map<String, Object>> processRequest(Map<String, Object> requestParams,
+                                                       Response response) {
+        double[] budgets = (double[]) requestParams.get("budgets");
+        boolean withHull = (Boolean) requestParams.get("hull");
+        double largest = Arrays.stream(budgets).max().orElse(0);
+        BoundedSearch search = Router.reachable(SEMANTIC_STREET_GRAPH,
+                (Double) requestParams.get("lon"), (Double) requestParams.get("lat"), largest);
+
+        CSRGraph g = SEMANTIC_STREET_GRAPH.csr();
+        long[] ids = new long[search.size()];
+        double[] lons = new double[search.size()];
+        double[] lats = new double[search.size()];
+        for (int i = 0; i < ids.length; i++) {
+            int v = search.vertex(i);
+            ids[i] = g.id(v);
+            lons[i] = g.lon(v);
+            lats[i] = g.lat(v);
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (double budget : budgets) {
+            int count = search.countWithin(budget);
+            Map<String, Object> isochrone = new HashMap<>();
+            isochrone.put("budget", budget);
+            isochrone.put("nodes", Arrays.copyOf(ids, count));
+            if (withHull) {
+                List<double[]> hull = new ArrayList<>();
+                for (int i : ConvexHull.of(lons, lats, count)) {
+                    hull.add(new double[]{lons[i], lats[i]});
+                }
+                isochrone.put("hull", hull);
+            }
+            result.add(isochrone);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,96 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.Router;
+import bearmaps.server.handler.APIRouteHandler;
+import spark.Request;
+import spark.Response;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for the distances between every one of a list of sources
+ * and every one of a list of targets, for example to build the cost matrix
+ * of a dispatch problem in one request rather than one route per pair.
+ */
+public class MatrixAPIHandler extends APIRouteHandler<Map<String, double[][]>, Map<String, Object>> {
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /** Largest number of source and target pairs a request may ask for. */
+    private static final int MAX_CELLS = 250000;
+
+    /**
+     * Each request has the following parameters:<br>
+     * sources : semicolon-separated lon,lat pairs of the source locations,<br>
+     * targets : semicolon-separated lon,lat pairs of the target locations.
+     */
+    private static final String[] PARAMS = {"sources", "targets"};
+
+    @Override
+    protected Map<String, double[][]> parseRequestParams(Request request) {
+        Map<String, double[][]> params = new HashMap<>();
+        for (String param : PARAMS) {
+            String value = request.queryParams(param);
+            if (value == null || value.trim().isEmpty()) {
+                halt(HALT_RESPONSE, "Request failed - parameters missing.");
+            }
+            try {
+                params.put(param, parseLocations(value));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                halt(HALT_RESPONSE, "Incorrect parameters - provide lon,lat pairs.");
+            }
+        }
+        if ((long) params.get("sources").length * params.get("targets").length > MAX_CELLS) {
+            halt(HALT_RESPONSE, "Request failed - at most " + MAX_CELLS + " pairs.");
+        }
+        return params;
+    }
+
+    /**
+     * Computes the matrix of shortest path lengths from each source to each
+     * target, snapping each location to the closest node.
+     * @return A map with "rows", the number of sources, "columns", the number
+     * of targets, and "distances", the row-major array of rows * columns
+     * lengths, where the length from source i to target j is at
+     * i * columns + j, and is -1 if there is no path.
+     */
+    @Override
+    protected Map<String, Object> processRequest(Map<String, double[][]> requestParams,
+                                                 Response response) {
+        double[][] sources = requestParams.get("sources");
+        double[][] targets = requestParams.get("targets");
+        double[] distances = Router.distanceMatrix(SEMANTIC_STREET_GRAPH, sources, targets);
+        for (int i = 0; i < distances.length; i++) {
+            if (distances[i] == Double.POSITIVE_INFINITY) {
+                distances[i] = -1;
+            }
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("rows", sources.length);
+        result.put("columns", targets.length);
+        result.put("distances", distances);
+        return result;
+    }
+
+    /* Parses "lon,lat;lon,lat;..." into {lon, lat} pairs. */
+    private static double[][] parseLocations(String value) {
+        String[] parts = value.split(";");
+        double[][] locations = new double[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            String[] lonLat = parts[i].split(",");
+            if (lonLat.length != 2) {
+                throw new NumberFormatException("Not a lon,lat pair: " + parts[i]);
+            }
+            locations[i] = new double[]{Double.parseDouble(lonLat[0].trim()),
+                    Double.parseDouble(lonLat[1].trim())};
+        }
+        return locations;
+    }
+}
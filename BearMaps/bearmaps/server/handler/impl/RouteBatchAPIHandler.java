@@ -0,0 +1,107 @@
+package bearmaps.server.handler.impl;
+
+import bearmaps.Router;
+import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.graph.Deadline;
+import com.google.gson.Gson;
+import spark.Request;
+import spark.Response;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
+import static spark.Spark.halt;
+
+/**
+ * Handles requests for many routes at once, for tools that would otherwise
+ * send one route request per vehicle. The routes are solved in parallel and
+ * written out in the order they were asked for, each as soon as it and all
+ * the routes before it are done. If the client goes away, which shows as a
+ * failed write, the searches still running or queued are cancelled.
+ */
+public class RouteBatchAPIHandler extends APIRouteHandler<double[][], List<List<Long>>> {
+
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /** Largest number of routes a request may ask for. */
+    private static final int MAX_ROUTES = 1000;
+
+    private final Gson gson = new Gson();
+
+    /**
+     * Each request has one parameter:<br>
+     * pairs : semicolon-separated start_lon,start_lat,end_lon,end_lat
+     * quadruples, one per route.
+     */
+    @Override
+    protected double[][] parseRequestParams(Request request) {
+        String value = request.queryParams("pairs");
+        if (value == null || value.trim().isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        String[] parts = value.split(";");
+        if (parts.length > MAX_ROUTES) {
+            halt(HALT_RESPONSE, "Request failed - at most " + MAX_ROUTES + " routes.");
+        }
+        double[][] endpoints = new double[parts.length][];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                String[] coordinates = parts[i].split(",");
+                if (coordinates.length != 4) {
+                    throw new NumberFormatException("Not four coordinates: " + parts[i]);
+                }
+                endpoints[i] = new double[4];
+                for (int k = 0; k < 4; k++) {
+                    endpoints[i][k] = Double.parseDouble(coordinates[k].trim());
+                }
+            }
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+        }
+        return endpoints;
+    }
+
+    /**
+     * Writes a JSON array with the route of each pair, as an array of OSM
+     * node ids, empty if there is none, flushing after each route. A route
+     * whose search ran out of time stops short of its destination.
+     */
+    @Override
+    public Object handle(Request request, Response response) throws Exception {
+        double[][] endpoints = parseRequestParams(request);
+        Deadline batch = Deadline.never();
+        List<ForkJoinTask<List<Long>>> routes = Router.submitShortestPaths(
+                SEMANTIC_STREET_GRAPH, endpoints, Router.batchPool(), batch);
+        try {
+            response.type("application/json");
+            PrintWriter out = response.raw().getWriter();
+            out.write("[");
+            for (int i = 0; i < routes.size(); i++) {
+                if (i > 0) {
+                    out.write(",");
+                }
+                out.write(gson.toJson(routes.get(i).join()));
+                out.flush();
+                if (out.checkError()) {
+                    /* The client has gone; the searches left are cancelled below. */
+                    return "";
+                }
+            }
+            out.write("]");
+            out.flush();
+            return "";
+        } finally {
+            batch.cancel();
+        }
+    }
+
+    /** Returns the route of each pair in order, for callers that do not stream. */
+    @Override
+    protected List<List<Long>> processRequest(double[][] endpoints, Response response) {
+        return Router.shortestPaths(SEMANTIC_STREET_GRAPH, endpoints);
+    }
+}
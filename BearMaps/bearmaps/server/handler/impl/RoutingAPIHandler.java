@@ -2,6 +2,7 @@ package bearmaps.server.handler.impl;
 
 import bearmaps.Router;
 import bearmaps.server.handler.APIRouteHandler;
+import bearmaps.utils.graph.Deadline;
 import spark.Request;
 import spark.Response;
 
@@ -11,6 +12,7 @@ import java.util.Map;
 
 import static bearmaps.utils.Constants.SEMANTIC_STREET_GRAPH;
 import static bearmaps.utils.Constants.ROUTE_LIST;
+import static spark.Spark.halt;
 
 /**
  * Handles requests from the web browser for routes between locations. The
@@ -19,18 +21,57 @@ import static bearmaps.utils.Constants.ROUTE_LIST;
  */
 public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<String, Object>> {
 
+    /** HTTP failed response. */
+    private static final int HALT_RESPONSE = 403;
+
+    /** Largest epsilon a request may ask for, allowing routes twice as long as the shortest. */
+    private static final double MAX_EPSILON = 1;
+
+    /** Largest number of alternative routes a request may ask for. */
+    private static final int MAX_ALTERNATIVES = 3;
+
     /**
      * Each route request to the server will have the following parameters
      * as keys in the params map.<br>
      * start_lat : start point latitude,<br> start_lon : start point longitude,<br>
-     * end_lat : end point latitude, <br>end_lon : end point longitude.
+     * end_lat : end point latitude, <br>end_lon : end point longitude.<br>
+     * It may also have epsilon : how much longer than the shortest route a
+     * route may be, as a fraction, in exchange for a faster answer, and
+     * alternatives : how many alternative routes to return besides the route.
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
             "end_lat", "end_lon"};
 
     @Override
     protected Map<String, Double> parseRequestParams(Request request) {
-        return getRequestParams(request, REQUIRED_ROUTE_REQUEST_PARAMS);
+        Map<String, Double> params = getRequestParams(request, REQUIRED_ROUTE_REQUEST_PARAMS);
+        String epsilon = request.queryParams("epsilon");
+        if (epsilon != null) {
+            try {
+                params.put("epsilon", Double.parseDouble(epsilon));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                halt(HALT_RESPONSE, "Incorrect parameters - provide numbers.");
+            }
+            if (!(params.get("epsilon") >= 0 && params.get("epsilon") <= MAX_EPSILON)) {
+                halt(HALT_RESPONSE, "Incorrect parameters - epsilon must be between 0 and "
+                        + MAX_EPSILON + ".");
+            }
+        }
+        String alternatives = request.queryParams("alternatives");
+        if (alternatives != null) {
+            try {
+                params.put("alternatives", (double) Integer.parseInt(alternatives.trim()));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+                halt(HALT_RESPONSE, "Incorrect parameters - alternatives must be a whole number.");
+            }
+            if (params.get("alternatives") < 0 || params.get("alternatives") > MAX_ALTERNATIVES) {
+                halt(HALT_RESPONSE, "Incorrect parameters - at most " + MAX_ALTERNATIVES
+                        + " alternatives.");
+            }
+        }
+        return params;
     }
 
     /**
@@ -55,13 +96,24 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
      * "directions_success" : Boolean, whether the query generated text directions (i.e. if
      *                        length of directions is > 0).
      * "directions"      : String. The text directions you want to display, in HTML format.
+     *
+     * "epsilon"         : Only if the route may not be a shortest one. The epsilon it was
+     *                     found with, which is larger than asked for while the server is busy.
+     * "suboptimality_bound" : Only with epsilon. How many times as long as the shortest route
+     *                     the route may be, 1 + epsilon.
+     *
+     * "alternatives"    : Only if alternatives were asked for. A list of up to that many
+     *                     other routes that differ enough from the route, each a list of
+     *                     node ids, shortest first.
      */
     @Override
     protected Map<String, Object> processRequest(Map<String, Double> requestParams, Response response) {
-        List<Long> route = Router.shortestPath(
+        Router.Route found = Router.route(
                 SEMANTIC_STREET_GRAPH,
                 requestParams.get("start_lon"), requestParams.get("start_lat"),
-                requestParams.get("end_lon"), requestParams.get("end_lat"));
+                requestParams.get("end_lon"), requestParams.get("end_lat"),
+                Deadline.after(Router.ROUTE_TIMEOUT), requestParams.getOrDefault("epsilon", 0.0));
+        List<Long> route = found.nodes();
         ROUTE_LIST.addAll(route);
         String directions = getDirectionsText();
 
@@ -69,6 +121,17 @@ public class RoutingAPIHandler extends APIRouteHandler<Map<String, Double>, Map<
         routeParams.put("routing_success", !route.isEmpty());
         routeParams.put("directions_success", directions.length() > 0);
         routeParams.put("directions", directions);
+        if (found.epsilon() > 0) {
+            routeParams.put("epsilon", found.epsilon());
+            routeParams.put("suboptimality_bound", found.suboptimalityBound());
+        }
+        if (requestParams.containsKey("alternatives")) {
+            routeParams.put("alternatives", Router.alternativesTo(
+                    SEMANTIC_STREET_GRAPH,
+                    requestParams.get("start_lon"), requestParams.get("start_lat"),
+                    requestParams.get("end_lon"), requestParams.get("end_lat"),
+                    route, requestParams.get("alternatives").intValue()));
+        }
         return routeParams;
     }
 
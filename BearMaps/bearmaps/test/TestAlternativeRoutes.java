@@ -0,0 +1,136 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.graph.AlternativeRoutes;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that alternative routes are real paths between the right vertices,
+ * that the first is a shortest one, and that the others keep to the stretch
+ * and sharing bounds.
+ */
+public class TestAlternativeRoutes {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int QUERIES = 40;
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testBounds() {
+        CSRGraph g = graph.csr();
+        Random random = new Random(7);
+        int alternatives = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            int s = vertexInLargestComponent(random);
+            int t = vertexInLargestComponent(random);
+            AlternativeRoutes found = AlternativeRoutes.find(g, g.reversed(), s, t, 3);
+            assertTrue(found.count() >= 1 && found.count() <= 3);
+            double shortest = new IntAStarSolver(g, s, t, 20).solutionWeight();
+            assertEquals(shortest, found.length(0), 1e-9);
+
+            Set<Long> used = new HashSet<>();
+            for (int i = 0; i < found.count(); i++) {
+                int[] path = found.path(i);
+                assertEquals(s, path[0]);
+                assertEquals(t, path[path.length - 1]);
+                double length = 0;
+                double shared = 0;
+                for (int j = 1; j < path.length; j++) {
+                    int e = g.findEdge(path[j - 1], path[j]);
+                    assertTrue(e >= 0);
+                    length += g.weight(e);
+                    if (used.contains(key(path[j - 1], path[j]))) {
+                        shared += g.weight(e);
+                    }
+                }
+                assertEquals(found.length(i), length, 1e-9);
+                assertTrue(length <= (1 + AlternativeRoutes.MAX_STRETCH) * shortest + 1e-9);
+                if (i > 0) {
+                    assertTrue(shared <= AlternativeRoutes.MAX_SHARING * shortest + 1e-9);
+                    alternatives += 1;
+                }
+                for (int j = 1; j < path.length; j++) {
+                    used.add(key(path[j - 1], path[j]));
+                }
+            }
+        }
+        assertTrue(alternatives > 0);
+    }
+
+    @Test
+    public void testRouter() {
+        CSRGraph g = graph.csr();
+        Random random = new Random(8);
+        int s = vertexInLargestComponent(random);
+        int t = vertexInLargestComponent(random);
+        List<List<Long>> routes = Router.alternativeRoutes(graph, g.lon(s), g.lat(s),
+                g.lon(t), g.lat(t), 2);
+        assertTrue(routes.size() >= 1 && routes.size() <= 2);
+        for (List<Long> route : routes) {
+            assertEquals(g.id(s), (long) route.get(0));
+            assertEquals(g.id(t), (long) route.get(route.size() - 1));
+        }
+        assertEquals(1, Router.alternativeRoutes(graph, g.lon(s), g.lat(s),
+                g.lon(t), g.lat(t), 1).size());
+    }
+
+    @Test
+    public void testAlternativesToRoute() {
+        CSRGraph g = graph.csr();
+        Random random = new Random(9);
+        int found = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            int s = vertexInLargestComponent(random);
+            int t = vertexInLargestComponent(random);
+            List<Long> route = Router.shortestPath(graph, g.lon(s), g.lat(s), g.lon(t), g.lat(t));
+            assertTrue(Router.alternativesTo(graph, g.lon(s), g.lat(s), g.lon(t), g.lat(t),
+                    route, 0).isEmpty());
+            List<List<Long>> alternatives = Router.alternativesTo(graph, g.lon(s), g.lat(s),
+                    g.lon(t), g.lat(t), route, 2);
+            assertTrue(alternatives.size() <= 2);
+            found += alternatives.size();
+            for (List<Long> alternative : alternatives) {
+                assertFalse(alternative.equals(route));
+                assertEquals(g.id(s), (long) alternative.get(0));
+                assertEquals(g.id(t), (long) alternative.get(alternative.size() - 1));
+            }
+        }
+        assertTrue(found > 0);
+    }
+
+    private static int vertexInLargestComponent(Random random) {
+        CSRGraph g = graph.csr();
+        int v;
+        do {
+            v = random.nextInt(g.vertexCount());
+        } while (graph.components().component(v) != 0
+                || graph.closest(g.lon(v), g.lat(v)) != g.id(v));
+        return v;
+    }
+
+    private static long key(int v, int w) {
+        return (long) v << 32 | w;
+    }
+}
@@ -0,0 +1,50 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that batch routing returns the same routes as single requests, in
+ * the order asked for, including repeated pairs.
+ */
+public class TestBatchRouting {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int ROUTES = 40;
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testSameAsShortestPath() {
+        Random r = new Random(7);
+        double[][] endpoints = new double[ROUTES][];
+        for (int i = 0; i < ROUTES; i++) {
+            endpoints[i] = new double[]{-122.29 + 0.07 * r.nextDouble(),
+                    37.83 + 0.06 * r.nextDouble(), -122.29 + 0.07 * r.nextDouble(),
+                    37.83 + 0.06 * r.nextDouble()};
+        }
+        endpoints[ROUTES - 1] = endpoints[0];
+        List<List<Long>> routes = Router.shortestPaths(graph, endpoints);
+        assertEquals(ROUTES, routes.size());
+        graph.routeCache().invalidate();
+        for (int i = 0; i < ROUTES; i++) {
+            double[] e = endpoints[i];
+            assertEquals(Router.shortestPath(graph, e[0], e[1], e[2], e[3]), routes.get(i));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.BidirectionalAStarSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.ContractedGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that bidirectional A* finds routes as short as A*, on the full graph
+ * and on the contracted one, with one thread and with two.
+ */
+public class TestBidirectionalAStarSolver {
+    private static final String OSM_DB_PATH_TINY = "../library-su19/data/proj3_xml/tiny-clean.osm.xml";
+    private static final int MAX_ENDPOINTS = 40;
+    private static AugmentedStreetMapGraph graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new AugmentedStreetMapGraph(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    private static void assertSameRoute(AStarSolver<Long> expected,
+                                        BidirectionalAStarSolver<Long> actual, long src,
+                                        long dst) {
+        assertEquals(expected.outcome(), actual.outcome());
+        assertEquals(expected.solutionWeight(), actual.solutionWeight(), 1e-9);
+        if (actual.outcome() == SolverOutcome.SOLVED) {
+            assertEquals(src, (long) actual.solution().get(0));
+            assertEquals(dst, (long) actual.solution().get(actual.solution().size() - 1));
+        }
+    }
+
+    @Test
+    public void testFullGraph() {
+        CSRGraph g = graphTiny.csr();
+        int step = Math.max(1, g.vertexCount() / MAX_ENDPOINTS);
+        for (int s = 0; s < g.vertexCount(); s += step) {
+            for (int d = 0; d < g.vertexCount(); d += step) {
+                long src = g.id(s);
+                long dst = g.id(d);
+                assertSameRoute(new AStarSolver<>(graphTiny, src, dst, 20),
+                        new BidirectionalAStarSolver<>(graphTiny, src, dst, 20), src, dst);
+            }
+        }
+    }
+
+    @Test
+    public void testContracted() {
+        CSRGraph g = graphTiny.csr();
+        ContractedGraph contracted = graphTiny.routingGraph();
+        int step = Math.max(1, g.vertexCount() / MAX_ENDPOINTS);
+        for (int s = 0; s < g.vertexCount(); s += step) {
+            for (int d = 0; d < g.vertexCount(); d += step) {
+                long src = g.id(s);
+                long dst = g.id(d);
+                ContractedGraph.Query query = contracted.query(src, dst);
+                AStarSolver<Long> expected = new AStarSolver<>(query, src, dst, 20);
+                for (boolean parallel : new boolean[]{false, true}) {
+                    assertSameRoute(expected, new BidirectionalAStarSolver<>(query,
+                            query.reversed(), src, dst, 20, parallel), src, dst);
+                }
+            }
+        }
+    }
+}
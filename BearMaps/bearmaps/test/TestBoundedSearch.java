@@ -0,0 +1,87 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.BoundedSearch;
+import bearmaps.utils.graph.DistanceMatrix;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import bearmaps.utils.ps.ConvexHull;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a bounded search finds exactly the vertices within each budget,
+ * and that the convex hull of a set of vertices encloses all of them.
+ */
+public class TestBoundedSearch {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static CSRGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new StreetMapGraph(OSM_DB_PATH).csr();
+        initialized = true;
+    }
+
+    private static int source() {
+        int v = graph.vertexCount() / 2;
+        while (graph.degree(v) == 0) {
+            v += 1;
+        }
+        return v;
+    }
+
+    @Test
+    public void testBudgets() {
+        int source = source();
+        int[] all = new int[graph.vertexCount()];
+        for (int v = 0; v < all.length; v++) {
+            all[v] = v;
+        }
+        double[] distances = DistanceMatrix.compute(graph, new int[]{source}, all);
+        BoundedSearch search = BoundedSearch.run(graph, source, 1.0);
+        for (double budget : new double[]{0, 0.25, 0.5, 1.0}) {
+            int count = search.countWithin(budget);
+            Set<Integer> found = new HashSet<>();
+            for (int i = 0; i < count; i++) {
+                found.add(search.vertex(i));
+                assertEquals(distances[search.vertex(i)], search.distance(i), 1e-9);
+                assertTrue(i == 0 || search.distance(i - 1) <= search.distance(i));
+            }
+            for (int v = 0; v < all.length; v++) {
+                assertEquals(distances[v] <= budget, found.contains(v));
+            }
+        }
+    }
+
+    @Test
+    public void testHull() {
+        BoundedSearch search = BoundedSearch.run(graph, source(), 0.5);
+        int n = search.size();
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = graph.lon(search.vertex(i));
+            ys[i] = graph.lat(search.vertex(i));
+        }
+        int[] hull = ConvexHull.of(xs, ys, n);
+        assertTrue(hull.length >= 3);
+        for (int k = 0; k < hull.length; k++) {
+            int a = hull[k];
+            int b = hull[(k + 1) % hull.length];
+            for (int i = 0; i < n; i++) {
+                double cross = (xs[b] - xs[a]) * (ys[i] - ys[a]) - (ys[b] - ys[a]) * (xs[i] - xs[a]);
+                assertTrue(cross >= -1e-12);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.WeightedEdge;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the compiled CSR graph against the list-based neighbors view, and
+ * that renumbering its vertices changes neither the graph nor its routes.
+ */
+public class TestCSRGraph {
+    private static final String OSM_DB_PATH_TINY = "../library-su19/data/proj3_xml/tiny-clean.osm.xml";
+    private static AugmentedStreetMapGraph graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new AugmentedStreetMapGraph(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testIdMapping() {
+        CSRGraph g = graphTiny.csr();
+        assertTrue(g.vertexCount() > 0);
+        for (int v = 0; v < g.vertexCount(); v++) {
+            assertEquals(v, g.indexOf(g.id(v)));
+        }
+        assertEquals(-1, g.indexOf(-12345L));
+    }
+
+    @Test
+    public void testEdgesMatchNeighbors() {
+        CSRGraph g = graphTiny.csr();
+        for (int v = 0; v < g.vertexCount(); v++) {
+            List<WeightedEdge<Long>> neighbors = graphTiny.neighbors(g.id(v));
+            assertEquals(g.degree(v), neighbors.size());
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                WeightedEdge<Long> edge = neighbors.get(e - g.edgeBegin(v));
+                assertEquals(g.id(g.target(e)), (long) edge.to());
+                assertEquals(g.weight(e), edge.weight(), 0.0);
+                assertEquals(g.distance(v, g.target(e)), g.weight(e), 0.0);
+                for (int f = g.edgeBegin(v); f < e; f++) {
+                    assertTrue("Repeated edge", g.target(f) != g.target(e));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testHilbertOrderIsPermutation() {
+        CSRGraph g = graphTiny.csr();
+        int[] order = g.hilbertOrder();
+        assertEquals(g.vertexCount(), order.length);
+        boolean[] seen = new boolean[order.length];
+        for (int i = 0; i < order.length; i++) {
+            assertFalse(seen[order[i]]);
+            seen[order[i]] = true;
+            /* The graph is built in Hilbert order already. */
+            assertEquals(i, order[i]);
+        }
+    }
+
+    @Test
+    public void testPermutePreservesRoutes() {
+        CSRGraph g = graphTiny.csr();
+        int n = g.vertexCount();
+        int[] order = new int[n];
+        for (int v = 0; v < n; v++) {
+            order[v] = v;
+        }
+        Random random = new Random(3);
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[j];
+            order[j] = t;
+        }
+        CSRGraph p = g.permute(order);
+        int[] index = new int[n];
+        for (int i = 0; i < n; i++) {
+            index[order[i]] = i;
+        }
+        for (int v = 0; v < n; v++) {
+            assertEquals(g.id(v), p.id(index[v]));
+            assertEquals(index[v], p.indexOf(g.id(v)));
+            assertEquals(g.lat(v), p.lat(index[v]), 0);
+            assertEquals(g.lon(v), p.lon(index[v]), 0);
+            assertEquals(g.degree(v), p.degree(index[v]));
+        }
+
+        int step = Math.max(1, n / 20);
+        int solved = 0;
+        for (int s = 0; s < n; s += step) {
+            for (int t = 0; t < n; t += step) {
+                IntAStarSolver expected = new IntAStarSolver(g, s, t, 20);
+                IntAStarSolver actual = new IntAStarSolver(p, index[s], index[t], 20);
+                assertEquals(expected.outcome(), actual.outcome());
+                if (expected.outcome() != SolverOutcome.SOLVED) {
+                    continue;
+                }
+                solved += 1;
+                assertEquals(expected.solutionWeight(), actual.solutionWeight(), 1e-9);
+                /* Mapped back to the original numbering, the route is a path from s to t. */
+                int[] path = actual.path();
+                assertEquals(s, order[path[0]]);
+                assertEquals(t, order[path[path.length - 1]]);
+                double length = 0;
+                for (int i = 1; i < path.length; i++) {
+                    int e = g.findEdge(order[path[i - 1]], order[path[i]]);
+                    assertTrue(e >= 0);
+                    length += g.weight(e);
+                }
+                assertEquals(expected.solutionWeight(), length, 1e-9);
+            }
+        }
+        assertTrue(solved > 0);
+
+        /* Renumbering back gives the original graph, edge for edge. */
+        CSRGraph back = p.permute(index);
+        assertEquals(g.edgeCount(), back.edgeCount());
+        for (int v = 0; v < n; v++) {
+            assertEquals(g.id(v), back.id(v));
+            assertEquals(g.edgeBegin(v), back.edgeBegin(v));
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                assertEquals(g.target(e), back.target(e));
+                assertEquals(g.weight(e), back.weight(e), 0);
+                assertEquals(g.edgeName(e), back.edgeName(e));
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.graph.BoundedSearch;
+import bearmaps.utils.graph.Components;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that component labels match what searches can reach, and that
+ * routes between components and snapping into the largest one use them.
+ */
+public class TestComponents {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH);
+        initialized = true;
+    }
+
+    @Test
+    public void testLabelsMatchSearch() {
+        CSRGraph g = graph.csr();
+        Components components = graph.components();
+        int total = 0;
+        for (int c = 0; c < components.count(); c++) {
+            total += components.size(c);
+            assertTrue(c == 0 || components.size(c - 1) >= components.size(c));
+        }
+        assertEquals(g.vertexCount(), total);
+
+        int step = Math.max(1, g.vertexCount() / 20);
+        for (int s = 0; s < g.vertexCount(); s += step) {
+            BoundedSearch reached = BoundedSearch.run(g, s, Double.POSITIVE_INFINITY);
+            for (int i = 0; i < reached.size(); i++) {
+                assertTrue(components.connected(s, reached.vertex(i)));
+            }
+            assertEquals(components.size(components.component(s)), reached.size());
+        }
+    }
+
+    @Test
+    public void testRouteBetweenComponents() {
+        CSRGraph g = graph.csr();
+        Components components = graph.components();
+        int small = smallComponentVertex();
+        int large = largeComponentVertex();
+        assertFalse(components.connected(small, large));
+        assertTrue(Router.shortestPath(graph, g.lon(small), g.lat(small),
+                g.lon(large), g.lat(large)).isEmpty());
+    }
+
+    @Test
+    public void testClosestInLargestComponent() {
+        CSRGraph g = graph.csr();
+        Components components = graph.components();
+        int small = smallComponentVertex();
+        assertEquals(g.id(small), graph.closest(g.lon(small), g.lat(small), false));
+        long snapped = graph.closest(g.lon(small), g.lat(small), true);
+        assertEquals(0, components.component(g.indexOf(snapped)));
+
+        int large = largeComponentVertex();
+        assertEquals(graph.closest(g.lon(large), g.lat(large)),
+                graph.closest(g.lon(large), g.lat(large), true));
+    }
+
+    /* Returns a vertex with edges outside the largest component. */
+    private static int smallComponentVertex() {
+        CSRGraph g = graph.csr();
+        for (int v = 0; v < g.vertexCount(); v++) {
+            if (g.degree(v) > 0 && graph.components().component(v) != 0) {
+                return v;
+            }
+        }
+        throw new AssertionError("The graph has a single component with edges");
+    }
+
+    private static int largeComponentVertex() {
+        CSRGraph g = graph.csr();
+        for (int v = g.vertexCount() / 2; ; v++) {
+            if (graph.components().component(v) == 0) {
+                return v;
+            }
+        }
+    }
+}
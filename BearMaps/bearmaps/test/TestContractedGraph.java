@@ -0,0 +1,99 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.ContractedGraph;
+import bearmaps.utils.graph.streetmap.EdgeWeightOverlay;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that routing on the contracted graph finds the same paths as on the
+ * full graph, and that it follows runtime weight changes.
+ */
+public class TestContractedGraph {
+    private static final String OSM_DB_PATH_TINY = "../library-su19/data/proj3_xml/tiny-clean.osm.xml";
+    private static final int MAX_ENDPOINTS = 40;
+    private static AugmentedStreetMapGraph graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new AugmentedStreetMapGraph(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testSamePaths() {
+        CSRGraph g = graphTiny.csr();
+        ContractedGraph contracted = graphTiny.routingGraph();
+        int step = Math.max(1, g.vertexCount() / MAX_ENDPOINTS);
+        for (int s = 0; s < g.vertexCount(); s += step) {
+            for (int d = 0; d < g.vertexCount(); d += step) {
+                if (g.degree(s) == 0 || g.degree(d) == 0) {
+                    continue;
+                }
+                long src = g.id(s);
+                long dst = g.id(d);
+                List<Long> expected = new AStarSolver<>(graphTiny, src, dst, 20).solution();
+                ContractedGraph.Query query = contracted.query(src, dst);
+                List<Long> actual = query.expand(new AStarSolver<>(query, src, dst, 20).solution());
+                assertEquals("Path from " + src + " to " + dst, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testCloseAndOpen() {
+        CSRGraph g = graphTiny.csr();
+        EdgeWeightOverlay overlay = graphTiny.routingWeights();
+        /* Find a vertex two edges away from another, but not next to it. */
+        int s = -1;
+        int d = -1;
+        while (d < 0) {
+            s += 1;
+            for (int e = g.edgeBegin(s); e < g.edgeEnd(s) && d < 0; e++) {
+                int w = g.target(e);
+                for (int f = g.edgeBegin(w); f < g.edgeEnd(w) && d < 0; f++) {
+                    if (g.target(f) != s && g.findEdge(s, g.target(f)) < 0) {
+                        d = g.target(f);
+                    }
+                }
+            }
+        }
+        long src = g.id(s);
+        long dst = g.id(d);
+        List<Long> before = route(src, dst);
+        assertTrue(before.size() >= 3);
+
+        long version = overlay.version();
+        long[] closed = {before.get(0), before.get(1)};
+        assertEquals(2, overlay.close(closed));
+        assertEquals(version + 1, overlay.version());
+        assertEquals(2, graphTiny.routingGraph().changedEdgeCount());
+        List<Long> during = route(src, dst);
+        for (int i = 1; i < during.size(); i++) {
+            assertFalse(during.get(i - 1) == closed[0] && during.get(i) == closed[1]);
+        }
+
+        overlay.open(closed);
+        assertEquals(0, overlay.changedEdgeCount());
+        assertEquals(0, graphTiny.routingGraph().changedEdgeCount());
+        assertEquals(before, route(src, dst));
+    }
+
+    private static List<Long> route(long src, long dst) {
+        ContractedGraph.Query query = graphTiny.routingGraph().query(src, dst);
+        return query.expand(new AStarSolver<>(query, src, dst, 20).solution());
+    }
+}
@@ -0,0 +1,79 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.ContractionHierarchy;
+import bearmaps.utils.graph.ContractionHierarchySolver;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.GraphSnapshot;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that contraction hierarchy queries find routes as short as A*, that
+ * their paths use real edges, and that a hierarchy survives serialization.
+ */
+public class TestContractionHierarchy {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int MAX_ENDPOINTS = 30;
+    private static CSRGraph graph;
+    private static ContractionHierarchy hierarchy;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new StreetMapGraph(OSM_DB_PATH).csr();
+        hierarchy = ContractionHierarchy.build(graph);
+        initialized = true;
+    }
+
+    private static void assertSameRoutes(ContractionHierarchy ch) {
+        int step = Math.max(1, graph.vertexCount() / MAX_ENDPOINTS);
+        for (int s = 0; s < graph.vertexCount(); s += step) {
+            for (int d = 0; d < graph.vertexCount(); d += step) {
+                IntAStarSolver expected = new IntAStarSolver(graph, s, d, 20);
+                ContractionHierarchySolver actual = new ContractionHierarchySolver(ch, s, d, 20);
+                assertEquals(expected.outcome(), actual.outcome());
+                assertEquals(expected.solutionWeight(), actual.solutionWeight(), 1e-9);
+                if (actual.outcome() != SolverOutcome.SOLVED) {
+                    continue;
+                }
+                int[] path = actual.path();
+                assertEquals(s, path[0]);
+                assertEquals(d, path[path.length - 1]);
+                double weight = 0;
+                for (int i = 1; i < path.length; i++) {
+                    weight += graph.weight(graph.findEdge(path[i - 1], path[i]));
+                }
+                assertEquals(actual.solutionWeight(), weight, 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsAStar() {
+        assertSameRoutes(hierarchy);
+    }
+
+    @Test
+    public void testSerialization() {
+        ByteBuffer b = GraphSnapshot.newBuffer(hierarchy.bytes());
+        hierarchy.writeTo(b);
+        assertEquals(0, b.remaining());
+        b.flip();
+        ContractionHierarchy read = ContractionHierarchy.readFrom(b);
+        assertEquals(hierarchy.edgeCount(), read.edgeCount());
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            assertEquals(hierarchy.rank(v), read.rank(v));
+        }
+        assertSameRoutes(read);
+    }
+}
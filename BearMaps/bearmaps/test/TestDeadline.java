@@ -0,0 +1,129 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.BoundedSearch;
+import bearmaps.utils.graph.Deadline;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.SearchWorkspace;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that searches give up when their deadline is cancelled, and that the
+ * partial path they return then is a real path from the start that ends
+ * closer to the goal.
+ */
+public class TestDeadline {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static StreetMapGraph streetMap;
+    private static CSRGraph graph;
+    private static int source;
+    private static int target;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        streetMap = new StreetMapGraph(OSM_DB_PATH);
+        graph = streetMap.csr();
+        source = graph.vertexCount() / 2;
+        while (graph.degree(source) == 0) {
+            source += 1;
+        }
+        /* The farthest vertex reachable, so that the search has a long way to go. */
+        BoundedSearch all = BoundedSearch.run(graph, source, Double.POSITIVE_INFINITY);
+        target = all.vertex(all.size() - 1);
+        initialized = true;
+    }
+
+    @Test
+    public void testUnreachedDeadlineSolves() {
+        IntAStarSolver expected = new IntAStarSolver(graph, source, target, 20);
+        IntAStarSolver actual = new IntAStarSolver(graph, source, target, Deadline.after(20), true);
+        assertEquals(SolverOutcome.SOLVED, actual.outcome());
+        assertArrayEquals(expected.path(), actual.path());
+        assertEquals(expected.solutionWeight(), actual.solutionWeight(), 1e-9);
+    }
+
+    @Test
+    public void testCancelledBeforeStart() {
+        Deadline deadline = Deadline.never();
+        deadline.cancel();
+        IntAStarSolver partial = new IntAStarSolver(graph, source, target, deadline, true);
+        assertEquals(SolverOutcome.TIMEOUT, partial.outcome());
+        assertArrayEquals(new int[]{source}, partial.path());
+        assertEquals(0, partial.solutionWeight(), 0);
+
+        IntAStarSolver none = new IntAStarSolver(graph, source, target, deadline, false);
+        assertEquals(SolverOutcome.TIMEOUT, none.outcome());
+        assertEquals(0, none.path().length);
+    }
+
+    @Test
+    public void testPartialPath() {
+        /* Cancels the search from its heuristic, after a fixed amount of work. */
+        Deadline deadline = Deadline.never();
+        int[] calls = new int[1];
+        IntAStarSolver solver = new IntAStarSolver(graph, source, target, deadline, true,
+                new SearchWorkspace(graph.vertexCount()), (v, goal) -> {
+                    calls[0] += 1;
+                    if (calls[0] == 2000) {
+                        deadline.cancel();
+                    }
+                    return graph.estimatedDistanceToGoal(v, goal);
+                });
+        assertEquals(SolverOutcome.TIMEOUT, solver.outcome());
+        int[] path = solver.path();
+        assertTrue(path.length > 1);
+        assertEquals(source, path[0]);
+        assertTrue(path[path.length - 1] != target);
+        double length = 0;
+        for (int i = 1; i < path.length; i++) {
+            int e = graph.findEdge(path[i - 1], path[i]);
+            assertTrue(e >= 0);
+            length += graph.weight(e);
+        }
+        assertEquals(length, solver.solutionWeight(), 1e-9);
+        assertTrue(graph.estimatedDistanceToGoal(path[path.length - 1], target)
+                < graph.estimatedDistanceToGoal(source, target));
+    }
+
+    @Test
+    public void testGenericPartialPath() {
+        Deadline deadline = Deadline.never();
+        deadline.cancel();
+        AStarSolver<Long> solver = new AStarSolver<>(streetMap, graph.id(source), graph.id(target),
+                deadline, true);
+        assertEquals(SolverOutcome.TIMEOUT, solver.outcome());
+        List<Long> path = solver.solution();
+        assertEquals(1, path.size());
+        assertEquals(graph.id(source), (long) path.get(0));
+        assertEquals(0, solver.solutionWeight(), 0);
+    }
+
+    @Test
+    public void testWithin() {
+        Deadline batch = Deadline.never();
+        Deadline route = batch.within(60);
+        Deadline expired = batch.within(0);
+        assertFalse(route.reached());
+        assertTrue(expired.reached());
+        assertFalse(batch.reached());
+        batch.cancel();
+        assertTrue(route.reached());
+        assertTrue(route.isCancelled());
+        assertTrue(route.reached(1));
+    }
+}
@@ -0,0 +1,67 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.ContractionHierarchy;
+import bearmaps.utils.graph.DistanceMatrix;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that both ways of computing a distance matrix agree with A* on
+ * every pair, including repeated targets and a source that is a target.
+ */
+public class TestDistanceMatrix {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int SIZE = 20;
+    private static CSRGraph graph;
+    private static ContractionHierarchy hierarchy;
+    private static int[] sources;
+    private static int[] targets;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new StreetMapGraph(OSM_DB_PATH).csr();
+        hierarchy = ContractionHierarchy.build(graph);
+        sources = new int[SIZE];
+        targets = new int[SIZE];
+        int step = graph.vertexCount() / (2 * SIZE);
+        for (int i = 0; i < SIZE; i++) {
+            sources[i] = 2 * i * step;
+            targets[i] = (2 * i + 1) * step;
+        }
+        targets[1] = targets[0];
+        targets[2] = sources[2];
+        initialized = true;
+    }
+
+    private static void assertSameAsAStar(double[] matrix) {
+        assertEquals(SIZE * SIZE, matrix.length);
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                IntAStarSolver expected = new IntAStarSolver(graph, sources[i], targets[j], 20);
+                double weight = expected.outcome() == SolverOutcome.SOLVED
+                        ? expected.solutionWeight() : Double.POSITIVE_INFINITY;
+                assertEquals(weight, matrix[i * SIZE + j], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testDijkstra() {
+        assertSameAsAStar(DistanceMatrix.compute(graph, sources, targets));
+    }
+
+    @Test
+    public void testBuckets() {
+        assertSameAsAStar(DistanceMatrix.compute(hierarchy, sources, targets));
+    }
+}
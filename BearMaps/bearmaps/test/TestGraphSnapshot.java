@@ -0,0 +1,137 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.GraphSnapshot;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a snapshot loads back the graph and index sections it was
+ * written with, and that a snapshot that fails its checksum, whose source
+ * file has changed since, or that claims a section over 2 GB, is ignored.
+ */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH = "bearmaps/test/data/streets.osm.xml";
+    private static final int[] SECTION = {3, 1, 4, 1, 5, 9, 2, 6};
+    private String osmPath;
+    private CSRGraph graph;
+
+    @Before
+    public void setUp() throws Exception {
+        File dir = Files.createTempDirectory("snapshot").toFile();
+        dir.deleteOnExit();
+        File osm = new File(dir, "streets.osm.xml");
+        osm.deleteOnExit();
+        new File(GraphSnapshot.pathFor(osm.getPath())).deleteOnExit();
+        Files.copy(new File(OSM_DB_PATH).toPath(), osm.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        osmPath = osm.getPath();
+        graph = StreetMapGraph.readFromXML(osmPath, false).csr();
+
+        ByteBuffer section = GraphSnapshot.newBuffer(4 * SECTION.length);
+        for (int v : SECTION) {
+            section.putInt(v);
+        }
+        section.flip();
+        GraphSnapshot.write(osmPath, graph, Collections.singletonMap(GraphSnapshot.LANDMARKS,
+                section));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        GraphSnapshot snapshot = GraphSnapshot.load(osmPath);
+        assertNotNull(snapshot);
+        CSRGraph loaded = snapshot.graph();
+        assertEquals(graph.vertexCount(), loaded.vertexCount());
+        assertEquals(graph.edgeCount(), loaded.edgeCount());
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            assertEquals(graph.id(v), loaded.id(v));
+            assertEquals(v, loaded.indexOf(graph.id(v)));
+            assertEquals(graph.lat(v), loaded.lat(v), 0);
+            assertEquals(graph.lon(v), loaded.lon(v), 0);
+            assertEquals(graph.name(v), loaded.name(v));
+            assertEquals(graph.edgeBegin(v), loaded.edgeBegin(v));
+            assertEquals(graph.edgeEnd(v), loaded.edgeEnd(v));
+            for (int e = graph.edgeBegin(v); e < graph.edgeEnd(v); e++) {
+                assertEquals(graph.target(e), loaded.target(e));
+                assertEquals(graph.weight(e), loaded.weight(e), 0);
+                assertEquals(graph.edgeName(e), loaded.edgeName(e));
+            }
+        }
+        assertArrayEquals(SECTION, GraphSnapshot.getInts(
+                snapshot.section(GraphSnapshot.LANDMARKS), SECTION.length));
+        assertNull(snapshot.section(GraphSnapshot.TRANSIT_NODES));
+    }
+
+    @Test
+    public void testCorruptedChecksum() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(GraphSnapshot.pathFor(osmPath), "rw")) {
+            long last = raf.length() - 1;
+            raf.seek(last);
+            int b = raf.read();
+            raf.seek(last);
+            raf.write(b ^ 0x01);
+        }
+        assertNull(GraphSnapshot.load(osmPath));
+    }
+
+    @Test
+    public void testStaleSource() {
+        File osm = new File(osmPath);
+        assertNotNull(GraphSnapshot.load(osmPath));
+        osm.setLastModified(osm.lastModified() - 60_000);
+        assertNull(GraphSnapshot.load(osmPath));
+    }
+
+    @Test
+    public void testMismatchedSource() throws IOException {
+        /* A different file of another length, under the name the snapshot was written for. */
+        Files.write(new File(osmPath).toPath(), "<osm></osm>\n".getBytes());
+        assertNull(GraphSnapshot.load(osmPath));
+    }
+
+    @Test
+    public void testOversizedSection() throws IOException {
+        try {
+            GraphSnapshot.newBuffer(3L << 30);
+            fail("Expected a section over 2 GB to be rejected");
+        } catch (IllegalArgumentException e) {
+            /* Expected. */
+        }
+
+        /* Claim a 3 GB GRAPH section, with a checksum that matches the claim. */
+        try (RandomAccessFile raf = new RandomAccessFile(GraphSnapshot.pathFor(osmPath), "rw");
+             FileChannel channel = raf.getChannel()) {
+            ByteBuffer length = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            length.putLong(3L << 30).flip();
+            channel.write(length, 48);
+            ByteBuffer body = ByteBuffer.allocate((int) channel.size() - 40);
+            channel.read(body, 40);
+            body.flip();
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            ByteBuffer checksum = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            checksum.putLong(crc.getValue()).flip();
+            channel.write(checksum, 24);
+        }
+        assertNull(GraphSnapshot.load(osmPath));
+    }
+}
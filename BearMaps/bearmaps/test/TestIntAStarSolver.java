@@ -0,0 +1,135 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.graph.AStarSolver;
+import bearmaps.utils.graph.BoundedSearch;
+import bearmaps.utils.graph.Deadline;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.SearchWorkspace;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.ContractedGraph;
+import bearmaps.utils.pq.IndexedHeapPQ;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the primitive A* finds the same routes as the generic one, on a
+ * workspace reused from one search to the next, and that weighted A* stays
+ * within its bound and reports it with the route.
+ */
+public class TestIntAStarSolver {
+    private static final String OSM_DB_PATH_TINY = "../library-su19/data/proj3_xml/tiny-clean.osm.xml";
+    private static final int MAX_ENDPOINTS = 40;
+    private static AugmentedStreetMapGraph graphTiny;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graphTiny = new AugmentedStreetMapGraph(OSM_DB_PATH_TINY);
+        initialized = true;
+    }
+
+    @Test
+    public void testSameAsAStarSolver() {
+        CSRGraph g = graphTiny.csr();
+        int step = Math.max(1, g.vertexCount() / MAX_ENDPOINTS);
+        for (int s = 0; s < g.vertexCount(); s += step) {
+            for (int d = 0; d < g.vertexCount(); d += step) {
+                AStarSolver<Long> expected = new AStarSolver<>(graphTiny, g.id(s), g.id(d), 20);
+                IntAStarSolver actual = new IntAStarSolver(g, s, d, 20);
+                assertEquals(expected.outcome(), actual.outcome());
+                List<Long> path = new ArrayList<>();
+                for (int v : actual.path()) {
+                    path.add(g.id(v));
+                }
+                assertEquals(expected.solution(), path);
+                assertEquals(expected.solutionWeight(), actual.solutionWeight(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testContracted() {
+        CSRGraph g = graphTiny.csr();
+        ContractedGraph contracted = graphTiny.routingGraph();
+        int step = Math.max(1, g.vertexCount() / MAX_ENDPOINTS);
+        for (int s = 0; s < g.vertexCount(); s += step) {
+            for (int d = 0; d < g.vertexCount(); d += step) {
+                ContractedGraph.Query query = contracted.query(g.id(s), g.id(d));
+                AStarSolver<Long> expected = new AStarSolver<>(query, g.id(s), g.id(d), 20);
+                IntAStarSolver actual = new IntAStarSolver(query, s, d, 20);
+                assertEquals(expected.outcome(), actual.outcome());
+                if (actual.outcome() == SolverOutcome.SOLVED) {
+                    assertEquals(query.expand(expected.solution()), query.expand(actual.path()));
+                    assertEquals(expected.solutionWeight(), actual.solutionWeight(), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWeightedWithinBound() {
+        CSRGraph g = graphTiny.csr();
+        int step = Math.max(1, g.vertexCount() / MAX_ENDPOINTS);
+        for (double epsilon : new double[]{0.05, 0.1, 0.5}) {
+            for (int s = 0; s < g.vertexCount(); s += step) {
+                for (int d = 0; d < g.vertexCount(); d += step) {
+                    IntAStarSolver exact = new IntAStarSolver(g, s, d, 20);
+                    IntAStarSolver weighted = new IntAStarSolver(g, s, d, Deadline.after(20),
+                            false, epsilon, new SearchWorkspace(g.vertexCount()),
+                            g::estimatedDistanceToGoal);
+                    AStarSolver<Long> generic = new AStarSolver<>(graphTiny, g.id(s), g.id(d),
+                            Deadline.after(20), false, epsilon, new IndexedHeapPQ<>(),
+                            graphTiny::estimatedDistanceToGoal);
+                    assertEquals(exact.outcome(), weighted.outcome());
+                    assertEquals(exact.outcome(), generic.outcome());
+                    assertEquals(1.0, exact.suboptimalityBound(), 0);
+                    assertEquals(1 + epsilon, weighted.suboptimalityBound(), 0);
+                    assertEquals(1 + epsilon, generic.suboptimalityBound(), 0);
+                    if (exact.outcome() == SolverOutcome.SOLVED) {
+                        assertEquals(s, weighted.path()[0]);
+                        assertEquals(d, weighted.path()[weighted.path().length - 1]);
+                        assertTrue(weighted.solutionWeight()
+                                <= (1 + epsilon) * exact.solutionWeight() + 1e-9);
+                        assertTrue(generic.solutionWeight()
+                                <= (1 + epsilon) * exact.solutionWeight() + 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRouteReportsEpsilon() {
+        CSRGraph g = graphTiny.csr();
+        int s = 0;
+        while (g.degree(s) == 0) {
+            s += 1;
+        }
+        BoundedSearch reachable = BoundedSearch.run(g, s, Double.POSITIVE_INFINITY);
+        int d = reachable.vertex(reachable.size() - 1);
+        graphTiny.routeCache().invalidate();
+        Router.Route weighted = Router.route(graphTiny, g.lon(s), g.lat(s), g.lon(d), g.lat(d),
+                Deadline.after(20), 0.5);
+        assertTrue(weighted.epsilon() >= 0.5);
+        assertEquals(1 + weighted.epsilon(), weighted.suboptimalityBound(), 0);
+
+        Router.Route exact = Router.route(graphTiny, g.lon(s), g.lat(s), g.lon(d), g.lat(d),
+                Deadline.after(20), 0);
+        assertEquals(0, exact.epsilon(), 0);
+        assertEquals(1.0, exact.suboptimalityBound(), 0);
+        assertEquals(Router.shortestPath(graphTiny, g.lon(s), g.lat(s), g.lon(d), g.lat(d)),
+                exact.nodes());
+    }
+}
@@ -0,0 +1,115 @@
+package bearmaps.test;
+
+import bearmaps.utils.pq.IndexedHeapPQ;
+import bearmaps.utils.pq.IntMinHeap;
+import bearmaps.utils.pq.RadixHeap;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the indexed heaps against a scan for the minimum, across inserts,
+ * priority changes, polls and clears, and the radix heap the same way with
+ * priorities that never go below the last minimum.
+ */
+public class TestIntMinHeap {
+    private static final int N = 200;
+
+    private static void checkRandomOperations(IntMinHeap heap, long seed) {
+        Random random = new Random(seed);
+        double[] priority = new double[N];
+        boolean[] in = new boolean[N];
+        for (int round = 0; round < 3; round++) {
+            for (int op = 0; op < 5000; op++) {
+                int item = random.nextInt(N);
+                double p = random.nextInt(1000);
+                if (in[item]) {
+                    heap.changePriority(item, p);
+                } else {
+                    heap.insert(item, p);
+                    in[item] = true;
+                }
+                priority[item] = p;
+                if (random.nextInt(3) == 0) {
+                    double min = heap.peekPriority();
+                    int polled = heap.poll();
+                    assertEquals(priority[polled], min, 0);
+                    for (int v = 0; v < N; v++) {
+                        assertFalse(in[v] && v != polled && priority[v] < min);
+                    }
+                    in[polled] = false;
+                    assertFalse(heap.contains(polled));
+                }
+            }
+            heap.clear();
+            assertEquals(0, heap.size());
+            for (int v = 0; v < N; v++) {
+                assertFalse(heap.contains(v));
+                in[v] = false;
+            }
+        }
+    }
+
+    @Test
+    public void testQuaternary() {
+        checkRandomOperations(new IntMinHeap(N), 1);
+    }
+
+    @Test
+    public void testBinary() {
+        checkRandomOperations(new IntMinHeap(N, 2), 2);
+    }
+
+    @Test
+    public void testIndexedHeapPQ() {
+        IndexedHeapPQ<String> pq = new IndexedHeapPQ<>();
+        for (int i = 0; i < 100; i++) {
+            pq.insert("item" + i, 100 - i);
+        }
+        pq.changePriority("item3", -1);
+        assertTrue(pq.contains("item3"));
+        assertEquals("item3", pq.poll());
+        assertFalse(pq.contains("item3"));
+        assertEquals("item99", pq.poll());
+        pq.insert("item3", 0);
+        assertEquals("item3", pq.peek());
+        assertEquals(99, pq.size());
+    }
+
+    @Test
+    public void testRadixHeap() {
+        RadixHeap heap = new RadixHeap(N);
+        Random random = new Random(3);
+        double[] priority = new double[N];
+        boolean[] in = new boolean[N];
+        double last = 0;
+        for (int op = 0; op < 20000; op++) {
+            int item = random.nextInt(N);
+            double p = last + random.nextDouble() * 100;
+            if (!in[item]) {
+                heap.insert(item, p);
+                in[item] = true;
+                priority[item] = p;
+            } else if (p < priority[item]) {
+                heap.changePriority(item, p);
+                priority[item] = p;
+            }
+            if (random.nextInt(3) == 0) {
+                int polled = heap.poll();
+                for (int v = 0; v < N; v++) {
+                    assertFalse(in[v] && priority[v] < priority[polled]);
+                }
+                last = priority[polled];
+                in[polled] = false;
+            }
+        }
+        heap.clear();
+        assertEquals(0, heap.size());
+        heap.insert(5, 0);
+        assertEquals(5, heap.poll());
+    }
+}
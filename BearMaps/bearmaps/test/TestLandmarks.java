@@ -0,0 +1,78 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.Landmarks;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.GraphSnapshot;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the landmark heuristic never overestimates, that A* guided by
+ * it finds routes as short as with the straight-line distance while settling
+ * fewer vertices, and that landmarks survive serialization.
+ */
+public class TestLandmarks {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int MAX_ENDPOINTS = 30;
+    private static CSRGraph graph;
+    private static Landmarks landmarks;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new StreetMapGraph(OSM_DB_PATH).csr();
+        landmarks = Landmarks.build(graph, 8);
+        initialized = true;
+    }
+
+    private static void assertSameRoutes(Landmarks lm) {
+        int step = Math.max(1, graph.vertexCount() / MAX_ENDPOINTS);
+        int plainStates = 0;
+        int landmarkStates = 0;
+        for (int s = 0; s < graph.vertexCount(); s += step) {
+            for (int d = 0; d < graph.vertexCount(); d += step) {
+                IntAStarSolver expected = new IntAStarSolver(graph, s, d, 20);
+                IntAStarSolver actual = new IntAStarSolver(graph, s, d, 20, lm);
+                assertEquals(expected.outcome(), actual.outcome());
+                assertEquals(expected.solutionWeight(), actual.solutionWeight(), 1e-9);
+                if (actual.outcome() == SolverOutcome.SOLVED) {
+                    assertTrue(lm.estimatedDistanceToGoal(s, d) <= actual.solutionWeight());
+                }
+                plainStates += expected.numStatesExplored();
+                landmarkStates += actual.numStatesExplored();
+            }
+        }
+        assertTrue(landmarkStates < plainStates);
+    }
+
+    @Test
+    public void testSameAsAStar() {
+        assertEquals(8, landmarks.count());
+        assertSameRoutes(landmarks);
+    }
+
+    @Test
+    public void testSerialization() {
+        ByteBuffer b = GraphSnapshot.newBuffer(landmarks.bytes());
+        landmarks.writeTo(b);
+        assertEquals(0, b.remaining());
+        b.flip();
+        Landmarks read = Landmarks.readFrom(b);
+        assertEquals(landmarks.count(), read.count());
+        for (int i = 0; i < landmarks.count(); i++) {
+            assertEquals(landmarks.landmark(i), read.landmark(i));
+        }
+        assertSameRoutes(read);
+    }
+}
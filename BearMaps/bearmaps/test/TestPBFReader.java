@@ -0,0 +1,66 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the PBF reader builds the same graph as the XML parse of the
+ * same data. The fixture has a zlib block of dense nodes, a raw block of
+ * dense nodes with coordinate offsets and a plain node, and a zlib block of
+ * ways, two of which reference nodes from both node blocks. One way is a
+ * footway, which must not become edges.
+ */
+public class TestPBFReader {
+    private static final String XML_PATH = "bearmaps/test/data/streets.osm.xml";
+    private static final String PBF_PATH = "bearmaps/test/data/streets.osm.pbf";
+
+    private static void assertSameGraph(StreetMapGraph xml, StreetMapGraph pbf) {
+        assertTrue(xml.equals(pbf));
+
+        CSRGraph expected = xml.csr();
+        CSRGraph actual = pbf.csr();
+        assertEquals(expected.vertexCount(), actual.vertexCount());
+        assertEquals(expected.edgeCount(), actual.edgeCount());
+        for (int v = 0; v < expected.vertexCount(); v++) {
+            assertEquals(expected.id(v), actual.id(v));
+            assertEquals(expected.lat(v), actual.lat(v), 0);
+            assertEquals(expected.lon(v), actual.lon(v), 0);
+            assertEquals(expected.name(v), actual.name(v));
+            for (int e = expected.edgeBegin(v); e < expected.edgeEnd(v); e++) {
+                assertEquals(expected.target(e), actual.target(e));
+                assertEquals(expected.weight(e), actual.weight(e), 0);
+                assertEquals(expected.edgeName(e), actual.edgeName(e));
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsXML() {
+        StreetMapGraph xml = StreetMapGraph.readFromXML(XML_PATH, false);
+        StreetMapGraph pbf = StreetMapGraph.readFromPBF(PBF_PATH);
+        assertSameGraph(xml, pbf);
+
+        CSRGraph g = pbf.csr();
+        assertEquals(8, g.vertexCount());
+        assertEquals("Sather Gate", g.name(g.indexOf(2)));
+        assertEquals("Corner Store", g.name(g.indexOf(7)));
+        assertEquals(37.8702999, g.lat(g.indexOf(8)), 0);
+        assertEquals(-122.2599876, g.lon(g.indexOf(8)), 0);
+        /* Telegraph Avenue runs from node 4, in the first block, to node 6, in the second. */
+        int e = g.findEdge(g.indexOf(4), g.indexOf(6));
+        assertTrue(e >= 0);
+        assertEquals("Telegraph Avenue", g.edgeName(e));
+        assertTrue(g.findEdge(g.indexOf(8), g.indexOf(5)) >= 0);
+        assertTrue(g.findEdge(g.indexOf(4), g.indexOf(5)) < 0);
+    }
+
+    @Test
+    public void testTwoPass() {
+        StreetMapGraph xml = StreetMapGraph.readFromXML(XML_PATH, false);
+        assertSameGraph(xml, StreetMapGraph.readFromOSM(PBF_PATH, true));
+    }
+}
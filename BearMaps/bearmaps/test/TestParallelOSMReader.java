@@ -0,0 +1,54 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the parallel XML pipeline, and the two-pass build on top of it,
+ * build the same graph as the SAX handler.
+ */
+public class TestParallelOSMReader {
+    private static final String OSM_DB_PATH_TINY = "../library-su19/data/proj3_xml/tiny-clean.osm.xml";
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+
+    private static void assertSameGraph(String path) {
+        StreetMapGraph sax = StreetMapGraph.readFromXML(path, false);
+        assertSameGraph(sax, StreetMapGraph.readFromXML(path, true));
+    }
+
+    private static void assertSameGraph(StreetMapGraph sax, StreetMapGraph parallel) {
+        assertTrue(sax.equals(parallel));
+
+        CSRGraph expected = sax.csr();
+        CSRGraph actual = parallel.csr();
+        assertEquals(expected.edgeCount(), actual.edgeCount());
+        for (int v = 0; v < expected.vertexCount(); v++) {
+            assertEquals(expected.id(v), actual.id(v));
+            assertEquals(expected.name(v), actual.name(v));
+            for (int e = expected.edgeBegin(v); e < expected.edgeEnd(v); e++) {
+                assertEquals(expected.target(e), actual.target(e));
+                assertEquals(expected.edgeName(e), actual.edgeName(e));
+            }
+        }
+    }
+
+    @Test
+    public void testTiny() {
+        assertSameGraph(OSM_DB_PATH_TINY);
+    }
+
+    @Test
+    public void testBerkeley() {
+        assertSameGraph(OSM_DB_PATH);
+    }
+
+    @Test
+    public void testTwoPass() {
+        StreetMapGraph sax = StreetMapGraph.readFromXML(OSM_DB_PATH, false);
+        assertSameGraph(sax, StreetMapGraph.readFromOSM(OSM_DB_PATH, true));
+    }
+}
@@ -0,0 +1,153 @@
+package bearmaps.test;
+
+import bearmaps.RouteCache;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the hit and miss counts, eviction, versioning and coalescing of the
+ * route cache.
+ */
+public class TestRouteCache {
+
+    @Test
+    public void testHitsAndMisses() {
+        RouteCache cache = new RouteCache(10);
+        AtomicInteger computed = new AtomicInteger();
+        List<Long> first = cache.get(1, 2, 0, () -> {
+            computed.incrementAndGet();
+            return Arrays.asList(1L, 2L);
+        });
+        List<Long> second = cache.get(1, 2, 0, () -> {
+            computed.incrementAndGet();
+            return Arrays.asList(1L, 2L);
+        });
+        assertSame(first, second);
+        assertEquals(1, computed.get());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(0.5, cache.hitRate(), 1e-12);
+
+        /* A new version of the weights misses, as does a cleared cache. */
+        cache.get(1, 2, 1, () -> Arrays.asList(1L, 3L, 2L));
+        assertEquals(2, cache.misses());
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        cache.get(1, 2, 1, () -> Arrays.asList(1L, 3L, 2L));
+        assertEquals(3, cache.misses());
+    }
+
+    @Test
+    public void testEviction() {
+        RouteCache cache = new RouteCache(2);
+        cache.get(1, 2, 0, () -> Arrays.asList(1L, 2L));
+        cache.get(2, 3, 0, () -> Arrays.asList(2L, 3L));
+        cache.get(1, 2, 0, () -> Arrays.asList(1L, 2L));
+        cache.get(3, 4, 0, () -> Arrays.asList(3L, 4L));
+        assertEquals(2, cache.size());
+        /* 2 -> 3 was the least recently used. */
+        cache.get(1, 2, 0, () -> Arrays.asList(1L, 2L));
+        assertEquals(2, cache.hits());
+        cache.get(2, 3, 0, () -> Arrays.asList(2L, 3L));
+        assertEquals(4, cache.misses());
+    }
+
+    @Test
+    public void testEmptyRoutesNotCached() {
+        RouteCache cache = new RouteCache(10);
+        cache.get(1, 2, 0, Collections::emptyList);
+        cache.get(1, 2, 0, Collections::emptyList);
+        assertEquals(2, cache.misses());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testCoalescing() throws InterruptedException {
+        RouteCache cache = new RouteCache(10);
+        AtomicInteger computed = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<List<Long>> results = Collections.synchronizedList(new ArrayList<>());
+        Thread leader = new Thread(() -> results.add(cache.get(1, 2, 0, () -> {
+            computed.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Arrays.asList(1L, 2L);
+        })));
+        leader.start();
+        started.await();
+        List<Thread> followers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread t = new Thread(() -> results.add(cache.get(1, 2, 0, () -> {
+                computed.incrementAndGet();
+                return Arrays.asList(1L, 2L);
+            })));
+            followers.add(t);
+            t.start();
+        }
+        /* Give the followers time to find the computation in flight. */
+        while (cache.coalesced() < followers.size()) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        leader.join();
+        for (Thread t : followers) {
+            t.join();
+        }
+        assertEquals(1, computed.get());
+        assertEquals(5, results.size());
+        for (List<Long> route : results) {
+            assertSame(results.get(0), route);
+        }
+    }
+
+    @Test
+    public void testLeaderGivesUp() throws InterruptedException {
+        RouteCache cache = new RouteCache(10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<List<Long>> led = new AtomicReference<>();
+        AtomicReference<List<Long>> waited = new AtomicReference<>();
+        /* The leader's deadline runs out partway, leaving a route that stops short. */
+        Thread leader = new Thread(() -> led.set(cache.get(1, 9, 0, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Arrays.asList(1L, 2L);
+        })));
+        leader.start();
+        started.await();
+        Thread follower = new Thread(() -> waited.set(cache.get(1, 9, 0,
+                () -> Arrays.asList(1L, 5L, 9L))));
+        follower.start();
+        while (cache.coalesced() < 1) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        leader.join();
+        follower.join();
+        /* The follower searched again under its own deadline, and that route is cached. */
+        assertEquals(Arrays.asList(1L, 2L), led.get());
+        assertEquals(Arrays.asList(1L, 5L, 9L), waited.get());
+        assertEquals(0, cache.coalesced());
+        assertEquals(2, cache.misses());
+        assertSame(waited.get(), cache.getIfPresent(1, 9, 0));
+    }
+}
@@ -0,0 +1,105 @@
+package bearmaps.test;
+
+import bearmaps.utils.ps.Point;
+import bearmaps.utils.ps.StaticKDTree;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks nearest-neighbor queries on the static KD-tree against a linear scan,
+ * over random points around Berkeley that include repeated coordinates, and
+ * on a tree restored from its layout.
+ */
+public class TestStaticKDTree {
+    private static final int POINTS = 5000;
+    private static final int QUERIES = 2000;
+
+    private static double[] xs;
+    private static double[] ys;
+
+    private static double distance(int i, double x, double y) {
+        return Point.distance(new Point(xs[i], ys[i]), new Point(x, y));
+    }
+
+    /* Returns the least distance from any point to (X, Y), by scanning them all. */
+    private static double bruteForceDistance(double x, double y) {
+        double best = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            best = Math.min(best, distance(i, x, y));
+        }
+        return best;
+    }
+
+    private static void randomPoints(Random random) {
+        xs = new double[POINTS];
+        ys = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            if (i > 0 && random.nextInt(4) == 0) {
+                /* Repeat an earlier point, or just one of its coordinates. */
+                int j = random.nextInt(i);
+                int which = random.nextInt(3);
+                xs[i] = which == 1 ? -122.3 + 0.05 * random.nextDouble() : xs[j];
+                ys[i] = which == 2 ? 37.85 + 0.04 * random.nextDouble() : ys[j];
+            } else {
+                xs[i] = -122.3 + 0.05 * random.nextDouble();
+                ys[i] = 37.85 + 0.04 * random.nextDouble();
+            }
+        }
+    }
+
+    private static void assertNearest(StaticKDTree tree, Random random) {
+        for (int q = 0; q < QUERIES; q++) {
+            double x;
+            double y;
+            if (q % 4 == 0) {
+                /* Exactly on a point, which may be one of several with those coordinates. */
+                int i = random.nextInt(POINTS);
+                x = xs[i];
+                y = ys[i];
+            } else {
+                x = -122.31 + 0.07 * random.nextDouble();
+                y = 37.84 + 0.06 * random.nextDouble();
+            }
+            int nearest = tree.nearest(x, y);
+            assertEquals(bruteForceDistance(x, y), distance(nearest, x, y), 0);
+        }
+    }
+
+    @Test
+    public void testNearest() {
+        Random random = new Random(11);
+        randomPoints(random);
+        int[] items = new int[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            items[i] = i;
+        }
+        StaticKDTree tree = StaticKDTree.build(items, xs, ys);
+        assertEquals(POINTS, tree.size());
+        assertNearest(tree, random);
+        assertNearest(StaticKDTree.fromLayout(tree.layout(), xs, ys), random);
+    }
+
+    @Test
+    public void testAllDuplicates() {
+        Random random = new Random(12);
+        xs = new double[POINTS];
+        ys = new double[POINTS];
+        Arrays.fill(xs, -122.26);
+        Arrays.fill(ys, 37.87);
+        int[] items = new int[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            items[i] = i;
+        }
+        assertNearest(StaticKDTree.build(items, xs, ys), random);
+    }
+
+    @Test
+    public void testEmpty() {
+        StaticKDTree tree = StaticKDTree.build(new int[0], new double[0], new double[0]);
+        assertEquals(-1, tree.nearest(-122.26, 37.87));
+    }
+}
@@ -0,0 +1,94 @@
+package bearmaps.test;
+
+import bearmaps.utils.graph.ContractionHierarchy;
+import bearmaps.utils.graph.IntAStarSolver;
+import bearmaps.utils.graph.SolverOutcome;
+import bearmaps.utils.graph.TransitNodeRouting;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import bearmaps.utils.graph.streetmap.GraphSnapshot;
+import bearmaps.utils.graph.streetmap.StreetMapGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that transit-node routing answers the queries it does not consider
+ * local with routes as short as A*, and that its tables survive serialization.
+ */
+public class TestTransitNodeRouting {
+    private static final String OSM_DB_PATH = "../library-su19/data/proj3_xml/berkeley-2019.osm.xml";
+    private static final int MAX_ENDPOINTS = 30;
+    private static CSRGraph graph;
+    private static ContractionHierarchy hierarchy;
+    private static TransitNodeRouting transitNodes;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new StreetMapGraph(OSM_DB_PATH).csr();
+        hierarchy = ContractionHierarchy.build(graph);
+        double[] lons = new double[graph.vertexCount()];
+        double[] lats = new double[graph.vertexCount()];
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            lons[v] = graph.lon(v);
+            lats[v] = graph.lat(v);
+        }
+        transitNodes = TransitNodeRouting.build(hierarchy, lons, lats,
+                (int) Math.sqrt(graph.vertexCount()));
+        initialized = true;
+    }
+
+    /* Returns the number of queries TNR answered, all of which must match A*. */
+    private static int assertSameRoutes(TransitNodeRouting tnr) {
+        int step = Math.max(1, graph.vertexCount() / MAX_ENDPOINTS);
+        int answered = 0;
+        for (int s = 0; s < graph.vertexCount(); s += step) {
+            for (int d = 0; d < graph.vertexCount(); d += step) {
+                int[] path = tnr.path(s, d);
+                if (path == null) {
+                    continue;
+                }
+                answered += 1;
+                IntAStarSolver expected = new IntAStarSolver(graph, s, d, 20);
+                if (expected.outcome() != SolverOutcome.SOLVED) {
+                    assertEquals(0, path.length);
+                    assertEquals(Double.POSITIVE_INFINITY, tnr.distance(s, d), 0);
+                    continue;
+                }
+                assertEquals(expected.solutionWeight(), tnr.distance(s, d), 1e-9);
+                assertEquals(s, path[0]);
+                assertEquals(d, path[path.length - 1]);
+                double weight = 0;
+                for (int i = 1; i < path.length; i++) {
+                    weight += graph.weight(graph.findEdge(path[i - 1], path[i]));
+                }
+                assertEquals(expected.solutionWeight(), weight, 1e-9);
+            }
+        }
+        return answered;
+    }
+
+    @Test
+    public void testSameAsAStar() {
+        assertTrue(assertSameRoutes(transitNodes) > 0);
+    }
+
+    @Test
+    public void testSerialization() {
+        ByteBuffer b = GraphSnapshot.newBuffer(transitNodes.bytes());
+        transitNodes.writeTo(b);
+        assertEquals(0, b.remaining());
+        b.flip();
+        TransitNodeRouting read = TransitNodeRouting.readFrom(b, hierarchy);
+        assertEquals(transitNodes.transitCount(), read.transitCount());
+        assertEquals(transitNodes.averageAccessCount(), read.averageAccessCount(), 0);
+        assertSameRoutes(read);
+    }
+}
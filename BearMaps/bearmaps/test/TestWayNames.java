@@ -0,0 +1,68 @@
+package bearmaps.test;
+
+import bearmaps.AugmentedStreetMapGraph;
+import bearmaps.Router;
+import bearmaps.utils.graph.streetmap.CSRGraph;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that way names are interned once per graph, and that directions
+ * start a new step exactly where the way name changes. In the fixture,
+ * Telegraph Avenue is two separate ways, between Bancroft Way to the south
+ * and Durant Avenue to the north.
+ */
+public class TestWayNames {
+    private static final String OSM_DB_PATH = "bearmaps/test/data/directions.osm.xml";
+    private static AugmentedStreetMapGraph graph;
+    private static boolean initialized = false;
+
+    @Before
+    public void setUp() throws Exception {
+        if (initialized) {
+            return;
+        }
+        graph = new AugmentedStreetMapGraph(OSM_DB_PATH, false);
+        initialized = true;
+    }
+
+    @Test
+    public void testInterned() {
+        CSRGraph g = graph.csr();
+        int south = g.findEdge(g.indexOf(2), g.indexOf(3));
+        int north = g.findEdge(g.indexOf(3), g.indexOf(4));
+        assertEquals("Telegraph Avenue", g.edgeName(south));
+        assertEquals(g.edgeNameId(south), g.edgeNameId(north));
+        assertSame(g.edgeName(south), g.edgeName(north));
+
+        int bancroft = g.findEdge(g.indexOf(1), g.indexOf(2));
+        assertNotEquals(g.edgeNameId(south), g.edgeNameId(bancroft));
+        /* Bancroft Way, Telegraph Avenue and Durant Avenue. */
+        assertEquals(3, g.wayNameCount());
+    }
+
+    @Test
+    public void testDirections() {
+        List<Router.NavigationDirection> directions =
+                Router.routeDirections(graph, Arrays.asList(1L, 2L, 3L, 4L, 5L));
+        CSRGraph g = graph.csr();
+        double bancroft = g.distance(g.indexOf(1), g.indexOf(2));
+        double telegraph = g.distance(g.indexOf(2), g.indexOf(3))
+                + g.distance(g.indexOf(3), g.indexOf(4));
+        double durant = g.distance(g.indexOf(4), g.indexOf(5));
+        assertEquals(3, directions.size());
+        assertEquals(String.format("Start on Bancroft Way and continue for %.3f miles.",
+                bancroft), directions.get(0).toString());
+        assertEquals(String.format("Turn left on Telegraph Avenue and continue for %.3f miles.",
+                telegraph), directions.get(1).toString());
+        assertEquals(String.format("Turn right on Durant Avenue and continue for %.3f miles.",
+                durant), directions.get(2).toString());
+    }
+}
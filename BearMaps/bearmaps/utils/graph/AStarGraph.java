@@ -9,4 +9,15 @@ import java.util.List;
 public interface AStarGraph<Vertex> {
     List<WeightedEdge<Vertex>> neighbors(Vertex v);
     double estimatedDistanceToGoal(Vertex s, Vertex goal);
+
+    /**
+     * Calls C once for each outgoing edge of V. Graphs that can walk their
+     * edges in place should override this, since the default builds the
+     * neighbors list.
+     */
+    default void forEachNeighbor(Vertex v, NeighborConsumer<Vertex> c) {
+        for (WeightedEdge<Vertex> e : neighbors(v)) {
+            c.accept(e.to(), e.weight());
+        }
+    }
 }
@@ -1,7 +1,7 @@
 package bearmaps.utils.graph;
 
-import bearmaps.utils.pq.DoubleMapPQ;
-import bearmaps.utils.pq.MinHeapPQ;
+import bearmaps.utils.pq.IndexedHeapPQ;
+import bearmaps.utils.pq.PriorityQueue;
 import edu.princeton.cs.algs4.Stopwatch;
 
 import java.util.*;
@@ -15,42 +15,103 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
     private double timeSpent;
     private int numStatesExplored;
 
+    /* Search state, shared with relax() so that edges can be walked without allocating. */
+    private final AStarGraph<Vertex> input;
+    private final Heuristic<Vertex> heuristic;
+    private final double heuristicWeight;
+    private final Vertex end;
+    private final HashMap<Vertex, Double> disTo = new HashMap<>();
+    private final HashMap<Vertex, Vertex> prev = new HashMap<>();
+    private final PriorityQueue<Vertex> fringe;
+    private Vertex curr;
+
     public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, double timeout) {
-        Stopwatch sw = new Stopwatch();
+        this(input, start, end, timeout, new IndexedHeapPQ<>());
+    }
+
+    /* Solves with FRINGE, which must be empty, as the priority queue of vertices to visit. */
+    public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, double timeout,
+                       PriorityQueue<Vertex> fringe) {
+        this(input, start, end, timeout, fringe, input::estimatedDistanceToGoal);
+    }
+
+    /* Solves with HEURISTIC in place of the graph's estimatedDistanceToGoal. */
+    public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, double timeout,
+                       Heuristic<Vertex> heuristic) {
+        this(input, start, end, timeout, new IndexedHeapPQ<>(), heuristic);
+    }
+
+    /* Solves with both FRINGE and HEURISTIC. */
+    public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, double timeout,
+                       PriorityQueue<Vertex> fringe, Heuristic<Vertex> heuristic) {
+        this(input, start, end, Deadline.after(timeout), false, fringe, heuristic);
+    }
+
+    /*
+     * Solves until DEADLINE. If it is reached or cancelled and PARTIAL is
+     * true, the solution is the path to the visited vertex the heuristic puts
+     * closest to END, though the outcome is still TIMEOUT.
+     */
+    public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, Deadline deadline,
+                       boolean partial) {
+        this(input, start, end, deadline, partial, new IndexedHeapPQ<>(),
+                input::estimatedDistanceToGoal);
+    }
+
+    /* Solves until DEADLINE with both FRINGE and HEURISTIC. */
+    public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, Deadline deadline,
+                       boolean partial, PriorityQueue<Vertex> fringe, Heuristic<Vertex> heuristic) {
+        this(input, start, end, deadline, partial, 0, fringe, heuristic);
+    }
 
-        HashMap<Vertex, Double> disTo = new HashMap<>();
-        HashMap<Vertex, Vertex> prev = new HashMap<>();
-        DoubleMapPQ<Vertex> fringe = new DoubleMapPQ<>();
+    /*
+     * Solves as above with weighted A*, whose priorities weigh the heuristic
+     * by 1 + EPSILON. The solution is then at most 1 + EPSILON times as long
+     * as a shortest path, as suboptimalityBound reports, but takes fewer
+     * states to find.
+     */
+    public AStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end, Deadline deadline,
+                       boolean partial, double epsilon, PriorityQueue<Vertex> fringe,
+                       Heuristic<Vertex> heuristic) {
+        if (!(epsilon >= 0)) {
+            throw new IllegalArgumentException("Negative epsilon " + epsilon);
+        }
+        Stopwatch sw = new Stopwatch();
+        this.input = input;
+        this.heuristic = heuristic;
+        this.heuristicWeight = 1 + epsilon;
+        this.end = end;
+        this.fringe = fringe;
+        NeighborConsumer<Vertex> relaxEdge = this::relax;
 
         disTo.put(start, 0.0);
-        fringe.insert(start, input.estimatedDistanceToGoal(start, end));
+        fringe.insert(start, heuristicWeight * heuristic.estimatedDistanceToGoal(start, end));
 
-        Vertex curr = start;
+        curr = start;
+        Vertex closest = start;
+        double closestEstimate = Double.POSITIVE_INFINITY;
         while (fringe.size() != 0 && !fringe.peek().equals(end)) {
             curr = fringe.poll();
             numStatesExplored += 1;
 
-            if (timeout <= sw.elapsedTime()) {
+            if (deadline.reached(numStatesExplored)) {
                 outcome = SolverOutcome.TIMEOUT;
                 solutionWeight = 0;
+                if (partial) {
+                    followPrev(start, closest);
+                    solutionWeight = disTo.get(closest);
+                }
                 timeSpent = sw.elapsedTime();
                 return;
             }
-            for (WeightedEdge<Vertex> v : input.neighbors(curr)) {
-//                if (input.neighbors(v.to()).isEmpty()) {
-//                    continue;
-//                }
-                double newPath = disTo.get(curr) + v.weight();
-                if (newPath < disTo.getOrDefault(v.to(), Double.MAX_VALUE) ) {
-                    disTo.put(v.to(), newPath);
-                    prev.put(v.to(), curr);
-                    if (fringe.contains(v.to())) {
-                        fringe.changePriority(v.to(), newPath + input.estimatedDistanceToGoal(v.to(), end));
-                    } else {
-                        fringe.insert(v.to(), newPath + input.estimatedDistanceToGoal(v.to(), end));
-                    }
+            if (partial) {
+                double estimate = heuristic.estimatedDistanceToGoal(curr, end);
+                if (estimate < closestEstimate) {
+                    closest = curr;
+                    closestEstimate = estimate;
                 }
             }
+            input.forEachNeighbor(curr, relaxEdge);
         }
 
         if (fringe.size() == 0) {
@@ -59,17 +120,38 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
             solutionWeight = 0;
             return;
         }
-        solution.addFirst(end);
-        while (!curr.equals(start)) {
-            solution.addFirst(curr);
-            curr = prev.get(curr);
-        }
-        solution.addFirst(start);
+        /* Follow prev from the goal; the last vertex polled need not be its predecessor. */
+        followPrev(start, end);
         timeSpent = sw.elapsedTime();
         outcome = SolverOutcome.SOLVED;
         solutionWeight = disTo.get(end);
     }
 
+    /* Fills solution with the vertices from START to V by following prev. */
+    private void followPrev(Vertex start, Vertex v) {
+        solution.addFirst(v);
+        while (!v.equals(start)) {
+            v = prev.get(v);
+            solution.addFirst(v);
+        }
+    }
+
+    /* Relaxes the edge from curr to TO. */
+    private void relax(Vertex to, double weight) {
+        double newPath = disTo.get(curr) + weight;
+        if (newPath < disTo.getOrDefault(to, Double.MAX_VALUE)) {
+            disTo.put(to, newPath);
+            prev.put(to, curr);
+            double priority = newPath
+                    + heuristicWeight * heuristic.estimatedDistanceToGoal(to, end);
+            if (fringe.contains(to)) {
+                fringe.changePriority(to, priority);
+            } else {
+                fringe.insert(to, priority);
+            }
+        }
+    }
+
     public SolverOutcome outcome() {
         return outcome;
     }
@@ -82,6 +164,11 @@ public class AStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
         return solutionWeight;
     }
 
+    @Override
+    public double suboptimalityBound() {
+        return heuristicWeight;
+    }
+
     public int numStatesExplored() {
         return numStatesExplored;
     }
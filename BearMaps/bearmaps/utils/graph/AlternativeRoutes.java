@@ -0,0 +1,219 @@
+package bearmaps.utils.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The shortest route between two vertices and up to a few alternatives to
+ * it, found by the via-node method with plateaus from one forward and one
+ * backward shortest-path tree.
+ *
+ * A Dijkstra search from the start and one from the goal, over the reversed
+ * graph, each settle every vertex within 1 + MAX_STRETCH times the shortest
+ * distance. A plateau is a path whose every edge is in both trees. The route
+ * through a plateau follows the forward tree from the start to the plateau's
+ * end and the backward tree from there to the goal, so it is a shortest path
+ * up to the end of the plateau and a shortest path from its start on. Every
+ * piece of it no longer than the plateau is therefore a shortest path, and a
+ * long plateau makes a route without pointless detours.
+ *
+ * Plateaus are tried longest first. A route is kept if it is at most
+ * 1 + MAX_STRETCH times as long as the shortest, if its plateau is at least
+ * MIN_PLATEAU times the shortest distance, and if at most MAX_SHARING of the
+ * shortest distance is made of edges on the routes kept before it.
+ */
+public class AlternativeRoutes {
+    /** How much longer than the shortest route an alternative may be, as a fraction. */
+    public static final double MAX_STRETCH = 0.25;
+    /** How much of the shortest distance an alternative may share with earlier routes. */
+    public static final double MAX_SHARING = 0.8;
+    /** Shortest plateau an alternative may have, as a fraction of the shortest distance. */
+    public static final double MIN_PLATEAU = 0.2;
+
+    private static final ThreadLocal<SearchWorkspace> BACKWARD =
+            ThreadLocal.withInitial(() -> new SearchWorkspace(0));
+
+    private final List<int[]> paths;
+    private final List<Double> lengths;
+
+    private AlternativeRoutes(List<int[]> paths, List<Double> lengths) {
+        this.paths = paths;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Finds up to K routes from START to END on FORWARD, the first of them a
+     * shortest one. BACKWARD must be FORWARD with its edges reversed. There
+     * are none if END cannot be reached.
+     */
+    public static AlternativeRoutes find(IntAStarGraph forward, IntAStarGraph backward,
+                                         int start, int end, int k) {
+        List<int[]> paths = new ArrayList<>();
+        List<Double> lengths = new ArrayList<>();
+        if (k <= 0) {
+            return new AlternativeRoutes(paths, lengths);
+        }
+        SearchWorkspace fw = SearchWorkspace.forCurrentThread(forward.vertexCount());
+        SearchWorkspace bw = BACKWARD.get();
+        bw.ensureCapacity(backward.vertexCount());
+        int[] settled = grow(forward, start, end, fw);
+        double shortest = fw.distance(end);
+        if (shortest == Double.POSITIVE_INFINITY) {
+            return new AlternativeRoutes(paths, lengths);
+        }
+        if (start == end) {
+            paths.add(new int[]{start});
+            lengths.add(0.0);
+            return new AlternativeRoutes(paths, lengths);
+        }
+        grow(backward, end, start, bw);
+        double limit = (1 + MAX_STRETCH) * shortest;
+
+        /* Plateaus by their first vertex, whose forward parent is not on the same plateau. */
+        List<double[]> plateaus = new ArrayList<>();
+        for (int v : settled) {
+            if (!bw.reached(v) || fw.dist[v] + bw.dist[v] > limit) {
+                continue;
+            }
+            if (onPlateau(fw, bw, fw.parent[v], v)) {
+                continue;
+            }
+            int last = v;
+            while (onPlateau(fw, bw, last, bw.parent[last])) {
+                last = bw.parent[last];
+            }
+            plateaus.add(new double[]{fw.dist[last] - fw.dist[v], last});
+        }
+        plateaus.sort((a, b) -> Double.compare(b[0], a[0]));
+
+        Set<Long> used = new HashSet<>();
+        int[] path = route(fw, bw, start, end, end);
+        keep(path, shortest, used, paths, lengths);
+        for (double[] plateau : plateaus) {
+            if (paths.size() >= k || plateau[0] < MIN_PLATEAU * shortest) {
+                break;
+            }
+            int last = (int) plateau[1];
+            path = route(fw, bw, start, end, last);
+            if (shared(path, fw, bw, last, used) <= MAX_SHARING * shortest) {
+                keep(path, fw.dist[last] + bw.dist[last], used, paths, lengths);
+            }
+        }
+        return new AlternativeRoutes(paths, lengths);
+    }
+
+    /*
+     * Runs Dijkstra on G from ORIGIN in WS until it has settled every vertex
+     * within 1 + MAX_STRETCH times the distance to TARGET, or everything
+     * reachable if TARGET is not. Returns the vertices settled.
+     */
+    private static int[] grow(IntAStarGraph g, int origin, int target, SearchWorkspace ws) {
+        ws.ensureCapacity(g.vertexCount());
+        ws.begin();
+        ws.reach(origin, 0, -1);
+        ws.fringe.insert(origin, 0);
+        double limit = Double.POSITIVE_INFINITY;
+        int[] settled = new int[64];
+        int count = 0;
+        while (!ws.fringe.isEmpty() && ws.fringe.peekPriority() <= limit) {
+            int v = ws.fringe.poll();
+            if (v == target) {
+                limit = (1 + MAX_STRETCH) * ws.dist[v];
+            }
+            if (count == settled.length) {
+                settled = Arrays.copyOf(settled, 2 * count);
+            }
+            settled[count] = v;
+            count += 1;
+            g.forEachNeighbor(v, (edge, w, weight) -> {
+                double d = ws.dist[v] + weight;
+                if (d < ws.distance(w)) {
+                    ws.reach(w, d, v);
+                    if (ws.fringe.contains(w)) {
+                        ws.fringe.changePriority(w, d);
+                    } else {
+                        ws.fringe.insert(w, d);
+                    }
+                }
+            });
+        }
+        return Arrays.copyOf(settled, count);
+    }
+
+    /* Returns true if the edge from V to W is in both trees. */
+    private static boolean onPlateau(SearchWorkspace fw, SearchWorkspace bw, int v, int w) {
+        return v >= 0 && w >= 0 && fw.reached(w) && fw.parent[w] == v
+                && bw.reached(v) && bw.parent[v] == w;
+    }
+
+    /* Returns the route along the forward tree from START to VIA, then the backward tree to END. */
+    private static int[] route(SearchWorkspace fw, SearchWorkspace bw, int start, int end,
+                               int via) {
+        int before = 0;
+        for (int v = via; v != start; v = fw.parent[v]) {
+            before += 1;
+        }
+        int after = 0;
+        for (int v = via; v != end; v = bw.parent[v]) {
+            after += 1;
+        }
+        int[] path = new int[before + after + 1];
+        for (int i = before, v = via; i >= 0; i--, v = fw.parent[v]) {
+            path[i] = v;
+        }
+        for (int i = before + 1, v = bw.parent[via]; i < path.length; i++, v = bw.parent[v]) {
+            path[i] = v;
+        }
+        return path;
+    }
+
+    /*
+     * Returns the length of the edges of PATH, the route through VIA, that
+     * are in USED. Edge weights come from the forward distances up to VIA and
+     * from the backward distances after it.
+     */
+    private static double shared(int[] path, SearchWorkspace fw, SearchWorkspace bw, int via,
+                                 Set<Long> used) {
+        double length = 0;
+        boolean afterVia = false;
+        for (int i = 1; i < path.length; i++) {
+            afterVia |= path[i - 1] == via;
+            if (used.contains(edgeKey(path[i - 1], path[i]))) {
+                length += afterVia ? bw.dist[path[i - 1]] - bw.dist[path[i]]
+                        : fw.dist[path[i]] - fw.dist[path[i - 1]];
+            }
+        }
+        return length;
+    }
+
+    private static void keep(int[] path, double length, Set<Long> used, List<int[]> paths,
+                             List<Double> lengths) {
+        for (int i = 1; i < path.length; i++) {
+            used.add(edgeKey(path[i - 1], path[i]));
+        }
+        paths.add(path);
+        lengths.add(length);
+    }
+
+    private static long edgeKey(int v, int w) {
+        return (long) v << 32 | w;
+    }
+
+    /** Returns the number of routes found. */
+    public int count() {
+        return paths.size();
+    }
+
+    /** Returns the vertices of route I, where route 0 is a shortest one. */
+    public int[] path(int i) {
+        return paths.get(i);
+    }
+
+    /** Returns the length of route I. */
+    public double length(int i) {
+        return lengths.get(i);
+    }
+}
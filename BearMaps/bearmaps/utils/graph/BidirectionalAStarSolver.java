@@ -0,0 +1,247 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IndexedHeapPQ;
+import bearmaps.utils.pq.PriorityQueue;
+import edu.princeton.cs.algs4.Stopwatch;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A* from both ends at once: a forward search from the start and a backward
+ * search from the goal over the reversed graph, which stop once no path
+ * through the vertices left in either fringe can be shorter than the best
+ * path found where they meet. Each search only has to cover about half the
+ * route, so a long route settles far fewer vertices than with AStarSolver.
+ *
+ * Both searches use the average potential p(v) = (h(v, goal) - h(v, start)) / 2,
+ * forward with +p and backward with -p, where h is estimatedDistanceToGoal.
+ * When h is consistent, so are both, and since the two potentials add up to
+ * zero, the priorities of a vertex in the two fringes add up to the length of
+ * the best path through it that either search knows of. The search stops when
+ * the smallest priorities of the two fringes add up to at least the shortest
+ * path length seen so far.
+ *
+ * With PARALLEL set, the backward search runs on a thread of its own. The
+ * distance maps are then concurrent, and each search only publishes its
+ * smallest priority after relaxing the edges of the vertex it polled, so the
+ * other never stops on a value that is too high.
+ */
+public class BidirectionalAStarSolver<Vertex> implements ShortestPathsSolver<Vertex> {
+
+    private SolverOutcome outcome;
+    private double solutionWeight;
+    private LinkedList<Vertex> solution = new LinkedList<>();
+    private double timeSpent;
+
+    private final Vertex start;
+    private final Vertex end;
+    private final Deadline deadline;
+    private final Stopwatch sw = new Stopwatch();
+    private final Search forward;
+    private final Search backward;
+
+    /* Length of the shortest path found so far, and the vertex it goes through. */
+    private volatile double best = Double.POSITIVE_INFINITY;
+    private Vertex meeting;
+    private volatile boolean timedOut;
+
+    /**
+     * Searches INPUT, whose every edge must have a reverse edge of the same
+     * weight, from START to END in a single thread.
+     */
+    public BidirectionalAStarSolver(AStarGraph<Vertex> input, Vertex start, Vertex end,
+                                    double timeout) {
+        this(input, input, start, end, timeout, false);
+    }
+
+    /**
+     * Searches from START to END on FORWARD and from END to START on
+     * BACKWARD, which must be FORWARD with its edges reversed, running the two
+     * searches on separate threads if PARALLEL is set.
+     */
+    public BidirectionalAStarSolver(AStarGraph<Vertex> forward, AStarGraph<Vertex> backward,
+                                    Vertex start, Vertex end, double timeout, boolean parallel) {
+        this(forward, backward, start, end, Deadline.after(timeout), parallel);
+    }
+
+    /**
+     * Searches as above until DEADLINE is reached or cancelled. Neither
+     * search heads for the goal on its own, so there is no partial result.
+     */
+    public BidirectionalAStarSolver(AStarGraph<Vertex> forward, AStarGraph<Vertex> backward,
+                                    Vertex start, Vertex end, Deadline deadline,
+                                    boolean parallel) {
+        this.start = start;
+        this.end = end;
+        this.deadline = deadline;
+        this.forward = new Search(forward, start, 1, parallel);
+        this.backward = new Search(backward, end, -1, parallel);
+        this.forward.other = this.backward;
+        this.backward.other = this.forward;
+        if (start.equals(end)) {
+            offer(0, start);
+        }
+
+        if (parallel) {
+            Thread thread = new Thread(this.backward::run, "bidirectional-astar-backward");
+            thread.start();
+            this.forward.run();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            while (!done() && !timedOut) {
+                Search next = this.forward.minKey <= this.backward.minKey
+                        ? this.forward : this.backward;
+                next.step();
+            }
+        }
+
+        timeSpent = sw.elapsedTime();
+        if (timedOut && !done()) {
+            outcome = SolverOutcome.TIMEOUT;
+            return;
+        }
+        if (meeting == null) {
+            outcome = SolverOutcome.UNSOLVABLE;
+            return;
+        }
+        for (Vertex v = meeting; v != null; v = this.forward.prev.get(v)) {
+            solution.addFirst(v);
+        }
+        for (Vertex v = this.backward.prev.get(meeting); v != null;
+             v = this.backward.prev.get(v)) {
+            solution.addLast(v);
+        }
+        outcome = SolverOutcome.SOLVED;
+        solutionWeight = best;
+    }
+
+    /* Returns true once no unexplored path can be shorter than the best one found. */
+    private boolean done() {
+        return forward.minKey + backward.minKey >= best;
+    }
+
+    /* Records a path of length LENGTH through V if it is the shortest so far. */
+    private synchronized void offer(double length, Vertex v) {
+        if (length < best) {
+            best = length;
+            meeting = v;
+        }
+    }
+
+    /* The average potential of V, negated for the backward search. */
+    private double potential(AStarGraph<Vertex> graph, Vertex v) {
+        return (graph.estimatedDistanceToGoal(v, end) - graph.estimatedDistanceToGoal(v, start))
+                / 2;
+    }
+
+    /** One of the two searches. */
+    private class Search {
+        private final AStarGraph<Vertex> graph;
+        private final double sign;
+        private final Map<Vertex, Double> disTo;
+        private final Map<Vertex, Vertex> prev;
+        /* Potential of each vertex reached, which takes two estimates to compute. */
+        private final Map<Vertex, Double> potentials = new HashMap<>();
+        private final PriorityQueue<Vertex> fringe = new IndexedHeapPQ<>();
+        private final NeighborConsumer<Vertex> relaxEdge = this::relax;
+        private Search other;
+        private Vertex curr;
+        private int explored;
+        /** Smallest priority in the fringe, published after each step. */
+        private volatile double minKey;
+
+        Search(AStarGraph<Vertex> graph, Vertex origin, double sign, boolean concurrent) {
+            this.graph = graph;
+            this.sign = sign;
+            disTo = concurrent ? new ConcurrentHashMap<>() : new HashMap<>();
+            prev = new HashMap<>();
+            disTo.put(origin, 0.0);
+            minKey = potential(origin);
+            fringe.insert(origin, minKey);
+        }
+
+        /* Steps until the searches are done, for a search with a thread of its own. */
+        void run() {
+            while (!done() && !timedOut) {
+                step();
+            }
+        }
+
+        /* Polls and expands the vertex with the smallest priority. */
+        void step() {
+            if (fringe.size() == 0) {
+                minKey = Double.POSITIVE_INFINITY;
+                return;
+            }
+            curr = fringe.poll();
+            explored += 1;
+            graph.forEachNeighbor(curr, relaxEdge);
+            minKey = fringe.size() == 0 ? Double.POSITIVE_INFINITY : key(fringe.peek());
+            if (deadline.reached(explored)) {
+                timedOut = true;
+            }
+        }
+
+        private double key(Vertex v) {
+            return disTo.get(v) + potentials.get(v);
+        }
+
+        /* Returns this search's potential of V. */
+        private double potential(Vertex v) {
+            Double p = potentials.get(v);
+            if (p == null) {
+                p = sign * BidirectionalAStarSolver.this.potential(graph, v);
+                potentials.put(v, p);
+            }
+            return p;
+        }
+
+        /* Relaxes the edge from curr to TO, and checks for a path through TO. */
+        private void relax(Vertex to, double weight) {
+            double newPath = disTo.get(curr) + weight;
+            if (newPath < disTo.getOrDefault(to, Double.POSITIVE_INFINITY)) {
+                disTo.put(to, newPath);
+                prev.put(to, curr);
+                double priority = newPath + potential(to);
+                if (fringe.contains(to)) {
+                    fringe.changePriority(to, priority);
+                } else {
+                    fringe.insert(to, priority);
+                }
+                Double rest = other.disTo.get(to);
+                if (rest != null) {
+                    offer(newPath + rest, to);
+                }
+            }
+        }
+    }
+
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    public List<Vertex> solution() {
+        return solution;
+    }
+
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    /** Returns the number of vertices settled by the two searches together. */
+    public int numStatesExplored() {
+        return forward.explored + backward.explored;
+    }
+
+    public double explorationTime() {
+        return timeSpent;
+    }
+}
@@ -0,0 +1,86 @@
+package bearmaps.utils.graph;
+
+import java.util.Arrays;
+
+/**
+ * The vertices within a distance budget of a source: a Dijkstra search that
+ * stops at the first vertex farther than the budget. Vertices are kept in the
+ * order they were settled, which is by distance, so the vertices within any
+ * smaller budget are a prefix of them, and one search serves every budget up
+ * to the one it ran with.
+ */
+public class BoundedSearch {
+    private final int[] vertices;
+    private final double[] distances;
+
+    private BoundedSearch(int[] vertices, double[] distances) {
+        this.vertices = vertices;
+        this.distances = distances;
+    }
+
+    /** Searches G from SOURCE for the vertices at most BUDGET away, with this thread's workspace. */
+    public static BoundedSearch run(IntAStarGraph g, int source, double budget) {
+        SearchWorkspace ws = SearchWorkspace.forCurrentThread(g.vertexCount());
+        ws.begin();
+        ws.reach(source, 0, -1);
+        ws.fringe.insert(source, 0);
+        int[] vertices = new int[64];
+        double[] distances = new double[64];
+        int count = 0;
+        while (!ws.fringe.isEmpty() && ws.fringe.peekPriority() <= budget) {
+            int v = ws.fringe.poll();
+            if (count == vertices.length) {
+                vertices = Arrays.copyOf(vertices, 2 * count);
+                distances = Arrays.copyOf(distances, 2 * count);
+            }
+            vertices[count] = v;
+            distances[count] = ws.dist[v];
+            count += 1;
+            g.forEachNeighbor(v, (edge, w, weight) -> {
+                double d = ws.dist[v] + weight;
+                if (d < ws.distance(w)) {
+                    ws.reach(w, d, v);
+                    if (ws.fringe.contains(w)) {
+                        ws.fringe.changePriority(w, d);
+                    } else {
+                        ws.fringe.insert(w, d);
+                    }
+                }
+            });
+        }
+        return new BoundedSearch(Arrays.copyOf(vertices, count), Arrays.copyOf(distances, count));
+    }
+
+    /** Returns the number of vertices within the budget of the search. */
+    public int size() {
+        return vertices.length;
+    }
+
+    /** Returns the Ith closest vertex. */
+    public int vertex(int i) {
+        return vertices[i];
+    }
+
+    /** Returns the distance to the Ith closest vertex. */
+    public double distance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * Returns the number of vertices at most BUDGET away, which are vertex(0)
+     * to vertex(count - 1). BUDGET may not exceed the budget of the search.
+     */
+    public int countWithin(double budget) {
+        int lo = 0;
+        int hi = distances.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (distances[mid] <= budget) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,108 @@
+package bearmaps.utils.graph;
+
+import java.util.Arrays;
+
+/**
+ * The connected components of a graph, with edges taken in either
+ * direction, as a label per vertex. Two vertices with different labels have
+ * no path between them, so a search between them can be answered at once
+ * instead of by exhausting the component of the start. Two with the same
+ * label usually have one, though one-way edges or closed streets can still
+ * keep them apart.
+ *
+ * Components are labeled from 0 in order of decreasing size, so the largest
+ * component is 0.
+ */
+public class Components {
+    private final int[] labels;
+    private final int[] sizes;
+
+    private Components(int[] labels, int[] sizes) {
+        this.labels = labels;
+        this.sizes = sizes;
+    }
+
+    /** Labels the components of G with a union-find pass over its edges. */
+    public static Components of(IntAStarGraph g) {
+        int n = g.vertexCount();
+        int[] parent = new int[n];
+        int[] size = new int[n];
+        for (int v = 0; v < n; v++) {
+            parent[v] = v;
+            size[v] = 1;
+        }
+        for (int v = 0; v < n; v++) {
+            int from = v;
+            g.forEachNeighbor(v, (edge, w, weight) -> {
+                int a = find(parent, from);
+                int b = find(parent, w);
+                if (a != b) {
+                    if (size[a] < size[b]) {
+                        int t = a;
+                        a = b;
+                        b = t;
+                    }
+                    parent[b] = a;
+                    size[a] += size[b];
+                }
+            });
+        }
+
+        /* Sort the roots by decreasing size, breaking ties by root, and number them in order. */
+        int count = 0;
+        for (int v = 0; v < n; v++) {
+            if (parent[v] == v) {
+                count += 1;
+            }
+        }
+        long[] roots = new long[count];
+        count = 0;
+        for (int v = 0; v < n; v++) {
+            if (parent[v] == v) {
+                roots[count] = (long) (n - size[v]) << 32 | v;
+                count += 1;
+            }
+        }
+        Arrays.sort(roots);
+        int[] labels = new int[n];
+        int[] sizes = new int[count];
+        for (int c = 0; c < count; c++) {
+            int root = (int) roots[c];
+            labels[root] = c;
+            sizes[c] = size[root];
+        }
+        for (int v = 0; v < n; v++) {
+            labels[v] = labels[find(parent, v)];
+        }
+        return new Components(labels, sizes);
+    }
+
+    /* Returns the root of V, halving the path to it on the way. */
+    private static int find(int[] parent, int v) {
+        while (parent[v] != v) {
+            parent[v] = parent[parent[v]];
+            v = parent[v];
+        }
+        return v;
+    }
+
+    /** Returns the label of the component of V. */
+    public int component(int v) {
+        return labels[v];
+    }
+
+    /** Returns true if V and W are in the same component. */
+    public boolean connected(int v, int w) {
+        return labels[v] == labels[w];
+    }
+
+    /** Returns the number of components, counting each vertex without edges as one. */
+    public int count() {
+        return sizes.length;
+    }
+
+    /** Returns the number of vertices in component C. */
+    public int size(int c) {
+        return sizes[c];
+    }
+}
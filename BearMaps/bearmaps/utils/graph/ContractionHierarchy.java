@@ -0,0 +1,424 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IntMinHeap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A contraction hierarchy over an IntAStarGraph, for answering shortest path
+ * queries with a ContractionHierarchySolver in a small fraction of the
+ * vertices an A* search settles.
+ *
+ * Preprocessing removes the vertices one at a time, least important first.
+ * When a vertex v is removed, every pair of its remaining neighbors u and w
+ * whose shortest path runs through v gets a shortcut edge u-w of the same
+ * length, unless a witness search finds another path that is no longer.
+ * Importance is the edge difference, the shortcuts removing v would add less
+ * the edges it would remove, plus the number of neighbors already removed,
+ * which spreads removals evenly over the graph. Priorities are refreshed
+ * lazily when a vertex reaches the front of the queue, and for the neighbors
+ * of each removed vertex.
+ *
+ * The position of a vertex in that order is its rank. A shortest path always
+ * exists whose ranks rise to a peak and then fall, over original edges and
+ * shortcuts, so a query only needs the edges to higher-ranked vertices from
+ * each vertex, searched upward from both ends. Each shortcut records the
+ * vertex it bypasses, so that paths can be unpacked into original edges.
+ *
+ * Assumes every edge has a reverse edge of the same weight, as in street
+ * graphs built from OSM, and uses the smallest weight among parallel edges.
+ */
+public class ContractionHierarchy {
+    /** Witness searches give up after settling this many vertices, which only costs extra shortcuts. */
+    private static final int WITNESS_SETTLE_LIMIT = 400;
+
+    private final int[] rank;
+    /** Edges from v to higher-ranked vertices are [offsets[v], offsets[v + 1]). */
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    /** The vertex each edge bypasses, or -1 for an edge of the original graph. */
+    private final int[] middles;
+
+    private ContractionHierarchy(int[] rank, int[] offsets, int[] targets, double[] weights,
+                                 int[] middles) {
+        this.rank = rank;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middles = middles;
+    }
+
+    /** Contracts every vertex of G and returns the resulting hierarchy. */
+    public static ContractionHierarchy build(IntAStarGraph g) {
+        return new Builder(g).build();
+    }
+
+    public int vertexCount() {
+        return rank.length;
+    }
+
+    /** Returns the number of upward edges, original and shortcut. */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /** Returns the number of upward edges that are shortcuts. */
+    public int shortcutCount() {
+        int count = 0;
+        for (int middle : middles) {
+            if (middle >= 0) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Returns the position of V in the contraction order. */
+    public int rank(int v) {
+        return rank[v];
+    }
+
+    int edgeBegin(int v) {
+        return offsets[v];
+    }
+
+    int edgeEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    int target(int e) {
+        return targets[e];
+    }
+
+    double weight(int e) {
+        return weights[e];
+    }
+
+    /**
+     * Unpacks PATH, a list of vertices joined by hierarchy edges, into the
+     * list of vertices it passes through on edges of the original graph.
+     */
+    public int[] unpack(int[] path) {
+        if (path.length == 0) {
+            return path;
+        }
+        int[] full = new int[2 * path.length];
+        int count = 1;
+        full[0] = path[0];
+        /* Pairs of vertices still to unpack, the next pair on the path last. */
+        int[] stack = new int[Math.max(16, 4 * path.length)];
+        int top = 2 * (path.length - 1);
+        for (int i = path.length - 1, k = 0; i > 0; i--, k += 2) {
+            stack[k] = path[i - 1];
+            stack[k + 1] = path[i];
+        }
+        while (top > 0) {
+            int w = stack[--top];
+            int v = stack[--top];
+            int e = edgeBetween(v, w);
+            if (middles[e] < 0) {
+                if (count == full.length) {
+                    full = Arrays.copyOf(full, 2 * count);
+                }
+                full[count] = w;
+                count += 1;
+                continue;
+            }
+            if (top + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+            }
+            stack[top++] = middles[e];
+            stack[top++] = w;
+            stack[top++] = v;
+            stack[top++] = middles[e];
+        }
+        return Arrays.copyOf(full, count);
+    }
+
+    /* Returns the upward edge between V and W, stored at the lower-ranked of the two. */
+    private int edgeBetween(int v, int w) {
+        int low = rank[v] < rank[w] ? v : w;
+        int high = low == v ? w : v;
+        int e = offsets[low];
+        while (targets[e] != high) {
+            e += 1;
+        }
+        return e;
+    }
+
+    /** Returns the number of bytes writeTo uses. */
+    public long bytes() {
+        return 8 + 8L * targets.length + 4 * (2L * rank.length + 1 + 2L * targets.length);
+    }
+
+    /**
+     * Writes this hierarchy to B: the vertex and edge counts, then the
+     * weights, then the ranks, offsets, targets and middles.
+     */
+    public void writeTo(ByteBuffer b) {
+        b.putInt(rank.length);
+        b.putInt(targets.length);
+        for (double weight : weights) {
+            b.putDouble(weight);
+        }
+        for (int[] a : new int[][]{rank, offsets, targets, middles}) {
+            for (int x : a) {
+                b.putInt(x);
+            }
+        }
+    }
+
+    /** Reads a hierarchy written by writeTo, advancing the position of B. */
+    public static ContractionHierarchy readFrom(ByteBuffer b) {
+        int n = b.getInt();
+        int m = b.getInt();
+        double[] weights = new double[m];
+        b.asDoubleBuffer().get(weights);
+        b.position(b.position() + 8 * m);
+        int[][] ints = new int[4][];
+        int[] lengths = {n, n + 1, m, m};
+        for (int k = 0; k < ints.length; k++) {
+            ints[k] = new int[lengths[k]];
+            b.asIntBuffer().get(ints[k]);
+            b.position(b.position() + 4 * lengths[k]);
+        }
+        return new ContractionHierarchy(ints[0], ints[1], ints[2], weights, ints[3]);
+    }
+
+    /** The state of one contraction: a shrinking graph that gains shortcuts. */
+    private static class Builder {
+        private final int n;
+        /* Edges of v, to removed and remaining vertices alike, are the first size[v] entries. */
+        private final int[][] adjTargets;
+        private final double[][] adjWeights;
+        private final int[][] adjMiddles;
+        private final int[] size;
+        private final boolean[] removed;
+        private final int[] removedNeighbors;
+        private final int[] rank;
+
+        /* Witness search state, reused across searches. */
+        private final double[] dist;
+        private final int[] stamp;
+        private int generation;
+        private final IntMinHeap witnessFringe;
+
+        /* Remaining neighbors of the vertex being contracted, and the weights to them. */
+        private int[] neighbors = new int[16];
+        private double[] neighborWeights = new double[16];
+
+        Builder(IntAStarGraph g) {
+            n = g.vertexCount();
+            adjTargets = new int[n][];
+            adjWeights = new double[n][];
+            adjMiddles = new int[n][];
+            size = new int[n];
+            removed = new boolean[n];
+            removedNeighbors = new int[n];
+            rank = new int[n];
+            dist = new double[n];
+            stamp = new int[n];
+            witnessFringe = new IntMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                adjTargets[v] = new int[4];
+                adjWeights[v] = new double[4];
+                adjMiddles[v] = new int[4];
+            }
+            for (int v = 0; v < n; v++) {
+                int from = v;
+                g.forEachNeighbor(v, (edge, to, weight) -> {
+                    if (to != from) {
+                        addEdge(from, to, weight, -1);
+                    }
+                });
+            }
+        }
+
+        ContractionHierarchy build() {
+            IntMinHeap order = new IntMinHeap(n);
+            for (int v = 0; v < n; v++) {
+                order.insert(v, priority(v));
+            }
+            int next = 0;
+            while (!order.isEmpty()) {
+                int v = order.poll();
+                double priority = priority(v);
+                if (!order.isEmpty() && priority > order.peekPriority()) {
+                    order.insert(v, priority);
+                    continue;
+                }
+                contract(v, true);
+                removed[v] = true;
+                rank[v] = next;
+                next += 1;
+                for (int k = 0; k < size[v]; k++) {
+                    int u = adjTargets[v][k];
+                    if (!removed[u]) {
+                        removedNeighbors[u] += 1;
+                        order.changePriority(u, priority(u));
+                    }
+                }
+            }
+            return upward();
+        }
+
+        /* Edge difference plus removed neighbors, by simulating the removal of V. */
+        private double priority(int v) {
+            int shortcuts = contract(v, false);
+            return shortcuts - neighborCount(v) + removedNeighbors[v];
+        }
+
+        /*
+         * Finds the shortcuts that removing V needs, adds them if ADD is set,
+         * and returns how many there are.
+         */
+        private int contract(int v, boolean add) {
+            int count = collectNeighbors(v);
+            double maxOut = 0;
+            for (int j = 0; j < count; j++) {
+                maxOut = Math.max(maxOut, neighborWeights[j]);
+            }
+            int shortcuts = 0;
+            for (int i = 0; i < count; i++) {
+                int u = neighbors[i];
+                double limit = neighborWeights[i] + maxOut;
+                witnessSearch(u, v, limit);
+                for (int j = i + 1; j < count; j++) {
+                    int w = neighbors[j];
+                    double through = neighborWeights[i] + neighborWeights[j];
+                    if (distance(w) > through) {
+                        shortcuts += 1;
+                        if (add) {
+                            addEdge(u, w, through, v);
+                            addEdge(w, u, through, v);
+                        }
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        private int neighborCount(int v) {
+            int count = 0;
+            for (int k = 0; k < size[v]; k++) {
+                if (!removed[adjTargets[v][k]]) {
+                    count += 1;
+                }
+            }
+            return count;
+        }
+
+        /* Copies the remaining neighbors of V into neighbors and returns how many there are. */
+        private int collectNeighbors(int v) {
+            if (neighbors.length < size[v]) {
+                neighbors = new int[size[v]];
+                neighborWeights = new double[size[v]];
+            }
+            int count = 0;
+            for (int k = 0; k < size[v]; k++) {
+                if (!removed[adjTargets[v][k]]) {
+                    neighbors[count] = adjTargets[v][k];
+                    neighborWeights[count] = adjWeights[v][k];
+                    count += 1;
+                }
+            }
+            return count;
+        }
+
+        /*
+         * Runs Dijkstra from SOURCE over the remaining vertices other than
+         * AVOID, until it passes LIMIT or settles WITNESS_SETTLE_LIMIT vertices.
+         */
+        private void witnessSearch(int source, int avoid, double limit) {
+            generation += 1;
+            witnessFringe.clear();
+            reach(source, 0);
+            witnessFringe.insert(source, 0);
+            int settled = 0;
+            while (!witnessFringe.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                if (witnessFringe.peekPriority() > limit) {
+                    break;
+                }
+                int v = witnessFringe.poll();
+                settled += 1;
+                for (int k = 0; k < size[v]; k++) {
+                    int w = adjTargets[v][k];
+                    if (removed[w] || w == avoid) {
+                        continue;
+                    }
+                    double d = dist[v] + adjWeights[v][k];
+                    if (d < distance(w)) {
+                        reach(w, d);
+                        if (witnessFringe.contains(w)) {
+                            witnessFringe.changePriority(w, d);
+                        } else {
+                            witnessFringe.insert(w, d);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void reach(int v, double d) {
+            stamp[v] = generation;
+            dist[v] = d;
+        }
+
+        private double distance(int v) {
+            return stamp[v] == generation ? dist[v] : Double.POSITIVE_INFINITY;
+        }
+
+        /* Adds an edge from V to W, or lowers the weight of the existing one. */
+        private void addEdge(int v, int w, double weight, int middle) {
+            for (int k = 0; k < size[v]; k++) {
+                if (adjTargets[v][k] == w) {
+                    if (weight < adjWeights[v][k]) {
+                        adjWeights[v][k] = weight;
+                        adjMiddles[v][k] = middle;
+                    }
+                    return;
+                }
+            }
+            if (size[v] == adjTargets[v].length) {
+                adjTargets[v] = Arrays.copyOf(adjTargets[v], 2 * size[v]);
+                adjWeights[v] = Arrays.copyOf(adjWeights[v], 2 * size[v]);
+                adjMiddles[v] = Arrays.copyOf(adjMiddles[v], 2 * size[v]);
+            }
+            adjTargets[v][size[v]] = w;
+            adjWeights[v][size[v]] = weight;
+            adjMiddles[v][size[v]] = middle;
+            size[v] += 1;
+        }
+
+        /* Keeps, for each vertex, the edges to higher-ranked vertices. */
+        private ContractionHierarchy upward() {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                int up = 0;
+                for (int k = 0; k < size[v]; k++) {
+                    if (rank[adjTargets[v][k]] > rank[v]) {
+                        up += 1;
+                    }
+                }
+                offsets[v + 1] = offsets[v] + up;
+            }
+            int[] targets = new int[offsets[n]];
+            double[] weights = new double[offsets[n]];
+            int[] middles = new int[offsets[n]];
+            for (int v = 0; v < n; v++) {
+                int e = offsets[v];
+                for (int k = 0; k < size[v]; k++) {
+                    if (rank[adjTargets[v][k]] > rank[v]) {
+                        targets[e] = adjTargets[v][k];
+                        weights[e] = adjWeights[v][k];
+                        middles[e] = adjMiddles[v][k];
+                        e += 1;
+                    }
+                }
+            }
+            return new ContractionHierarchy(rank, offsets, targets, weights, middles);
+        }
+    }
+}
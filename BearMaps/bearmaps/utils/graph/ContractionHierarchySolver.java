@@ -0,0 +1,185 @@
+package bearmaps.utils.graph;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Shortest paths on a ContractionHierarchy. Two Dijkstra searches, one from
+ * each end, only follow edges to higher-ranked vertices, and the route is the
+ * shortest combination of the two that meets at a common vertex. A side stops
+ * once the smallest distance in its fringe reaches the shortest route found.
+ *
+ * A vertex is stalled, and its edges not followed, when a higher-ranked
+ * neighbor the same search has reached gives it a shorter distance than the
+ * one it was settled with; such a vertex cannot be on a shortest upward path.
+ * The solution is unpacked into vertices of the original graph.
+ */
+public class ContractionHierarchySolver implements ShortestPathsSolver<Integer> {
+    private static final ThreadLocal<SearchWorkspace> BACKWARD =
+            ThreadLocal.withInitial(() -> new SearchWorkspace(0));
+
+    private SolverOutcome outcome;
+    private double solutionWeight;
+    private int[] path = new int[0];
+    private double timeSpent;
+    private int numStatesExplored;
+
+    private final ContractionHierarchy ch;
+
+    /** Searches CH from START to END with this thread's workspaces. */
+    public ContractionHierarchySolver(ContractionHierarchy ch, int start, int end,
+                                      double timeout) {
+        this(ch, start, end, timeout, SearchWorkspace.forCurrentThread(ch.vertexCount()),
+                BACKWARD.get());
+    }
+
+    /**
+     * Searches CH from START to END with the workspaces FORWARD and BACKWARD,
+     * which must be distinct and not in use by another search, giving up
+     * after TIMEOUT seconds.
+     */
+    public ContractionHierarchySolver(ContractionHierarchy ch, int start, int end,
+                                      double timeout, SearchWorkspace forward,
+                                      SearchWorkspace backward) {
+        this(ch, start, end, Deadline.after(timeout), forward, backward);
+    }
+
+    /**
+     * Searches CH from START to END with this thread's workspaces, giving up
+     * when DEADLINE is reached or cancelled. Upward searches do not approach
+     * the goal, so there is no partial result to return on timeout.
+     */
+    public ContractionHierarchySolver(ContractionHierarchy ch, int start, int end,
+                                      Deadline deadline) {
+        this(ch, start, end, deadline, SearchWorkspace.forCurrentThread(ch.vertexCount()),
+                BACKWARD.get());
+    }
+
+    /** Searches CH from START to END with FORWARD and BACKWARD until DEADLINE. */
+    public ContractionHierarchySolver(ContractionHierarchy ch, int start, int end,
+                                      Deadline deadline, SearchWorkspace forward,
+                                      SearchWorkspace backward) {
+        long began = System.nanoTime();
+        this.ch = ch;
+        forward.ensureCapacity(ch.vertexCount());
+        backward.ensureCapacity(ch.vertexCount());
+        forward.begin();
+        backward.begin();
+        forward.reach(start, 0, -1);
+        forward.fringe.insert(start, 0);
+        backward.reach(end, 0, -1);
+        backward.fringe.insert(end, 0);
+
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        while (true) {
+            double forwardMin = forward.fringe.isEmpty() ? Double.POSITIVE_INFINITY
+                    : forward.fringe.peekPriority();
+            double backwardMin = backward.fringe.isEmpty() ? Double.POSITIVE_INFINITY
+                    : backward.fringe.peekPriority();
+            if (forwardMin >= best && backwardMin >= best) {
+                break;
+            }
+            SearchWorkspace side = forwardMin <= backwardMin ? forward : backward;
+            SearchWorkspace other = side == forward ? backward : forward;
+            int v = side.fringe.poll();
+            numStatesExplored += 1;
+            if (deadline.reached(numStatesExplored)) {
+                outcome = SolverOutcome.TIMEOUT;
+                timeSpent = (System.nanoTime() - began) / 1e9;
+                return;
+            }
+
+            if (other.reached(v) && side.dist[v] + other.dist[v] < best) {
+                best = side.dist[v] + other.dist[v];
+                meeting = v;
+            }
+            if (stalled(side, v)) {
+                continue;
+            }
+            for (int e = ch.edgeBegin(v); e < ch.edgeEnd(v); e++) {
+                int w = ch.target(e);
+                double d = side.dist[v] + ch.weight(e);
+                if (d < side.distance(w)) {
+                    side.reach(w, d, v);
+                    if (side.fringe.contains(w)) {
+                        side.fringe.changePriority(w, d);
+                    } else {
+                        side.fringe.insert(w, d);
+                    }
+                }
+            }
+        }
+
+        timeSpent = (System.nanoTime() - began) / 1e9;
+        if (meeting < 0) {
+            outcome = SolverOutcome.UNSOLVABLE;
+            return;
+        }
+        int up = 0;
+        for (int v = meeting; v != start; v = forward.parent[v]) {
+            up += 1;
+        }
+        int down = 0;
+        for (int v = meeting; v != end; v = backward.parent[v]) {
+            down += 1;
+        }
+        int[] upward = new int[up + down + 1];
+        for (int k = up, v = meeting; k >= 0; k--, v = forward.parent[v]) {
+            upward[k] = v;
+        }
+        for (int k = up + 1, v = backward.parent[meeting]; k < upward.length;
+             k++, v = backward.parent[v]) {
+            upward[k] = v;
+        }
+        path = ch.unpack(upward);
+        outcome = SolverOutcome.SOLVED;
+        solutionWeight = best;
+    }
+
+    /* Returns true if a higher-ranked neighbor reached by SIDE gives V a shorter distance. */
+    private boolean stalled(SearchWorkspace side, int v) {
+        for (int e = ch.edgeBegin(v); e < ch.edgeEnd(v); e++) {
+            int w = ch.target(e);
+            if (side.distance(w) + ch.weight(e) < side.dist[v]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    /** Returns the vertices of the solution in order, or an empty array if there is none. */
+    public int[] path() {
+        return path;
+    }
+
+    public List<Integer> solution() {
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int i) {
+                return path[i];
+            }
+
+            @Override
+            public int size() {
+                return path.length;
+            }
+        };
+    }
+
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    public double explorationTime() {
+        return timeSpent;
+    }
+}
@@ -0,0 +1,76 @@
+package bearmaps.utils.graph;
+
+/**
+ * When a search has to give up: at a point in time, or earlier if someone
+ * cancels it, for example because the client that asked for the route has
+ * gone away. One deadline can be shared by many searches, and cancel() may
+ * be called from any thread.
+ *
+ * Reading the clock on every vertex a search settles costs more than the
+ * rest of settling some vertices, so solvers call reached(count) with the
+ * number of vertices settled so far, which only reads the clock once every
+ * CHECK_INTERVAL vertices. Cancellation is seen on the next vertex.
+ *
+ * A deadline made with within() also gives up when the one it was made from
+ * does, so that, for example, every route of a batch can have a time limit of
+ * its own and still all stop when the batch is cancelled.
+ */
+public class Deadline {
+    /** Vertices settled between clock reads; a power of two. */
+    public static final int CHECK_INTERVAL = 256;
+
+    /* Far enough away not to matter, and near enough that nanoTime arithmetic cannot overflow. */
+    private static final long NEVER = Long.MAX_VALUE / 4;
+
+    private final long expiresAt;
+    private final Deadline parent;
+    private volatile boolean cancelled;
+
+    private Deadline(long expiresAt, Deadline parent) {
+        this.expiresAt = expiresAt;
+        this.parent = parent;
+    }
+
+    /** Returns a deadline SECONDS from now. */
+    public static Deadline after(double seconds) {
+        return new Deadline(System.nanoTime() + (long) Math.min(seconds * 1e9, NEVER), null);
+    }
+
+    /** Returns a deadline that is only reached when it is cancelled. */
+    public static Deadline never() {
+        return new Deadline(System.nanoTime() + NEVER, null);
+    }
+
+    /**
+     * Returns a deadline SECONDS from now, or at this one if that is sooner,
+     * that is also reached when this one is cancelled.
+     */
+    public Deadline within(double seconds) {
+        long expiry = System.nanoTime() + (long) Math.min(seconds * 1e9, NEVER);
+        return new Deadline(expiry - expiresAt < 0 ? expiry : expiresAt, this);
+    }
+
+    /** Makes every search with this deadline give up as soon as it next checks. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** Returns true if this deadline, or the one it was made from, has been cancelled. */
+    public boolean isCancelled() {
+        return cancelled || parent != null && parent.isCancelled();
+    }
+
+    /** Returns true if the deadline has passed or it has been cancelled. */
+    public boolean reached() {
+        return isCancelled() || System.nanoTime() - expiresAt >= 0;
+    }
+
+    /**
+     * Returns true if the deadline has been cancelled, or if COUNT is a
+     * multiple of CHECK_INTERVAL and the deadline has passed.
+     */
+    public boolean reached(int count) {
+        return isCancelled() || ((count & (CHECK_INTERVAL - 1)) == 0
+                && System.nanoTime() - expiresAt >= 0);
+    }
+}
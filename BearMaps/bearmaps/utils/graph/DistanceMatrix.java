@@ -0,0 +1,161 @@
+package bearmaps.utils.graph;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Shortest path lengths from every one of a list of sources to every one of
+ * a list of targets, computed in one pass rather than one search per pair.
+ * The result is dense and row-major: the distance from sources[i] to
+ * targets[j] is at i * targets.length + j, and is infinite if there is no
+ * path.
+ */
+public class DistanceMatrix {
+
+    private DistanceMatrix() {
+    }
+
+    /**
+     * Runs one Dijkstra search over G from each source, in parallel, each
+     * stopping once it has settled every target.
+     */
+    public static double[] compute(IntAStarGraph g, int[] sources, int[] targets) {
+        int m = targets.length;
+        int[] distinctTargets = Arrays.stream(targets).distinct().sorted().toArray();
+        double[] matrix = new double[sources.length * m];
+        IntStream.range(0, sources.length).parallel().forEach(i -> {
+            SearchWorkspace ws = SearchWorkspace.forCurrentThread(g.vertexCount());
+            ws.begin();
+            ws.reach(sources[i], 0, -1);
+            ws.fringe.insert(sources[i], 0);
+            int left = distinctTargets.length;
+            while (!ws.fringe.isEmpty() && left > 0) {
+                int v = ws.fringe.poll();
+                if (Arrays.binarySearch(distinctTargets, v) >= 0) {
+                    left -= 1;
+                }
+                g.forEachNeighbor(v, (edge, w, weight) -> {
+                    double d = ws.dist[v] + weight;
+                    if (d < ws.distance(w)) {
+                        ws.reach(w, d, v);
+                        if (ws.fringe.contains(w)) {
+                            ws.fringe.changePriority(w, d);
+                        } else {
+                            ws.fringe.insert(w, d);
+                        }
+                    }
+                });
+            }
+            for (int j = 0; j < m; j++) {
+                matrix[i * m + j] = ws.distance(targets[j]);
+            }
+        });
+        return matrix;
+    }
+
+    /**
+     * Computes the matrix on CH with buckets. An upward search from each
+     * target leaves, at every vertex it settles, an entry with the target and
+     * the distance. An upward search from each source then meets every target
+     * at the peak of its shortest path, and the smallest sum over the entries
+     * of the vertices it settles is the distance. Both rounds of searches run
+     * in parallel, and both skip vertices stalled as in
+     * ContractionHierarchySolver.
+     */
+    public static double[] compute(ContractionHierarchy ch, int[] sources, int[] targets) {
+        int n = ch.vertexCount();
+        int m = targets.length;
+        int[][] settled = new int[m][];
+        double[][] settledDistances = new double[m][];
+        IntStream.range(0, m).parallel().forEach(j -> {
+            SearchWorkspace ws = SearchWorkspace.forCurrentThread(n);
+            settled[j] = upward(ch, targets[j], ws);
+            settledDistances[j] = new double[settled[j].length];
+            for (int k = 0; k < settled[j].length; k++) {
+                settledDistances[j][k] = ws.dist[settled[j][k]];
+            }
+        });
+
+        /* Buckets of v are [bucketOffsets[v], bucketOffsets[v + 1]). */
+        int[] bucketOffsets = new int[n + 1];
+        for (int[] vertices : settled) {
+            for (int v : vertices) {
+                bucketOffsets[v + 1] += 1;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            bucketOffsets[v + 1] += bucketOffsets[v];
+        }
+        int[] fill = Arrays.copyOf(bucketOffsets, n);
+        int[] bucketTargets = new int[bucketOffsets[n]];
+        double[] bucketDistances = new double[bucketOffsets[n]];
+        for (int j = 0; j < m; j++) {
+            for (int k = 0; k < settled[j].length; k++) {
+                int v = settled[j][k];
+                bucketTargets[fill[v]] = j;
+                bucketDistances[fill[v]] = settledDistances[j][k];
+                fill[v] += 1;
+            }
+        }
+
+        double[] matrix = new double[sources.length * m];
+        Arrays.fill(matrix, Double.POSITIVE_INFINITY);
+        IntStream.range(0, sources.length).parallel().forEach(i -> {
+            SearchWorkspace ws = SearchWorkspace.forCurrentThread(n);
+            for (int v : upward(ch, sources[i], ws)) {
+                for (int b = bucketOffsets[v]; b < bucketOffsets[v + 1]; b++) {
+                    int cell = i * m + bucketTargets[b];
+                    matrix[cell] = Math.min(matrix[cell], ws.dist[v] + bucketDistances[b]);
+                }
+            }
+        });
+        return matrix;
+    }
+
+    /*
+     * Runs an exhaustive upward search from V in WS, and returns the vertices
+     * it settled without stalling them, whose distances are left in WS.
+     */
+    private static int[] upward(ContractionHierarchy ch, int v, SearchWorkspace ws) {
+        ws.ensureCapacity(ch.vertexCount());
+        ws.begin();
+        ws.reach(v, 0, -1);
+        ws.fringe.insert(v, 0);
+        int[] settled = new int[64];
+        int count = 0;
+        while (!ws.fringe.isEmpty()) {
+            int u = ws.fringe.poll();
+            if (stalled(ch, ws, u)) {
+                continue;
+            }
+            if (count == settled.length) {
+                settled = Arrays.copyOf(settled, 2 * count);
+            }
+            settled[count] = u;
+            count += 1;
+            for (int e = ch.edgeBegin(u); e < ch.edgeEnd(u); e++) {
+                int w = ch.target(e);
+                double d = ws.dist[u] + ch.weight(e);
+                if (d < ws.distance(w)) {
+                    ws.reach(w, d, u);
+                    if (ws.fringe.contains(w)) {
+                        ws.fringe.changePriority(w, d);
+                    } else {
+                        ws.fringe.insert(w, d);
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(settled, count);
+    }
+
+    /* Returns true if a higher-ranked neighbor reached in WS gives V a shorter distance. */
+    private static boolean stalled(ContractionHierarchy ch, SearchWorkspace ws, int v) {
+        for (int e = ch.edgeBegin(v); e < ch.edgeEnd(v); e++) {
+            if (ws.distance(ch.target(e)) + ch.weight(e) < ws.dist[v]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,16 @@
+package bearmaps.utils.graph;
+
+/**
+ * Callback for walking the outgoing edges of a vertex in an IntAStarGraph
+ * without allocating.
+ */
+@FunctionalInterface
+public interface EdgeConsumer {
+    /**
+     * Called once per outgoing edge.
+     * @param edge The index of the edge.
+     * @param to The vertex the edge points to.
+     * @param weight The weight of the edge.
+     */
+    void accept(int edge, int to, double weight);
+}
@@ -0,0 +1,11 @@
+package bearmaps.utils.graph;
+
+/**
+ * A lower bound on the distance between two vertices, for AStarSolver to
+ * use in place of the graph's own estimatedDistanceToGoal. It must never
+ * overestimate, or the solver may return routes that are not the shortest.
+ */
+@FunctionalInterface
+public interface Heuristic<Vertex> {
+    double estimatedDistanceToGoal(Vertex s, Vertex goal);
+}
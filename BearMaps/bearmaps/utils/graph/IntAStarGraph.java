@@ -0,0 +1,12 @@
+package bearmaps.utils.graph;
+
+/**
+ * Represents a graph whose vertices are the ints 0 to vertexCount() - 1.
+ * This is the primitive counterpart of AStarGraph: edges are visited through
+ * an EdgeConsumer, so walking adjacency allocates nothing.
+ */
+public interface IntAStarGraph {
+    int vertexCount();
+    void forEachNeighbor(int v, EdgeConsumer c);
+    double estimatedDistanceToGoal(int s, int goal);
+}
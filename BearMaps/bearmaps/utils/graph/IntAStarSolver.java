@@ -0,0 +1,216 @@
+package bearmaps.utils.graph;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * A* over an IntAStarGraph. It finds the same routes as AStarSolver, but
+ * keeps its state in the primitive arrays of a SearchWorkspace rather than in
+ * hash maps, so settling a vertex allocates nothing and starting a search
+ * does not cost time in the size of the graph.
+ *
+ * A search given a Deadline stops with TIMEOUT once it is reached or
+ * cancelled. If it was asked for a partial result, its solution is then the
+ * path to the settled vertex the heuristic puts closest to the goal, and its
+ * solutionWeight the length of that path, so that a caller out of time can
+ * still show the way to go.
+ *
+ * With an EPSILON above 0 the search is weighted A*: priorities are the
+ * distance plus 1 + EPSILON times the heuristic, which heads for the goal
+ * more greedily and settles fewer vertices. With an admissible heuristic the
+ * route found is at most 1 + EPSILON times as long as a shortest one, which
+ * suboptimalityBound reports.
+ */
+public class IntAStarSolver implements ShortestPathsSolver<Integer> {
+
+    private SolverOutcome outcome;
+    private double solutionWeight;
+    private int[] path = new int[0];
+    private double timeSpent;
+    private int numStatesExplored;
+
+    /* Search state, shared with relax() so that edges can be walked without allocating. */
+    private final IntAStarGraph input;
+    private final IntHeuristic heuristic;
+    private final double heuristicWeight;
+    private final int end;
+    private final SearchWorkspace ws;
+    private int curr;
+
+    /** Searches INPUT from START to END with this thread's workspace. */
+    public IntAStarSolver(IntAStarGraph input, int start, int end, double timeout) {
+        this(input, start, end, timeout, SearchWorkspace.forCurrentThread(input.vertexCount()));
+    }
+
+    /**
+     * Searches INPUT from START to END with WORKSPACE, which must not be in
+     * use by another search, giving up after TIMEOUT seconds.
+     */
+    public IntAStarSolver(IntAStarGraph input, int start, int end, double timeout,
+                          SearchWorkspace workspace) {
+        this(input, start, end, timeout, workspace, input::estimatedDistanceToGoal);
+    }
+
+    /**
+     * Searches INPUT from START to END with this thread's workspace, guided
+     * by HEURISTIC in place of the graph's estimatedDistanceToGoal.
+     */
+    public IntAStarSolver(IntAStarGraph input, int start, int end, double timeout,
+                          IntHeuristic heuristic) {
+        this(input, start, end, timeout, SearchWorkspace.forCurrentThread(input.vertexCount()),
+                heuristic);
+    }
+
+    /** Searches INPUT from START to END with WORKSPACE, guided by HEURISTIC. */
+    public IntAStarSolver(IntAStarGraph input, int start, int end, double timeout,
+                          SearchWorkspace workspace, IntHeuristic heuristic) {
+        this(input, start, end, Deadline.after(timeout), false, workspace, heuristic);
+    }
+
+    /**
+     * Searches INPUT from START to END with this thread's workspace until
+     * DEADLINE, returning the best partial path on timeout if PARTIAL.
+     */
+    public IntAStarSolver(IntAStarGraph input, int start, int end, Deadline deadline,
+                          boolean partial) {
+        this(input, start, end, deadline, partial,
+                SearchWorkspace.forCurrentThread(input.vertexCount()),
+                input::estimatedDistanceToGoal);
+    }
+
+    /**
+     * Searches INPUT from START to END with WORKSPACE, guided by HEURISTIC,
+     * until DEADLINE, returning the best partial path on timeout if PARTIAL.
+     */
+    public IntAStarSolver(IntAStarGraph input, int start, int end, Deadline deadline,
+                          boolean partial, SearchWorkspace workspace, IntHeuristic heuristic) {
+        this(input, start, end, deadline, partial, 0, workspace, heuristic);
+    }
+
+    /**
+     * Searches as above, with weighted A* if EPSILON, which must not be
+     * negative, is above 0.
+     */
+    public IntAStarSolver(IntAStarGraph input, int start, int end, Deadline deadline,
+                          boolean partial, double epsilon, SearchWorkspace workspace,
+                          IntHeuristic heuristic) {
+        if (!(epsilon >= 0)) {
+            throw new IllegalArgumentException("Negative epsilon " + epsilon);
+        }
+        long began = System.nanoTime();
+        this.input = input;
+        this.heuristic = heuristic;
+        this.heuristicWeight = 1 + epsilon;
+        this.end = end;
+        this.ws = workspace;
+        ws.ensureCapacity(input.vertexCount());
+        ws.begin();
+        EdgeConsumer relaxEdge = this::relax;
+
+        ws.reach(start, 0, -1);
+        ws.fringe.insert(start,
+                heuristicWeight * heuristic.estimatedDistanceToGoal(start, end));
+        int closest = start;
+        double closestEstimate = Double.POSITIVE_INFINITY;
+        while (!ws.fringe.isEmpty() && ws.fringe.peek() != end) {
+            curr = ws.fringe.poll();
+            numStatesExplored += 1;
+
+            if (deadline.reached(numStatesExplored)) {
+                outcome = SolverOutcome.TIMEOUT;
+                if (partial) {
+                    path = pathTo(start, closest);
+                    solutionWeight = ws.dist[closest];
+                }
+                timeSpent = (System.nanoTime() - began) / 1e9;
+                return;
+            }
+            if (partial) {
+                double estimate = heuristic.estimatedDistanceToGoal(curr, end);
+                if (estimate < closestEstimate) {
+                    closest = curr;
+                    closestEstimate = estimate;
+                }
+            }
+            input.forEachNeighbor(curr, relaxEdge);
+        }
+
+        if (ws.fringe.isEmpty()) {
+            outcome = SolverOutcome.UNSOLVABLE;
+            timeSpent = (System.nanoTime() - began) / 1e9;
+            return;
+        }
+        path = pathTo(start, end);
+        timeSpent = (System.nanoTime() - began) / 1e9;
+        outcome = SolverOutcome.SOLVED;
+        solutionWeight = ws.dist[end];
+    }
+
+    /* Returns the vertices from START to V by following parents in the workspace. */
+    private int[] pathTo(int start, int v) {
+        int length = 1;
+        for (int u = v; u != start; u = ws.parent[u]) {
+            length += 1;
+        }
+        int[] vertices = new int[length];
+        for (int i = length - 1, u = v; i >= 0; i--, u = ws.parent[u]) {
+            vertices[i] = u;
+        }
+        return vertices;
+    }
+
+    /* Relaxes the edge from curr to TO. */
+    private void relax(int edge, int to, double weight) {
+        double newPath = ws.dist[curr] + weight;
+        if (newPath < ws.distance(to)) {
+            ws.reach(to, newPath, curr);
+            double priority = newPath
+                    + heuristicWeight * heuristic.estimatedDistanceToGoal(to, end);
+            if (ws.fringe.contains(to)) {
+                ws.fringe.changePriority(to, priority);
+            } else {
+                ws.fringe.insert(to, priority);
+            }
+        }
+    }
+
+    public SolverOutcome outcome() {
+        return outcome;
+    }
+
+    /** Returns the vertices of the solution in order, or an empty array if there is none. */
+    public int[] path() {
+        return path;
+    }
+
+    public List<Integer> solution() {
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int i) {
+                return path[i];
+            }
+
+            @Override
+            public int size() {
+                return path.length;
+            }
+        };
+    }
+
+    public double solutionWeight() {
+        return solutionWeight;
+    }
+
+    @Override
+    public double suboptimalityBound() {
+        return heuristicWeight;
+    }
+
+    public int numStatesExplored() {
+        return numStatesExplored;
+    }
+
+    public double explorationTime() {
+        return timeSpent;
+    }
+}
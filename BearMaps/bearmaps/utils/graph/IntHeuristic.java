@@ -0,0 +1,11 @@
+package bearmaps.utils.graph;
+
+/**
+ * A lower bound on the distance between two vertices of an IntAStarGraph,
+ * for IntAStarSolver to use in place of the graph's estimatedDistanceToGoal.
+ * It must never overestimate.
+ */
+@FunctionalInterface
+public interface IntHeuristic {
+    double estimatedDistanceToGoal(int s, int goal);
+}
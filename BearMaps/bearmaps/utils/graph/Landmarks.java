@@ -0,0 +1,228 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IntMinHeap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The ALT heuristic (A*, landmarks and the triangle inequality): distances
+ * from and to a few landmark vertices, which bound the distance between any
+ * two vertices from below far more tightly than the straight line does.
+ *
+ * For a landmark L, d(v, t) >= d(L, t) - d(L, v) and d(v, t) >= d(v, L) - d(t, L),
+ * and the estimate is the largest of these bounds over all landmarks. It is
+ * only a lower bound on the weights the tables were computed with, and stays
+ * one when weights are raised but not when they are lowered.
+ *
+ * Landmarks are chosen by farthest selection: the first is the vertex
+ * farthest from a well-connected start, and each next one the vertex whose
+ * distance to the nearest landmark chosen so far is largest. Landmarks then
+ * sit on the edge of the map, behind most routes as seen from their ends,
+ * where the bounds are tight.
+ *
+ * The distances are kept as floats, by vertex, so the K values for one vertex
+ * are next to each other. Each is rounded down, and the estimate subtracts
+ * the rounding error of the value it subtracts, so it never overestimates.
+ */
+public class Landmarks implements IntHeuristic {
+    private final int n;
+    private final int[] landmarks;
+    /** d(landmarks[i], v) is from[v * K + i], and d(v, landmarks[i]) is to[v * K + i]. */
+    private final float[] from;
+    private final float[] to;
+
+    private Landmarks(int n, int[] landmarks, float[] from, float[] to) {
+        this.n = n;
+        this.landmarks = landmarks;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Chooses COUNT landmarks of G, whose every edge must have a reverse edge
+     * of the same weight, so that the distances to each landmark are the
+     * distances from it.
+     */
+    public static Landmarks build(IntAStarGraph g, int count) {
+        return build(g, g, count);
+    }
+
+    /**
+     * Chooses COUNT landmarks of FORWARD, and computes the distances from
+     * them on FORWARD and to them on BACKWARD, which must be FORWARD with its
+     * edges reversed. The landmarks are chosen one after another, each
+     * search giving the distances from one landmark; the searches for the
+     * distances to them run in parallel.
+     */
+    public static Landmarks build(IntAStarGraph forward, IntAStarGraph backward, int count) {
+        int n = forward.vertexCount();
+        int[] degree = new int[n];
+        int start = 0;
+        for (int v = 0; v < n; v++) {
+            int u = v;
+            forward.forEachNeighbor(v, (edge, w, weight) -> degree[u] += 1);
+            if (degree[v] > degree[start]) {
+                start = v;
+            }
+        }
+
+        int k = Math.min(count, n);
+        int[] landmarks = new int[k];
+        double[][] fromDistances = new double[k][];
+        double[] nearest = dijkstra(forward, start);
+        for (int i = 0; i < k; i++) {
+            int farthest = -1;
+            for (int v = 0; v < n; v++) {
+                if (nearest[v] != Double.POSITIVE_INFINITY && degree[v] > 0
+                        && (farthest < 0 || nearest[v] > nearest[farthest])) {
+                    farthest = v;
+                }
+            }
+            if (farthest < 0 || (i > 0 && nearest[farthest] == 0)) {
+                k = i;
+                break;
+            }
+            landmarks[i] = farthest;
+            fromDistances[i] = dijkstra(forward, farthest);
+            for (int v = 0; v < n; v++) {
+                nearest[v] = i == 0 ? fromDistances[i][v]
+                        : Math.min(nearest[v], fromDistances[i][v]);
+            }
+        }
+
+        int[] chosen = Arrays.copyOf(landmarks, k);
+        int width = k;
+        float[] from = new float[n * width];
+        for (int i = 0; i < width; i++) {
+            store(fromDistances[i], from, i, width);
+        }
+        float[] to = from;
+        if (backward != forward) {
+            float[] toDistances = new float[n * width];
+            IntStream.range(0, width).parallel().forEach(i ->
+                    store(dijkstra(backward, chosen[i]), toDistances, i, width));
+            to = toDistances;
+        }
+        return new Landmarks(n, chosen, from, to);
+    }
+
+    /* Writes DISTANCES, rounded down, to column I of TABLE, whose rows are WIDTH long. */
+    private static void store(double[] distances, float[] table, int i, int width) {
+        for (int v = 0; v < distances.length; v++) {
+            float d = (float) distances[v];
+            if (d > distances[v]) {
+                d = Math.nextDown(d);
+            }
+            table[v * width + i] = d;
+        }
+    }
+
+    /* Returns the distance from SOURCE to every vertex of G, infinite if unreachable. */
+    private static double[] dijkstra(IntAStarGraph g, int source) {
+        double[] dist = new double[g.vertexCount()];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        IntMinHeap fringe = new IntMinHeap(g.vertexCount());
+        dist[source] = 0;
+        fringe.insert(source, 0);
+        while (!fringe.isEmpty()) {
+            int v = fringe.poll();
+            g.forEachNeighbor(v, (edge, w, weight) -> {
+                double d = dist[v] + weight;
+                if (d < dist[w]) {
+                    dist[w] = d;
+                    if (fringe.contains(w)) {
+                        fringe.changePriority(w, d);
+                    } else {
+                        fringe.insert(w, d);
+                    }
+                }
+            });
+        }
+        return dist;
+    }
+
+    /** Returns the number of landmarks. */
+    public int count() {
+        return landmarks.length;
+    }
+
+    /** Returns the vertex of the Ith landmark. */
+    public int landmark(int i) {
+        return landmarks[i];
+    }
+
+    /** Returns a lower bound on the distance from S to GOAL. */
+    @Override
+    public double estimatedDistanceToGoal(int s, int goal) {
+        int k = landmarks.length;
+        int sRow = s * k;
+        int goalRow = goal * k;
+        double best = 0;
+        for (int i = 0; i < k; i++) {
+            /* In double, where the difference of two floats is exact. Both terms are
+             * infinite or NaN when a landmark cannot reach or be reached. */
+            double viaFrom = (double) from[goalRow + i] - from[sRow + i]
+                    - Math.ulp(from[sRow + i]);
+            double viaTo = (double) to[sRow + i] - to[goalRow + i] - Math.ulp(to[goalRow + i]);
+            if (viaFrom > best && viaFrom != Double.POSITIVE_INFINITY) {
+                best = viaFrom;
+            }
+            if (viaTo > best && viaTo != Double.POSITIVE_INFINITY) {
+                best = viaTo;
+            }
+        }
+        return best;
+    }
+
+    /** Returns the number of bytes writeTo uses. */
+    public long bytes() {
+        int tables = from == to ? 1 : 2;
+        return 16 + 4L * landmarks.length + 4L * tables * from.length;
+    }
+
+    /**
+     * Writes the landmarks to B: the vertex and landmark counts, whether the
+     * two tables are the same, a padding int, the landmark vertices, and the
+     * float tables of distances from the landmarks and, if they differ, to them.
+     */
+    public void writeTo(ByteBuffer b) {
+        b.putInt(n);
+        b.putInt(landmarks.length);
+        b.putInt(from == to ? 1 : 0);
+        b.putInt(0);
+        for (int v : landmarks) {
+            b.putInt(v);
+        }
+        for (float d : from) {
+            b.putFloat(d);
+        }
+        if (from != to) {
+            for (float d : to) {
+                b.putFloat(d);
+            }
+        }
+    }
+
+    /** Reads the landmarks written by writeTo, advancing the position of B. */
+    public static Landmarks readFrom(ByteBuffer b) {
+        int n = b.getInt();
+        int k = b.getInt();
+        boolean symmetric = b.getInt() == 1;
+        b.getInt();
+        int[] landmarks = new int[k];
+        b.asIntBuffer().get(landmarks);
+        b.position(b.position() + 4 * k);
+        float[] from = new float[n * k];
+        b.asFloatBuffer().get(from);
+        b.position(b.position() + 4 * from.length);
+        float[] to = from;
+        if (!symmetric) {
+            to = new float[n * k];
+            b.asFloatBuffer().get(to);
+            b.position(b.position() + 4 * to.length);
+        }
+        return new Landmarks(n, landmarks, from, to);
+    }
+}
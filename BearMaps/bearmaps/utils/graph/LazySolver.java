@@ -19,17 +19,14 @@ public class LazySolver<Vertex> implements ShortestPathsSolver<Vertex> {
     /* ignores timeout since algorithm is so fast. */
     public LazySolver(AStarGraph<Vertex> G, Vertex start, Vertex goal, double timeout) {
         Stopwatch sw = new Stopwatch();
-        List<WeightedEdge<Vertex>> neighborEdges = G.neighbors(start);
-        for (WeightedEdge<Vertex> e : neighborEdges) {
-            if (e.to().equals(goal)) {
+        outcome = SolverOutcome.UNSOLVABLE;
+        G.forEachNeighbor(start, (to, weight) -> {
+            if (outcome != SolverOutcome.SOLVED && to.equals(goal)) {
                 solution = List.of(start, goal);
-                solutionWeight = e.weight();
+                solutionWeight = weight;
                 outcome = SolverOutcome.SOLVED;
-                timeSpent = sw.elapsedTime();
-                return;
             }
-        }
-        outcome = SolverOutcome.UNSOLVABLE;
+        });
         timeSpent = sw.elapsedTime();
     }
 
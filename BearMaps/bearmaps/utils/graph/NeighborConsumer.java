@@ -0,0 +1,10 @@
+package bearmaps.utils.graph;
+
+/**
+ * Callback for walking the outgoing edges of a vertex in an AStarGraph
+ * without building a list of them.
+ */
+@FunctionalInterface
+public interface NeighborConsumer<Vertex> {
+    void accept(Vertex to, double weight);
+}
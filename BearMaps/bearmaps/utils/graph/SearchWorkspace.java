@@ -0,0 +1,90 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IntMinHeap;
+import bearmaps.utils.pq.IntPriorityQueue;
+
+import java.util.Arrays;
+
+/**
+ * The per-vertex arrays an IntAStarSolver searches with: the best known
+ * distance to each vertex, the vertex it was reached from, and the fringe.
+ *
+ * A workspace is reused from search to search. Instead of clearing its
+ * arrays, which would cost time in the size of the graph however short the
+ * route, each search starts a new generation, and an entry counts only if it
+ * was written in the current one. A workspace is not thread safe; each
+ * thread gets its own from forCurrentThread().
+ */
+public class SearchWorkspace {
+    private static final ThreadLocal<SearchWorkspace> PER_THREAD =
+            ThreadLocal.withInitial(() -> new SearchWorkspace(0));
+
+    double[] dist;
+    int[] parent;
+    private int[] stamp;
+    private int generation = 1;
+    final IntPriorityQueue fringe;
+
+    /** Creates a workspace for graphs of up to VERTEXCOUNT vertices, with a 4-ary heap fringe. */
+    public SearchWorkspace(int vertexCount) {
+        this(vertexCount, new IntMinHeap(vertexCount));
+    }
+
+    /**
+     * Creates a workspace for graphs of up to VERTEXCOUNT vertices that keeps
+     * its fringe in FRINGE, for example a RadixHeap for searches whose
+     * priorities never decrease.
+     */
+    public SearchWorkspace(int vertexCount, IntPriorityQueue fringe) {
+        dist = new double[vertexCount];
+        parent = new int[vertexCount];
+        stamp = new int[vertexCount];
+        this.fringe = fringe;
+        fringe.ensureCapacity(vertexCount);
+    }
+
+    /** Returns this thread's workspace, grown to hold VERTEXCOUNT vertices. */
+    public static SearchWorkspace forCurrentThread(int vertexCount) {
+        SearchWorkspace workspace = PER_THREAD.get();
+        workspace.ensureCapacity(vertexCount);
+        return workspace;
+    }
+
+    /** Makes room for graphs of up to VERTEXCOUNT vertices. */
+    public void ensureCapacity(int vertexCount) {
+        if (vertexCount > dist.length) {
+            int capacity = Math.max(vertexCount, dist.length + dist.length / 2);
+            dist = Arrays.copyOf(dist, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            stamp = Arrays.copyOf(stamp, capacity);
+            fringe.ensureCapacity(capacity);
+        }
+    }
+
+    /** Forgets the previous search, in time independent of the graph size. */
+    void begin() {
+        generation += 1;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+        fringe.clear();
+    }
+
+    /** Returns true if V has been reached in the current search. */
+    boolean reached(int v) {
+        return stamp[v] == generation;
+    }
+
+    /** Records that V is reached at distance DISTANCE from PARENT. */
+    void reach(int v, double distance, int from) {
+        stamp[v] = generation;
+        dist[v] = distance;
+        parent[v] = from;
+    }
+
+    /** Returns the best known distance to V, or infinity if it is not reached. */
+    double distance(int v) {
+        return stamp[v] == generation ? dist[v] : Double.POSITIVE_INFINITY;
+    }
+}
@@ -12,4 +12,12 @@ public interface ShortestPathsSolver<Vertex> {
     double solutionWeight();
     int numStatesExplored();
     double explorationTime();
+
+    /**
+     * Returns the factor by which solutionWeight may at most exceed the
+     * length of a shortest path: 1 for a solver that finds shortest paths.
+     */
+    default double suboptimalityBound() {
+        return 1;
+    }
 }
@@ -0,0 +1,472 @@
+package bearmaps.utils.graph;
+
+import bearmaps.utils.pq.IntMinHeap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Transit-node routing on top of a ContractionHierarchy, which turns long
+ * queries into a few table lookups.
+ *
+ * The transit nodes are the highest-ranked vertices of the hierarchy. The
+ * upward search from a vertex, stopped at transit nodes, reaches a handful of
+ * them; those not dominated by another, through the table, are the vertex's
+ * access nodes. If the shortest path between s and t has a transit node as
+ * its peak, its length is the smallest d(s, a) + D(a, b) + d(b, t) over the
+ * access nodes a of s and b of t, where D is the precomputed table of
+ * distances between transit nodes. Every path between two transit nodes that
+ * rises and falls through the hierarchy stays among transit nodes, so the
+ * table comes from Dijkstra's algorithm on the hierarchy edges between them.
+ *
+ * The locality filter decides whether the peak might be an ordinary vertex,
+ * which then lies in the stopped upward searches of both s and t. Each vertex
+ * keeps a bitmask of the cells of a 16 by 16 grid over the map that its
+ * search touches outside the transit nodes. If the masks of s and t share no
+ * cell, the searches share no vertex and the table answer is exact; if they
+ * do, the query is local and is left to another solver. Nearby queries share
+ * cells and distant ones, the ones that gain most, do not.
+ */
+public class TransitNodeRouting {
+    private static final int GRID = 16;
+    private static final int CELL_WORDS = GRID * GRID / 64;
+
+    private final ContractionHierarchy ch;
+    private final int transitCount;
+    /** The transit node with each transit index, which is its rank less rankOffset. */
+    private final int[] transit;
+    private final int rankOffset;
+    /** D(i, j) is table[i * transitCount + j], by transit index. */
+    private final double[] table;
+    /** The transit index before j on the path from i, or -1 if j is i or unreachable. */
+    private final int[] tablePrev;
+    /** Access nodes of v, by transit index, are [accessOffsets[v], accessOffsets[v + 1]). */
+    private final int[] accessOffsets;
+    private final int[] accessNodes;
+    private final double[] accessDistances;
+    /** Grid cells touched by the search from v, as CELL_WORDS words from CELL_WORDS * v. */
+    private final long[] cells;
+
+    private TransitNodeRouting(ContractionHierarchy ch, int transitCount, double[] table,
+                               int[] tablePrev, int[] accessOffsets, int[] accessNodes,
+                               double[] accessDistances, long[] cells) {
+        this.ch = ch;
+        this.transitCount = transitCount;
+        this.table = table;
+        this.tablePrev = tablePrev;
+        this.accessOffsets = accessOffsets;
+        this.accessNodes = accessNodes;
+        this.accessDistances = accessDistances;
+        this.cells = cells;
+        int n = ch.vertexCount();
+        rankOffset = n - transitCount;
+        transit = new int[transitCount];
+        for (int v = 0; v < n; v++) {
+            if (ch.rank(v) >= rankOffset) {
+                transit[ch.rank(v) - rankOffset] = v;
+            }
+        }
+    }
+
+    /**
+     * Selects the TRANSITCOUNT highest-ranked vertices of CH as transit
+     * nodes and precomputes the table, the access nodes and the cell masks,
+     * with vertex V at longitude LONS[v] and latitude LATS[v]. The searches
+     * from each vertex run in parallel.
+     */
+    public static TransitNodeRouting build(ContractionHierarchy ch, double[] lons, double[] lats,
+                                           int transitCount) {
+        int n = ch.vertexCount();
+        int k = Math.min(transitCount, n);
+        TransitNodeRouting partial = new TransitNodeRouting(ch, k, new double[k * k],
+                new int[k * k], null, null, null, null);
+        int[][] core = partial.coreEdges();
+        double[][] coreWeights = partial.coreWeights(core);
+        IntStream.range(0, k).parallel().forEach(i -> partial.fillTableRow(i, core, coreWeights));
+
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < n; v++) {
+            minLon = Math.min(minLon, lons[v]);
+            maxLon = Math.max(maxLon, lons[v]);
+            minLat = Math.min(minLat, lats[v]);
+            maxLat = Math.max(maxLat, lats[v]);
+        }
+        int[] cellOf = new int[n];
+        for (int v = 0; v < n; v++) {
+            cellOf[v] = GRID * gridIndex(lats[v], minLat, maxLat)
+                    + gridIndex(lons[v], minLon, maxLon);
+        }
+
+        int[][] access = new int[n][];
+        double[][] distances = new double[n][];
+        long[] cells = new long[CELL_WORDS * n];
+        IntStream.range(0, n).parallel().forEach(v -> {
+            SearchWorkspace ws = SearchWorkspace.forCurrentThread(n);
+            int[] touched = partial.upward(v, ws);
+            int[] found = new int[touched[0]];
+            int count = 0;
+            for (int i = 1; i <= touched[0]; i++) {
+                int u = touched[i];
+                if (partial.transitIndex(u) >= 0) {
+                    found[count] = u;
+                    count += 1;
+                } else {
+                    cells[CELL_WORDS * v + cellOf[u] / 64] |= 1L << (cellOf[u] % 64);
+                }
+            }
+            partial.pruneAccess(v, Arrays.copyOf(found, count), ws, access, distances);
+        });
+
+        int[] accessOffsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            accessOffsets[v + 1] = accessOffsets[v] + access[v].length;
+        }
+        int[] accessNodes = new int[accessOffsets[n]];
+        double[] accessDistances = new double[accessOffsets[n]];
+        for (int v = 0; v < n; v++) {
+            System.arraycopy(access[v], 0, accessNodes, accessOffsets[v], access[v].length);
+            System.arraycopy(distances[v], 0, accessDistances, accessOffsets[v],
+                    access[v].length);
+        }
+        return new TransitNodeRouting(ch, k, partial.table, partial.tablePrev, accessOffsets,
+                accessNodes, accessDistances, cells);
+    }
+
+    private static int gridIndex(double x, double min, double max) {
+        int i = (int) ((x - min) / (max - min) * GRID);
+        return Math.max(0, Math.min(GRID - 1, i));
+    }
+
+    /*
+     * Returns, for each transit index, the transit indices it shares a
+     * hierarchy edge with, in either direction. Upward edges of a transit
+     * node always lead to transit nodes.
+     */
+    private int[][] coreEdges() {
+        int k = transitCount;
+        int[] degree = new int[k];
+        for (int a = 0; a < k; a++) {
+            int v = transit[a];
+            for (int e = ch.edgeBegin(v); e < ch.edgeEnd(v); e++) {
+                degree[a] += 1;
+                degree[transitIndex(ch.target(e))] += 1;
+            }
+        }
+        int[][] core = new int[k][];
+        for (int a = 0; a < k; a++) {
+            core[a] = new int[degree[a]];
+            degree[a] = 0;
+        }
+        for (int a = 0; a < k; a++) {
+            int v = transit[a];
+            for (int e = ch.edgeBegin(v); e < ch.edgeEnd(v); e++) {
+                int b = transitIndex(ch.target(e));
+                core[a][degree[a]++] = b;
+                core[b][degree[b]++] = a;
+            }
+        }
+        return core;
+    }
+
+    /* Returns the weights of the edges coreEdges() returned, in the same order. */
+    private double[][] coreWeights(int[][] core) {
+        int k = transitCount;
+        double[][] weights = new double[k][];
+        int[] degree = new int[k];
+        for (int a = 0; a < k; a++) {
+            weights[a] = new double[core[a].length];
+        }
+        for (int a = 0; a < k; a++) {
+            int v = transit[a];
+            for (int e = ch.edgeBegin(v); e < ch.edgeEnd(v); e++) {
+                int b = transitIndex(ch.target(e));
+                weights[a][degree[a]++] = ch.weight(e);
+                weights[b][degree[b]++] = ch.weight(e);
+            }
+        }
+        return weights;
+    }
+
+    /* Runs Dijkstra from transit index I over the CORE edges to fill row I of the table. */
+    private void fillTableRow(int i, int[][] core, double[][] coreWeights) {
+        int k = transitCount;
+        double[] dist = new double[k];
+        int[] prev = new int[k];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        Arrays.fill(prev, -1);
+        IntMinHeap fringe = new IntMinHeap(k);
+        dist[i] = 0;
+        fringe.insert(i, 0);
+        while (!fringe.isEmpty()) {
+            int a = fringe.poll();
+            for (int x = 0; x < core[a].length; x++) {
+                int b = core[a][x];
+                double d = dist[a] + coreWeights[a][x];
+                if (d < dist[b]) {
+                    dist[b] = d;
+                    prev[b] = a;
+                    if (fringe.contains(b)) {
+                        fringe.changePriority(b, d);
+                    } else {
+                        fringe.insert(b, d);
+                    }
+                }
+            }
+        }
+        System.arraycopy(dist, 0, table, i * k, k);
+        System.arraycopy(prev, 0, tablePrev, i * k, k);
+    }
+
+    /*
+     * Keeps the transit nodes in FOUND that no other one dominates, with the
+     * distances to them in WS, as the access nodes of V.
+     */
+    private void pruneAccess(int v, int[] found, SearchWorkspace ws, int[][] access,
+                             double[][] distances) {
+        Integer[] order = new Integer[found.length];
+        for (int i = 0; i < found.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(ws.dist[found[x]], ws.dist[found[y]]));
+        int[] kept = new int[found.length];
+        double[] keptDistances = new double[found.length];
+        int count = 0;
+        for (int i : order) {
+            int b = transitIndex(found[i]);
+            double d = ws.dist[found[i]];
+            boolean dominated = false;
+            for (int j = 0; j < count && !dominated; j++) {
+                dominated = keptDistances[j] + table[kept[j] * transitCount + b] <= d;
+            }
+            if (!dominated) {
+                kept[count] = b;
+                keptDistances[count] = d;
+                count += 1;
+            }
+        }
+        access[v] = Arrays.copyOf(kept, count);
+        distances[v] = Arrays.copyOf(keptDistances, count);
+    }
+
+    /*
+     * Searches upward from V in WS without going past transit nodes. Returns
+     * the number of vertices reached, followed by the vertices themselves.
+     */
+    private int[] upward(int v, SearchWorkspace ws) {
+        ws.begin();
+        ws.reach(v, 0, -1);
+        ws.fringe.insert(v, 0);
+        int[] touched = new int[16];
+        touched[1] = v;
+        int count = 1;
+        while (!ws.fringe.isEmpty()) {
+            int u = ws.fringe.poll();
+            if (transitIndex(u) >= 0) {
+                continue;
+            }
+            for (int e = ch.edgeBegin(u); e < ch.edgeEnd(u); e++) {
+                int w = ch.target(e);
+                double d = ws.dist[u] + ch.weight(e);
+                if (!ws.reached(w)) {
+                    if (count + 1 == touched.length) {
+                        touched = Arrays.copyOf(touched, 2 * touched.length);
+                    }
+                    count += 1;
+                    touched[count] = w;
+                    ws.reach(w, d, u);
+                    ws.fringe.insert(w, d);
+                } else if (d < ws.dist[w]) {
+                    ws.reach(w, d, u);
+                    ws.fringe.changePriority(w, d);
+                }
+            }
+        }
+        touched[0] = count;
+        return touched;
+    }
+
+    /* Returns the transit index of V, or -1 if it is not a transit node. */
+    private int transitIndex(int v) {
+        int r = ch.rank(v) - rankOffset;
+        return r >= 0 ? r : -1;
+    }
+
+    /** Returns the number of transit nodes. */
+    public int transitCount() {
+        return transitCount;
+    }
+
+    /** Returns the average number of access nodes per vertex. */
+    public double averageAccessCount() {
+        return (double) accessNodes.length / ch.vertexCount();
+    }
+
+    /** Returns true if the table may not hold the answer for a route from S to T. */
+    public boolean isLocal(int s, int t) {
+        for (int k = 0; k < CELL_WORDS; k++) {
+            if ((cells[CELL_WORDS * s + k] & cells[CELL_WORDS * t + k]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the length of the shortest path from S to T, infinity if there
+     * is none, or NaN if the query is local.
+     */
+    public double distance(int s, int t) {
+        if (isLocal(s, t)) {
+            return Double.NaN;
+        }
+        int[] pair = bestPair(s, t);
+        if (pair == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return accessDistances[pair[0]]
+                + table[accessNodes[pair[0]] * transitCount + accessNodes[pair[1]]]
+                + accessDistances[pair[1]];
+    }
+
+    /*
+     * Returns the positions in accessNodes of the access nodes of S and of T
+     * that the shortest path through the table goes through, or null if no
+     * pair is connected.
+     */
+    private int[] bestPair(int s, int t) {
+        double best = Double.POSITIVE_INFINITY;
+        int[] pair = null;
+        for (int i = accessOffsets[s]; i < accessOffsets[s + 1]; i++) {
+            for (int j = accessOffsets[t]; j < accessOffsets[t + 1]; j++) {
+                double d = accessDistances[i]
+                        + table[accessNodes[i] * transitCount + accessNodes[j]]
+                        + accessDistances[j];
+                if (d < best) {
+                    best = d;
+                    pair = new int[]{i, j};
+                }
+            }
+        }
+        return pair;
+    }
+
+    /**
+     * Returns the vertices of the shortest path from S to T in the original
+     * graph, an empty array if there is none, or null if the query is local.
+     * The path is rebuilt from the upward searches of S and T, which are
+     * repeated, and the predecessors kept with the table.
+     */
+    public int[] path(int s, int t) {
+        if (isLocal(s, t)) {
+            return null;
+        }
+        int[] pair = bestPair(s, t);
+        if (pair == null) {
+            return new int[0];
+        }
+        int a = accessNodes[pair[0]];
+        int b = accessNodes[pair[1]];
+        SearchWorkspace ws = SearchWorkspace.forCurrentThread(ch.vertexCount());
+        upward(s, ws);
+        int[] fromS = chain(ws, transit[a], s);
+        upward(t, ws);
+        int[] fromT = chain(ws, transit[b], t);
+
+        int coreLength = 0;
+        for (int x = b; x != a; x = tablePrev[a * transitCount + x]) {
+            coreLength += 1;
+        }
+        int[] hierarchyPath = new int[fromS.length + coreLength + fromT.length - 1];
+        /* fromS runs from transit[a] down to s, fromT from transit[b] down to t. */
+        for (int i = 0; i < fromS.length; i++) {
+            hierarchyPath[i] = fromS[fromS.length - 1 - i];
+        }
+        int x = b;
+        for (int i = fromS.length + coreLength - 1; i >= fromS.length; i--) {
+            hierarchyPath[i] = transit[x];
+            x = tablePrev[a * transitCount + x];
+        }
+        for (int i = 1; i < fromT.length; i++) {
+            hierarchyPath[fromS.length + coreLength + i - 1] = fromT[i];
+        }
+        return ch.unpack(hierarchyPath);
+    }
+
+    /* Returns the vertices from V back to ORIGIN along the parents in WS. */
+    private static int[] chain(SearchWorkspace ws, int v, int origin) {
+        int length = 1;
+        for (int u = v; u != origin; u = ws.parent[u]) {
+            length += 1;
+        }
+        int[] chain = new int[length];
+        for (int i = 0, u = v; i < length; i++, u = ws.parent[u]) {
+            chain[i] = u;
+        }
+        return chain;
+    }
+
+    /** Returns the number of bytes writeTo uses. */
+    public long bytes() {
+        long n = ch.vertexCount();
+        long k2 = (long) transitCount * transitCount;
+        long m = accessNodes.length;
+        return 16 + 8 * (k2 + m + CELL_WORDS * n) + 4 * (k2 + n + 1 + m);
+    }
+
+    /**
+     * Writes the table, access nodes and cell masks to B: the vertex,
+     * transit node and access node counts, then the 8-byte arrays table,
+     * access distances and cells, then the int arrays tablePrev, access
+     * offsets and access nodes.
+     */
+    public void writeTo(ByteBuffer b) {
+        b.putInt(ch.vertexCount());
+        b.putInt(transitCount);
+        b.putInt(accessNodes.length);
+        b.putInt(0);
+        for (double d : table) {
+            b.putDouble(d);
+        }
+        for (double d : accessDistances) {
+            b.putDouble(d);
+        }
+        for (long c : cells) {
+            b.putLong(c);
+        }
+        for (int[] a : new int[][]{tablePrev, accessOffsets, accessNodes}) {
+            for (int x : a) {
+                b.putInt(x);
+            }
+        }
+    }
+
+    /** Reads the routing index written by writeTo for CH, advancing the position of B. */
+    public static TransitNodeRouting readFrom(ByteBuffer b, ContractionHierarchy ch) {
+        int n = b.getInt();
+        int k = b.getInt();
+        int m = b.getInt();
+        b.getInt();
+        double[] table = new double[k * k];
+        b.asDoubleBuffer().get(table);
+        b.position(b.position() + 8 * table.length);
+        double[] accessDistances = new double[m];
+        b.asDoubleBuffer().get(accessDistances);
+        b.position(b.position() + 8 * m);
+        long[] cells = new long[CELL_WORDS * n];
+        b.asLongBuffer().get(cells);
+        b.position(b.position() + 8 * cells.length);
+        int[][] ints = new int[3][];
+        int[] lengths = {k * k, n + 1, m};
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = new int[lengths[i]];
+            b.asIntBuffer().get(ints[i]);
+            b.position(b.position() + 4 * lengths[i]);
+        }
+        return new TransitNodeRouting(ch, k, table, ints[0], ints[1], ints[2], accessDistances,
+                cells);
+    }
+}
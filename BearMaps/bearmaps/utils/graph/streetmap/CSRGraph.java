@@ -0,0 +1,445 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.EdgeConsumer;
+import bearmaps.utils.graph.IntAStarGraph;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed sparse row (CSR) representation of a street graph.
+ * Vertices are numbered densely from 0 to vertexCount() - 1, and the outgoing
+ * edges of vertex v occupy the index range [edgeBegin(v), edgeEnd(v)) of the
+ * parallel edge arrays. OSM ids are translated to and from vertex indices
+ * with indexOf and id.
+ *
+ * Vertices are numbered in the order of a Hilbert curve over their
+ * coordinates, so vertices that are close on the map are mostly close in
+ * memory too, and the edges of each vertex are sorted by target. A search,
+ * which expands outwards over nearby vertices, then touches far fewer cache
+ * lines than with vertices in OSM id order.
+ *
+ * Built once by StreetMapGraph after all nodes and ways have been read.
+ */
+public class CSRGraph implements IntAStarGraph {
+    /** OSM id of each vertex. */
+    private final long[] ids;
+    /** OSM ids in ascending order, and the vertex index of each, for lookups by id. */
+    private final long[] sortedIds;
+    private final int[] sortedIndex;
+
+    private final double[] lats;
+    private final double[] lons;
+    /** Name of each vertex, or null if it has none. */
+    private final String[] names;
+
+    /** Edges of vertex v are [offsets[v], offsets[v + 1]). */
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    /** Way name of each edge, as an index into wayNames. */
+    private final int[] edgeNames;
+    /** Distinct way names, each stored once however many edges share it. */
+    private final String[] wayNames;
+
+    /** Number of bits per axis of the grid vertices are placed on to order them. */
+    private static final int HILBERT_ORDER = 16;
+
+    private CSRGraph(long[] ids, double[] lats, double[] lons, String[] names,
+                     int[] offsets, int[] targets, double[] weights, int[] edgeNames,
+                     String[] wayNames) {
+        this(ids, ids.clone(), new int[ids.length], lats, lons, names,
+                offsets, targets, weights, edgeNames, wayNames);
+        Arrays.sort(sortedIds);
+        for (int v = 0; v < ids.length; v++) {
+            sortedIndex[Arrays.binarySearch(sortedIds, ids[v])] = v;
+        }
+    }
+
+    /** Wraps the given arrays without copying them. Used when loading a GraphSnapshot. */
+    CSRGraph(long[] ids, long[] sortedIds, int[] sortedIndex, double[] lats, double[] lons,
+             String[] names, int[] offsets, int[] targets, double[] weights,
+             int[] edgeNames, String[] wayNames) {
+        this.ids = ids;
+        this.sortedIds = sortedIds;
+        this.sortedIndex = sortedIndex;
+        this.lats = lats;
+        this.lons = lons;
+        this.names = names;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.edgeNames = edgeNames;
+        this.wayNames = wayNames;
+    }
+
+    /**
+     * Compiles the nodes and edges collected while parsing into a CSRGraph.
+     * Only nodes with at least one outgoing edge or a name are kept, and a
+     * repeated edge between the same two vertices is stored once, under the
+     * name of the first way that added it.
+     * @param nodeIds OSM ids of the parsed nodes, ascending.
+     * @param nodeLats Latitude of each parsed node.
+     * @param nodeLons Longitude of each parsed node.
+     * @param nodeNames Name of each parsed node, or null.
+     * @param from Index into nodeIds of the source of each edge.
+     * @param to Index into nodeIds of the target of each edge.
+     * @param wayIds Index into wayNames of the name of the way each edge
+     *               belongs to.
+     * @param wayNames Distinct way names.
+     * @param edgeCount Number of valid entries in from, to and wayIds.
+     */
+    static CSRGraph build(long[] nodeIds, double[] nodeLats, double[] nodeLons,
+                          String[] nodeNames, int[] from, int[] to, int[] wayIds,
+                          String[] wayNames, int edgeCount) {
+        int parsed = nodeIds.length;
+
+        /* Count outgoing edges per parsed node to decide which nodes survive. */
+        int[] outDegree = new int[parsed];
+        for (int e = 0; e < edgeCount; e++) {
+            outDegree[from[e]] += 1;
+        }
+        int[] vertexOf = new int[parsed];
+        int n = 0;
+        for (int i = 0; i < parsed; i++) {
+            if (outDegree[i] > 0 || nodeNames[i] != null) {
+                vertexOf[i] = n;
+                n += 1;
+            } else {
+                vertexOf[i] = -1;
+            }
+        }
+
+        long[] ids = new long[n];
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        String[] names = new String[n];
+        for (int i = 0; i < parsed; i++) {
+            int v = vertexOf[i];
+            if (v >= 0) {
+                ids[v] = nodeIds[i];
+                lats[v] = nodeLats[i];
+                lons[v] = nodeLons[i];
+                names[v] = nodeNames[i];
+            }
+        }
+
+        /* Bucket edges by source, keeping the order in which they were added. */
+        int[] bucket = new int[n + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            bucket[vertexOf[from[e]] + 1] += 1;
+        }
+        for (int v = 0; v < n; v++) {
+            bucket[v + 1] += bucket[v];
+        }
+        int[] order = new int[edgeCount];
+        int[] next = Arrays.copyOf(bucket, n);
+        for (int e = 0; e < edgeCount; e++) {
+            order[next[vertexOf[from[e]]]++] = e;
+        }
+
+        /* Copy edges into place, dropping repeats of an edge already seen. */
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[edgeCount];
+        double[] weights = new double[edgeCount];
+        int[] edgeNames = new int[edgeCount];
+        int m = 0;
+        for (int v = 0; v < n; v++) {
+            offsets[v] = m;
+            for (int k = bucket[v]; k < bucket[v + 1]; k++) {
+                int e = order[k];
+                int w = vertexOf[to[e]];
+                boolean repeat = false;
+                for (int j = offsets[v]; j < m; j++) {
+                    if (targets[j] == w) {
+                        repeat = true;
+                        break;
+                    }
+                }
+                if (repeat) {
+                    continue;
+                }
+                targets[m] = w;
+                weights[m] = StreetMapGraph.distance(lons[v], lons[w], lats[v], lats[w]);
+                edgeNames[m] = wayIds[e];
+                m += 1;
+            }
+        }
+        offsets[n] = m;
+
+        CSRGraph byId = new CSRGraph(ids, lats, lons, names, offsets,
+                Arrays.copyOf(targets, m), Arrays.copyOf(weights, m),
+                Arrays.copyOf(edgeNames, m), wayNames);
+        return byId.permute(byId.hilbertOrder());
+    }
+
+    /**
+     * Returns the vertices ordered along a Hilbert curve over the bounding box
+     * of their coordinates, with vertices in the same cell in index order.
+     */
+    public int[] hilbertOrder() {
+        int n = ids.length;
+        double minLon = Double.POSITIVE_INFINITY;
+        double maxLon = Double.NEGATIVE_INFINITY;
+        double minLat = Double.POSITIVE_INFINITY;
+        double maxLat = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < n; v++) {
+            minLon = Math.min(minLon, lons[v]);
+            maxLon = Math.max(maxLon, lons[v]);
+            minLat = Math.min(minLat, lats[v]);
+            maxLat = Math.max(maxLat, lats[v]);
+        }
+        int cells = 1 << HILBERT_ORDER;
+        double lonScale = (cells - 1) / Math.max(maxLon - minLon, 1e-12);
+        double latScale = (cells - 1) / Math.max(maxLat - minLat, 1e-12);
+
+        /* The curve position fits in 32 bits and the index in 31, so sort both as one long. */
+        long[] keys = new long[n];
+        for (int v = 0; v < n; v++) {
+            int x = (int) ((lons[v] - minLon) * lonScale);
+            int y = (int) ((lats[v] - minLat) * latScale);
+            keys[v] = hilbertIndex(x, y) << 31 | v;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) (keys[i] & Integer.MAX_VALUE);
+        }
+        return order;
+    }
+
+    /* Returns the position of cell (X, Y) along the Hilbert curve filling the grid. */
+    private static long hilbertIndex(int x, int y) {
+        int n = 1 << HILBERT_ORDER;
+        long d = 0;
+        for (int s = n >>> 1; s > 0; s >>>= 1) {
+            int rx = (x & s) != 0 ? 1 : 0;
+            int ry = (y & s) != 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            /* Rotate the quadrant so that the curve inside it has the standard orientation. */
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = n - 1 - x;
+                    y = n - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Returns a copy of this graph with its vertices renumbered so that vertex
+     * i of the copy is vertex ORDER[i] of this graph, and the edges of each
+     * vertex sorted by target.
+     */
+    public CSRGraph permute(int[] order) {
+        int n = ids.length;
+        int m = targets.length;
+        int[] newIndex = new int[n];
+        for (int i = 0; i < n; i++) {
+            newIndex[order[i]] = i;
+        }
+
+        long[] newIds = new long[n];
+        double[] newLats = new double[n];
+        double[] newLons = new double[n];
+        String[] newNames = new String[n];
+        int[] newOffsets = new int[n + 1];
+        int[] newTargets = new int[m];
+        double[] newWeights = new double[m];
+        int[] newEdgeNames = new int[m];
+        long[] edgeKeys = new long[0];
+        int e = 0;
+        for (int i = 0; i < n; i++) {
+            int v = order[i];
+            newIds[i] = ids[v];
+            newLats[i] = lats[v];
+            newLons[i] = lons[v];
+            newNames[i] = names[v];
+            newOffsets[i] = e;
+
+            /* Sort the edges by new target, carrying the old edge index in the low bits. */
+            int degree = degree(v);
+            if (edgeKeys.length < degree) {
+                edgeKeys = new long[degree];
+            }
+            for (int k = 0; k < degree; k++) {
+                int old = offsets[v] + k;
+                edgeKeys[k] = (long) newIndex[targets[old]] << 32 | old;
+            }
+            Arrays.sort(edgeKeys, 0, degree);
+            for (int k = 0; k < degree; k++) {
+                int old = (int) edgeKeys[k];
+                newTargets[e] = (int) (edgeKeys[k] >>> 32);
+                newWeights[e] = weights[old];
+                newEdgeNames[e] = edgeNames[old];
+                e += 1;
+            }
+        }
+        newOffsets[n] = m;
+
+        int[] newSortedIndex = new int[n];
+        for (int i = 0; i < n; i++) {
+            newSortedIndex[i] = newIndex[sortedIndex[i]];
+        }
+        return new CSRGraph(newIds, sortedIds, newSortedIndex, newLats, newLons, newNames,
+                newOffsets, newTargets, newWeights, newEdgeNames, wayNames);
+    }
+
+    /**
+     * Returns a graph with the same vertices and edges as this one but the
+     * given edge WEIGHTS, indexed like weight(e). Everything but the weights
+     * is shared with this graph rather than copied.
+     */
+    public CSRGraph withWeights(double[] weights) {
+        return new CSRGraph(ids, sortedIds, sortedIndex, lats, lons, names, offsets, targets,
+                weights, edgeNames, wayNames);
+    }
+
+    /** Returns the number of vertices. */
+    @Override
+    public int vertexCount() {
+        return ids.length;
+    }
+
+    /** Returns the number of directed edges. */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /** Returns the vertex index of the node with OSM id ID, or -1 if there is none. */
+    public int indexOf(long id) {
+        int i = Arrays.binarySearch(sortedIds, id);
+        if (i < 0) {
+            return -1;
+        }
+        return sortedIndex[i];
+    }
+
+    /** Copies the ascending OSM ids, and the vertex index of each, into IDS and INDEX. */
+    void sortedIdIndex(long[] ids, int[] index) {
+        System.arraycopy(sortedIds, 0, ids, 0, sortedIds.length);
+        System.arraycopy(sortedIndex, 0, index, 0, sortedIndex.length);
+    }
+
+    /** Returns the OSM id of vertex V. */
+    public long id(int v) {
+        return ids[v];
+    }
+
+    public double lat(int v) {
+        return lats[v];
+    }
+
+    public double lon(int v) {
+        return lons[v];
+    }
+
+    /** Returns the name of vertex V, or null if it has none. */
+    public String name(int v) {
+        return names[v];
+    }
+
+    /** Returns the number of outgoing edges of V. */
+    public int degree(int v) {
+        return offsets[v + 1] - offsets[v];
+    }
+
+    /** Returns the index of the first outgoing edge of V. */
+    public int edgeBegin(int v) {
+        return offsets[v];
+    }
+
+    /** Returns one past the index of the last outgoing edge of V. */
+    public int edgeEnd(int v) {
+        return offsets[v + 1];
+    }
+
+    /** Returns the vertex edge E points to. */
+    public int target(int e) {
+        return targets[e];
+    }
+
+    public double weight(int e) {
+        return weights[e];
+    }
+
+    /** Returns the name of the way edge E belongs to. */
+    public String edgeName(int e) {
+        return wayNames[edgeNames[e]];
+    }
+
+    /**
+     * Returns the id of the name of the way edge E belongs to. Two edges are
+     * on ways with the same name exactly when their name ids are equal.
+     */
+    public int edgeNameId(int e) {
+        return edgeNames[e];
+    }
+
+    /** Returns the way name with the given ID. */
+    public String wayName(int id) {
+        return wayNames[id];
+    }
+
+    /** Returns the number of distinct way names. */
+    public int wayNameCount() {
+        return wayNames.length;
+    }
+
+    /** Returns the edge from V to W, or -1 if there is none. */
+    public int findEdge(int v, int w) {
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            if (targets[e] == w) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the great-circle distance between vertices V and W. */
+    public double distance(int v, int w) {
+        return StreetMapGraph.distance(lons[v], lons[w], lats[v], lats[w]);
+    }
+
+    @Override
+    public void forEachNeighbor(int v, EdgeConsumer c) {
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            c.accept(e, targets[e], weights[e]);
+        }
+    }
+
+    /**
+     * Returns a view of this graph with every edge reversed, for searches
+     * backward from a goal. Every edge has a reverse edge here, so the view
+     * has the same adjacency, but the edge from V to W carries the weight of
+     * the edge from W to V, which differs once one direction is reweighted.
+     */
+    public IntAStarGraph reversed() {
+        return new IntAStarGraph() {
+            @Override
+            public int vertexCount() {
+                return CSRGraph.this.vertexCount();
+            }
+
+            @Override
+            public void forEachNeighbor(int v, EdgeConsumer c) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    c.accept(e, targets[e], weights[findEdge(targets[e], v)]);
+                }
+            }
+
+            @Override
+            public double estimatedDistanceToGoal(int s, int goal) {
+                return distance(s, goal);
+            }
+        };
+    }
+
+    @Override
+    public double estimatedDistanceToGoal(int s, int goal) {
+        return distance(s, goal);
+    }
+}
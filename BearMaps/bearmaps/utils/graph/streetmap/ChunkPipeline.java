@@ -0,0 +1,85 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The stages shared by the parallel OSM readers. A producer thread cuts the
+ * input into pieces and submits a decoding task for each; the tasks run on a
+ * pool of worker threads; and the calling thread adds the decoded chunks to
+ * the graph in the order they were submitted. At most 2 * threads chunks are
+ * in flight at once, so the producer blocks when the consumer falls behind.
+ */
+class ChunkPipeline {
+
+    /** Cuts the input into decoding tasks. Runs on its own thread. */
+    interface Producer {
+        void produce(ChunkPipeline pipeline) throws IOException, InterruptedException;
+    }
+
+    private final ExecutorService workers;
+    private final BlockingQueue<Future<OSMChunk>> decoded;
+
+    private ChunkPipeline(int threads) {
+        workers = Executors.newFixedThreadPool(threads);
+        decoded = new ArrayBlockingQueue<>(2 * threads);
+    }
+
+    /** Queues TASK, blocking while too many chunks are waiting to be added. */
+    void submit(Callable<OSMChunk> task) throws InterruptedException {
+        decoded.put(workers.submit(task));
+    }
+
+    /**
+     * Runs PRODUCER with THREADS workers and adds every chunk it produces to
+     * G, in order.
+     */
+    static void run(String name, Producer producer, int threads, StreetMapGraph g)
+            throws IOException {
+        ChunkPipeline pipeline = new ChunkPipeline(threads);
+        Thread thread = new Thread(() -> pipeline.produce(producer), name);
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            while (true) {
+                OSMChunk chunk = pipeline.decoded.take().get();
+                if (chunk == null) {
+                    break;
+                }
+                chunk.addTo(g);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + name, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read " + name, e.getCause());
+        } finally {
+            thread.interrupt();
+            pipeline.workers.shutdownNow();
+        }
+    }
+
+    /* Runs the producer, then queues an end marker, or the failure if it failed. */
+    private void produce(Producer producer) {
+        try {
+            producer.produce(this);
+            submit(() -> null);
+        } catch (IOException e) {
+            try {
+                submit(() -> {
+                    throw e;
+                });
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,526 @@
+package bearmaps.utils.graph.streetmap;
+
+import bearmaps.utils.graph.AStarGraph;
+import bearmaps.utils.graph.EdgeConsumer;
+import bearmaps.utils.graph.IntAStarGraph;
+import bearmaps.utils.graph.NeighborConsumer;
+import bearmaps.utils.graph.WeightedEdge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A routing view of a CSRGraph in which every chain of degree-2 vertices is
+ * collapsed into a single shortcut edge. Most vertices of a street graph are
+ * shape points along a way with exactly two neighbors, so searching the
+ * contracted graph settles far fewer vertices than searching the full one.
+ *
+ * Vertices with a degree other than 2 are core vertices and keep their CSR
+ * index. Each shortcut runs from one core vertex to another, carries the sum
+ * of the weights along its chain, and stores the chain's interior vertices
+ * so that paths can be expanded back into the full graph. Interior vertices
+ * have no edges of their own here; a search starting or ending at one goes
+ * through a Query, which adds edges from the start, and into the goal, along
+ * their chains.
+ *
+ * A ContractedGraph is immutable. When edge weights change at runtime, an
+ * EdgeWeightOverlay derives a new one with the next version number.
+ */
+public class ContractedGraph {
+    private final CSRGraph g;
+    private final long version;
+    /** Number of edges of g whose weight differs from the one the graph was built with. */
+    private final int changedEdges;
+
+    /** Shortcuts of core vertex v are [offsets[v], offsets[v + 1]); none for others. */
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    /** Interior vertices of shortcut s are via[viaOffsets[s]] to via[viaOffsets[s + 1] - 1]. */
+    private final int[] viaOffsets;
+    private final int[] via;
+    /** The shortcut that runs along the same chain as shortcut s, in the other direction. */
+    private final int[] twin;
+
+    /** For an interior vertex, a shortcut through it and its index in that shortcut's via. */
+    private final int[] chainOf;
+    private final int[] chainPos;
+
+    private ContractedGraph(CSRGraph g, long version, int changedEdges, int[] offsets,
+                            int[] targets, double[] weights, int[] viaOffsets, int[] via,
+                            int[] twin, int[] chainOf, int[] chainPos) {
+        this.g = g;
+        this.version = version;
+        this.changedEdges = changedEdges;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.viaOffsets = viaOffsets;
+        this.via = via;
+        this.twin = twin;
+        this.chainOf = chainOf;
+        this.chainPos = chainPos;
+    }
+
+    /** Contracts the degree-2 chains of G. Assumes every edge of G has a reverse edge. */
+    public static ContractedGraph build(CSRGraph g) {
+        int n = g.vertexCount();
+        boolean[] core = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            core[v] = g.degree(v) != 2 || g.target(g.edgeBegin(v)) == v
+                    || g.target(g.edgeBegin(v) + 1) == v;
+        }
+        /* A cycle made only of degree-2 vertices has no core vertex to start from; add one. */
+        boolean[] seen = new boolean[n];
+        for (int v = 0; v < n; v++) {
+            if (core[v]) {
+                for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                    markChain(g, core, seen, v, g.target(e));
+                }
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            if (!core[v] && !seen[v]) {
+                core[v] = true;
+                markChain(g, core, seen, v, g.target(g.edgeBegin(v)));
+            }
+        }
+
+        int[] offsets = new int[n + 1];
+        int[] targets = new int[16];
+        double[] weights = new double[16];
+        int[] viaOffsets = new int[17];
+        int[] via = new int[16];
+        int[] chainOf = new int[n];
+        int[] chainPos = new int[n];
+        Arrays.fill(chainOf, -1);
+        int m = 0;
+        int viaCount = 0;
+        for (int v = 0; v < n; v++) {
+            offsets[v] = m;
+            if (!core[v]) {
+                continue;
+            }
+            for (int e = g.edgeBegin(v); e < g.edgeEnd(v); e++) {
+                if (m == targets.length) {
+                    targets = Arrays.copyOf(targets, 2 * m);
+                    weights = Arrays.copyOf(weights, 2 * m);
+                    viaOffsets = Arrays.copyOf(viaOffsets, 2 * m + 1);
+                }
+                int prev = v;
+                int curr = g.target(e);
+                double weight = g.weight(e);
+                while (!core[curr]) {
+                    if (viaCount == via.length) {
+                        via = Arrays.copyOf(via, 2 * viaCount);
+                    }
+                    if (chainOf[curr] < 0) {
+                        chainOf[curr] = m;
+                        chainPos[curr] = viaCount - viaOffsets[m];
+                    }
+                    via[viaCount] = curr;
+                    viaCount += 1;
+                    int next = otherEdge(g, curr, prev);
+                    weight += g.weight(next);
+                    prev = curr;
+                    curr = g.target(next);
+                }
+                targets[m] = curr;
+                weights[m] = weight;
+                m += 1;
+                viaOffsets[m] = viaCount;
+            }
+        }
+        offsets[n] = m;
+        targets = Arrays.copyOf(targets, m);
+        viaOffsets = Arrays.copyOf(viaOffsets, m + 1);
+        via = Arrays.copyOf(via, viaCount);
+        return new ContractedGraph(g, 0, 0, offsets, targets, Arrays.copyOf(weights, m),
+                viaOffsets, via, twins(offsets, targets, viaOffsets, via), chainOf, chainPos);
+    }
+
+    /*
+     * Pairs each shortcut with the one along the same chain in the other
+     * direction: the shortcut from its target back to its source whose via
+     * starts where its via ends. Direct edges have no via, so the k-th direct
+     * edge from v to w is paired with the k-th from w to v. Every shortcut
+     * has a twin, since the graph has every edge in both directions.
+     * @throws IllegalStateException If a shortcut has no twin.
+     */
+    private static int[] twins(int[] offsets, int[] targets, int[] viaOffsets, int[] via) {
+        int[] twin = new int[targets.length];
+        Arrays.fill(twin, -1);
+        for (int v = 0; v + 1 < offsets.length; v++) {
+            for (int s = offsets[v]; s < offsets[v + 1]; s++) {
+                int w = targets[s];
+                boolean direct = viaOffsets[s] == viaOffsets[s + 1];
+                int rank = 0;
+                for (int r = offsets[v]; r < s && direct; r++) {
+                    if (targets[r] == w && viaOffsets[r] == viaOffsets[r + 1]) {
+                        rank += 1;
+                    }
+                }
+                for (int r = offsets[w]; r < offsets[w + 1]; r++) {
+                    if (targets[r] != v || (viaOffsets[r] == viaOffsets[r + 1]) != direct) {
+                        continue;
+                    }
+                    if (direct ? rank-- == 0 : via[viaOffsets[r]] == via[viaOffsets[s + 1] - 1]) {
+                        twin[s] = r;
+                        break;
+                    }
+                }
+                if (twin[s] < 0) {
+                    throw new IllegalStateException("No shortcut back from " + w + " to " + v
+                            + " along the chain of shortcut " + s);
+                }
+            }
+        }
+        return twin;
+    }
+
+    /* Marks the interior vertices of the chain leaving core vertex FROM through FIRST. */
+    private static void markChain(CSRGraph g, boolean[] core, boolean[] seen, int from,
+                                  int first) {
+        int prev = from;
+        int curr = first;
+        while (!core[curr] && !seen[curr]) {
+            seen[curr] = true;
+            int next = g.target(otherEdge(g, curr, prev));
+            prev = curr;
+            curr = next;
+        }
+    }
+
+    /* Returns the edge of degree-2 vertex V that does not lead back to PREV. */
+    private static int otherEdge(CSRGraph g, int v, int prev) {
+        int e = g.edgeBegin(v);
+        return g.target(e) != prev ? e : e + 1;
+    }
+
+    /**
+     * Returns the contracted view of WEIGHTED, which must have the same
+     * vertices and edges as the graph this was built from, with the given
+     * VERSION, in which CHANGEDEDGES edges have weights other than the built
+     * ones. Only the shortcut weights are recomputed.
+     */
+    ContractedGraph withGraph(CSRGraph weighted, long version, int changedEdges) {
+        double[] newWeights = new double[targets.length];
+        for (int v = 0; v + 1 < offsets.length; v++) {
+            for (int s = offsets[v]; s < offsets[v + 1]; s++) {
+                int prev = v;
+                double weight = 0;
+                for (int k = viaOffsets[s]; k < viaOffsets[s + 1]; k++) {
+                    weight += weighted.weight(weighted.findEdge(prev, via[k]));
+                    prev = via[k];
+                }
+                newWeights[s] = weight + weighted.weight(weighted.findEdge(prev, targets[s]));
+            }
+        }
+        return new ContractedGraph(weighted, version, changedEdges, offsets, targets, newWeights,
+                viaOffsets, via, twin, chainOf, chainPos);
+    }
+
+    /** Returns the graph this is a view of, with the edge weights of this version. */
+    public CSRGraph graph() {
+        return g;
+    }
+
+    /** Returns the version of the edge weights, 0 for the weights the graph was built with. */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Returns the number of edges whose weight in this version differs from
+     * the built one. While it is 0, routes found with structures built from
+     * the built weights, such as a contraction hierarchy, are still exact.
+     */
+    public int changedEdgeCount() {
+        return changedEdges;
+    }
+
+    /** Returns the number of shortcut edges, counting direct edges between core vertices. */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /** Returns true if V keeps its edges in the contracted graph. */
+    public boolean isCore(int v) {
+        return chainOf[v] < 0;
+    }
+
+    /** Returns a search graph for a route from vertex SRC to vertex DST of the CSRGraph. */
+    public Query query(long src, long dst) {
+        return new Query(g.indexOf(src), g.indexOf(dst));
+    }
+
+    /* Returns the weight of the part of shortcut S from via index FROM to via index TO. */
+    private double partialWeight(int s, int from, int to) {
+        double weight = 0;
+        int step = from < to ? 1 : -1;
+        for (int k = from; k != to; k += step) {
+            weight += g.weight(g.findEdge(vertexAt(s, k), vertexAt(s, k + step)));
+        }
+        return weight;
+    }
+
+    /* Returns the vertex at via index K of shortcut S, where -1 is its source and its
+     * via length is its target. */
+    private int vertexAt(int s, int k) {
+        int length = viaOffsets[s + 1] - viaOffsets[s];
+        if (k < 0) {
+            return source(s);
+        } else if (k >= length) {
+            return targets[s];
+        }
+        return via[viaOffsets[s] + k];
+    }
+
+    /* Returns the core vertex shortcut S leaves from. */
+    private int source(int s) {
+        int lo = 0;
+        int hi = offsets.length - 1;
+        /* Largest v with offsets[v] <= s. */
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= s) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * The contracted graph as seen by one search. Its vertices can be named
+     * either by OSM id, for an AStarSolver, or by CSR index, for an
+     * IntAStarSolver. If the start is an interior vertex it gets edges to
+     * both ends of its chain, and if the goal is one, both ends of its chain
+     * get an edge to it; if the two share a chain, the start also gets an
+     * edge straight to the goal. Through IntAStarGraph, shortcut edges are
+     * numbered by shortcut and these added edges by -1.
+     */
+    public class Query implements AStarGraph<Long>, IntAStarGraph {
+        private final int src;
+        private final int dst;
+        /* Chain ends reachable from src, and the weights to them. */
+        private final int[] srcEnds = new int[3];
+        private final double[] srcWeights = new double[3];
+        private int srcEndCount;
+        /* Chain ends that reach dst, and the weights from them. */
+        private final int[] dstEnds = new int[2];
+        private final double[] dstWeights = new double[2];
+        private int dstEndCount;
+
+        private Query(int src, int dst) {
+            this.src = src;
+            this.dst = dst;
+            if (src >= 0 && !isCore(src)) {
+                int s = chainOf[src];
+                int length = viaOffsets[s + 1] - viaOffsets[s];
+                addSrcEnd(source(s), partialWeight(s, chainPos[src], -1));
+                addSrcEnd(targets[s], partialWeight(s, chainPos[src], length));
+                if (dst >= 0 && !isCore(dst) && chainOf[dst] == s) {
+                    addSrcEnd(dst, partialWeight(s, chainPos[src], chainPos[dst]));
+                }
+            }
+            if (dst >= 0 && !isCore(dst)) {
+                int s = chainOf[dst];
+                int length = viaOffsets[s + 1] - viaOffsets[s];
+                dstEnds[0] = source(s);
+                dstWeights[0] = partialWeight(s, -1, chainPos[dst]);
+                dstEnds[1] = targets[s];
+                dstWeights[1] = partialWeight(s, length, chainPos[dst]);
+                dstEndCount = 2;
+            }
+        }
+
+        private void addSrcEnd(int v, double weight) {
+            srcEnds[srcEndCount] = v;
+            srcWeights[srcEndCount] = weight;
+            srcEndCount += 1;
+        }
+
+        @Override
+        public List<WeightedEdge<Long>> neighbors(Long v) {
+            List<WeightedEdge<Long>> edges = new ArrayList<>();
+            forEachNeighbor(v, (to, weight) -> edges.add(new WeightedEdge<>(v, to, weight)));
+            return edges;
+        }
+
+        @Override
+        public void forEachNeighbor(Long v, NeighborConsumer<Long> c) {
+            forEachNeighbor(g.indexOf(v), (edge, to, weight) -> c.accept(g.id(to), weight));
+        }
+
+        @Override
+        public double estimatedDistanceToGoal(Long s, Long goal) {
+            return g.distance(g.indexOf(s), g.indexOf(goal));
+        }
+
+        /** Returns the CSR index of the start vertex, or -1 if it is not in the graph. */
+        public int start() {
+            return src;
+        }
+
+        /** Returns the CSR index of the goal vertex, or -1 if it is not in the graph. */
+        public int goal() {
+            return dst;
+        }
+
+        /**
+         * Returns this graph with every edge reversed, with vertices named by
+         * OSM id, for the backward half of a bidirectional search from the
+         * goal. The reverse of a shortcut carries the weight of its twin, so
+         * the view is right even when weights differ by direction.
+         */
+        public AStarGraph<Long> reversed() {
+            return new AStarGraph<Long>() {
+                @Override
+                public List<WeightedEdge<Long>> neighbors(Long v) {
+                    List<WeightedEdge<Long>> edges = new ArrayList<>();
+                    forEachNeighbor(v, (to, weight) -> edges.add(new WeightedEdge<>(v, to, weight)));
+                    return edges;
+                }
+
+                @Override
+                public void forEachNeighbor(Long v, NeighborConsumer<Long> c) {
+                    int i = g.indexOf(v);
+                    for (int s = offsets[i]; s < offsets[i + 1]; s++) {
+                        c.accept(g.id(targets[s]), weights[twin[s]]);
+                    }
+                    for (int k = 0; k < srcEndCount; k++) {
+                        if (srcEnds[k] == i) {
+                            c.accept(g.id(src), srcWeights[k]);
+                        }
+                    }
+                    if (i == dst) {
+                        for (int k = 0; k < dstEndCount; k++) {
+                            c.accept(g.id(dstEnds[k]), dstWeights[k]);
+                        }
+                    }
+                }
+
+                @Override
+                public double estimatedDistanceToGoal(Long s, Long goal) {
+                    return g.distance(g.indexOf(s), g.indexOf(goal));
+                }
+            };
+        }
+
+        @Override
+        public int vertexCount() {
+            return g.vertexCount();
+        }
+
+        @Override
+        public void forEachNeighbor(int v, EdgeConsumer c) {
+            if (v == src && srcEndCount > 0) {
+                for (int k = 0; k < srcEndCount; k++) {
+                    c.accept(-1, srcEnds[k], srcWeights[k]);
+                }
+                return;
+            }
+            for (int s = offsets[v]; s < offsets[v + 1]; s++) {
+                c.accept(s, targets[s], weights[s]);
+            }
+            for (int k = 0; k < dstEndCount; k++) {
+                if (dstEnds[k] == v) {
+                    c.accept(-1, dst, dstWeights[k]);
+                }
+            }
+        }
+
+        @Override
+        public double estimatedDistanceToGoal(int s, int goal) {
+            return g.distance(s, goal);
+        }
+
+        /**
+         * Expands PATH, a list of OSM ids found by searching this graph, into
+         * the full list of vertices it passes through in the CSRGraph.
+         */
+        public List<Long> expand(List<Long> path) {
+            List<Long> full = new ArrayList<>(path.size());
+            int prev = -1;
+            for (long id : path) {
+                int v = g.indexOf(id);
+                if (prev >= 0) {
+                    appendBetween(prev, v, full);
+                }
+                full.add(id);
+                prev = v;
+            }
+            return full;
+        }
+
+        /**
+         * Expands PATH, a list of CSR indices found by searching this graph,
+         * into the OSM ids of every vertex it passes through in the CSRGraph.
+         */
+        public List<Long> expand(int[] path) {
+            List<Long> full = new ArrayList<>(path.length);
+            for (int i = 0; i < path.length; i++) {
+                if (i > 0) {
+                    appendBetween(path[i - 1], path[i], full);
+                }
+                full.add(g.id(path[i]));
+            }
+            return full;
+        }
+
+        /*
+         * Appends the ids of the vertices strictly between V and W on the edge
+         * the search used from V. Where there are parallel edges from V to W,
+         * relaxation keeps the first of the lightest, so that is the one used.
+         */
+        private void appendBetween(int v, int w, List<Long> full) {
+            if (v == src && srcEndCount > 0) {
+                /* srcEnds are the chain's source, its target, and then possibly dst. */
+                int s = chainOf[src];
+                int k = lightest(srcEnds, srcWeights, srcEndCount, w);
+                int to = k == 0 ? -1 : k == 1 ? viaOffsets[s + 1] - viaOffsets[s] : chainPos[dst];
+                appendRange(s, chainPos[src], to, full);
+                return;
+            }
+            if (w == dst && dstEndCount > 0) {
+                /* dstEnds are the chain's source and its target. */
+                int s = chainOf[dst];
+                int k = lightest(dstEnds, dstWeights, dstEndCount, v);
+                int from = k == 0 ? -1 : viaOffsets[s + 1] - viaOffsets[s];
+                appendRange(s, from, chainPos[dst], full);
+                return;
+            }
+            int best = -1;
+            for (int s = offsets[v]; s < offsets[v + 1]; s++) {
+                if (targets[s] == w && (best < 0 || weights[s] < weights[best])) {
+                    best = s;
+                }
+            }
+            for (int k = viaOffsets[best]; k < viaOffsets[best + 1]; k++) {
+                full.add(g.id(via[k]));
+            }
+        }
+
+        /* Returns the first index k with ENDS[k] == V and the smallest WEIGHTS[k]. */
+        private int lightest(int[] ends, double[] weights, int count, int v) {
+            int best = -1;
+            for (int k = 0; k < count; k++) {
+                if (ends[k] == v && (best < 0 || weights[k] < weights[best])) {
+                    best = k;
+                }
+            }
+            return best;
+        }
+
+        /* Appends the ids at via indices strictly between FROM and TO of shortcut S. */
+        private void appendRange(int s, int from, int to, List<Long> full) {
+            int step = from < to ? 1 : -1;
+            for (int k = from + step; k != to; k += step) {
+                full.add(g.id(vertexAt(s, k)));
+            }
+        }
+    }
+}
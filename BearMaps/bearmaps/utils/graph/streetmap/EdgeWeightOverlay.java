@@ -0,0 +1,140 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runtime changes to the edge weights of a routing graph, such as closing a
+ * street for a festival or slowing traffic through construction, without
+ * reloading the graph.
+ *
+ * Each change is kept as a factor on the weight the edge was built with. A
+ * change builds a complete new version of the routing graph, with its own
+ * weight array and shortcut weights, and publishes it with a single atomic
+ * write. Readers take the current version with current() and use it for the
+ * whole of a search, so a search sees either all of a change or none of it,
+ * and never waits for a writer. Writers are serialized among themselves.
+ */
+public class EdgeWeightOverlay {
+    private final ContractedGraph base;
+    private final AtomicReference<ContractedGraph> current;
+    /** Factor on the base weight of each changed edge. Guarded by this. */
+    private final Map<Integer, Double> factors = new HashMap<>();
+    private final List<Consumer<ContractedGraph>> listeners = new CopyOnWriteArrayList<>();
+
+    public EdgeWeightOverlay(ContractedGraph base) {
+        this.base = base;
+        this.current = new AtomicReference<>(base);
+    }
+
+    /** Returns the latest version of the routing graph. Never blocks. */
+    public ContractedGraph current() {
+        return current.get();
+    }
+
+    /** Returns the version number of current(). */
+    public long version() {
+        return current.get().version();
+    }
+
+    /**
+     * Registers LISTENER to be called with each new version of the routing
+     * graph after it is published, on the thread that made the change.
+     */
+    public void addListener(Consumer<ContractedGraph> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Multiplies the built weight of each edge between consecutive nodes of
+     * PATH, a list of OSM ids, by FACTOR, replacing any earlier change to
+     * those edges. Edges in both directions are changed if BOTHDIRECTIONS is
+     * set, skipping any edge that has none back. A FACTOR of 1 restores the
+     * built weight and an infinite one closes the edge. Factors below 1 are
+     * not allowed, since they would make the straight-line distance
+     * overestimate the remaining cost and A* could then return routes that
+     * are not the shortest.
+     * @return The number of edges changed.
+     * @throws IllegalArgumentException If FACTOR is below 1 or NaN, or if two
+     * consecutive nodes of PATH are not joined by an edge.
+     */
+    public synchronized int scale(long[] path, double factor, boolean bothDirections) {
+        if (!(factor >= 1)) {
+            throw new IllegalArgumentException("Weight factor must be at least 1: " + factor);
+        }
+        CSRGraph g = base.graph();
+        int[] edges = new int[2 * Math.max(path.length - 1, 0)];
+        int count = 0;
+        for (int i = 0; i + 1 < path.length; i++) {
+            int v = g.indexOf(path[i]);
+            int w = g.indexOf(path[i + 1]);
+            int forward = v < 0 || w < 0 ? -1 : g.findEdge(v, w);
+            if (forward < 0) {
+                throw new IllegalArgumentException("No edge from " + path[i] + " to "
+                        + path[i + 1]);
+            }
+            edges[count] = forward;
+            count += 1;
+            int backward = bothDirections ? g.findEdge(w, v) : -1;
+            if (backward >= 0) {
+                edges[count] = backward;
+                count += 1;
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            if (factor == 1) {
+                factors.remove(edges[k]);
+            } else {
+                factors.put(edges[k], factor);
+            }
+        }
+        publish();
+        return count;
+    }
+
+    /** Closes the edges between consecutive nodes of PATH, in both directions. */
+    public int close(long[] path) {
+        return scale(path, Double.POSITIVE_INFINITY, true);
+    }
+
+    /** Restores the built weights of the edges between consecutive nodes of PATH. */
+    public int open(long[] path) {
+        return scale(path, 1, true);
+    }
+
+    /** Undoes every change, publishing a new version with the built weights. */
+    public synchronized void reset() {
+        factors.clear();
+        publish();
+    }
+
+    /**
+     * Returns the number of edges whose weight in current() differs from the
+     * built one. Never blocks.
+     */
+    public int changedEdgeCount() {
+        return current.get().changedEdgeCount();
+    }
+
+    /* Builds the next version from the factors and makes it current. */
+    private void publish() {
+        CSRGraph g = base.graph();
+        double[] weights = new double[g.edgeCount()];
+        for (int e = 0; e < weights.length; e++) {
+            weights[e] = g.weight(e);
+        }
+        for (Map.Entry<Integer, Double> change : factors.entrySet()) {
+            weights[change.getKey()] *= change.getValue();
+        }
+        ContractedGraph next = base.withGraph(g.withWeights(weights), version() + 1,
+                factors.size());
+        current.set(next);
+        for (Consumer<ContractedGraph> listener : listeners) {
+            listener.accept(next);
+        }
+    }
+}
@@ -37,10 +37,16 @@ public class GraphBuildingHandler extends DefaultHandler {
             ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
                     "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
                     "secondary_link", "tertiary_link"));
-    private String activeState = "";
+
+    /** The kind of element the parser is inside of. */
+    private enum State { NONE, NODE, WAY }
+
+    private State activeState = State.NONE;
     private Node activeNode = null;
     private boolean validWay = false;
-    private List<Long> nodePath = new ArrayList<>();
+    /* Node ids of the current way; reused from way to way. */
+    private long[] nodePath = new long[16];
+    private int nodePathLength = 0;
     private final StreetMapGraph g;
 
     private String wayName = "";
@@ -49,6 +55,25 @@ public class GraphBuildingHandler extends DefaultHandler {
         this.g = g;
     }
 
+    /** Returns true if ways with the given highway tag value should be routable. */
+    static boolean isAllowedHighway(String highway) {
+        return ALLOWED_HIGHWAY_TYPES.contains(highway);
+    }
+
+    /**
+     * Adds edges in both directions between consecutive nodes of a valid way
+     * to G. The way's node ids are NODEPATH[FROM] through NODEPATH[TO - 1].
+     */
+    static void addWay(StreetMapGraph g, long[] nodePath, int from, int to, String wayName) {
+        int nameId = g.wayNameId(wayName);
+        for (int i = from; i < to - 1; i++) {
+            long fromID = nodePath[i];
+            long toID = nodePath[i + 1];
+            g.addWeightedEdge(fromID, toID, nameId);
+            g.addWeightedEdge(toID, fromID, nameId);
+        }
+    }
+
     /**
      * Called at the beginning of an element. Typically, you will want to handle each element in
      * here, and you may want to track the parent element.
@@ -68,7 +93,7 @@ public class GraphBuildingHandler extends DefaultHandler {
             throws SAXException {
         if (qName.equals("node")) {
             /* We encountered a new <node...> tag. */
-            activeState = "node";
+            activeState = State.NODE;
 //            System.out.println("Node id: " + attributes.getValue("id"));
 //            System.out.println("Node lon: " + attributes.getValue("lon"));
 //            System.out.println("Node lat: " + attributes.getValue("lat"));
@@ -78,25 +103,29 @@ public class GraphBuildingHandler extends DefaultHandler {
                     Double.parseDouble(attributes.getValue("lon")));
         } else if (qName.equals("way")) {
             /* We encountered a new <way...> tag. */
-            activeState = "way";
+            activeState = State.WAY;
 //            System.out.println("Beginning a way...");
-        } else if (activeState.equals("way") && qName.equals("nd")) {
+        } else if (activeState == State.WAY && qName.equals("nd")) {
             /* While looking at a way, we found a <nd...> tag. */
             //System.out.println("Id of a node in this way: " + attributes.getValue("ref"));
-            nodePath.add(Long.parseLong(attributes.getValue("ref")));
-        } else if (activeState.equals("way") && qName.equals("tag")) {
+            if (nodePathLength == nodePath.length) {
+                nodePath = Arrays.copyOf(nodePath, 2 * nodePathLength);
+            }
+            nodePath[nodePathLength] = Long.parseLong(attributes.getValue("ref"));
+            nodePathLength += 1;
+        } else if (activeState == State.WAY && qName.equals("tag")) {
             /* While looking at a way, we found a <tag...> tag. */
             String k = attributes.getValue("k");
             String v = attributes.getValue("v");
             if (k.equals("highway")) {
                 //System.out.println("Highway type: " + v);
-                validWay = ALLOWED_HIGHWAY_TYPES.contains(v);
+                validWay = isAllowedHighway(v);
             } else if (k.equals("name")) {
                 //System.out.println("Way Name: " + v);
                 wayName = v;
             }
 //            System.out.println("Tag with k=" + k + ", v=" + v + ".");
-        } else if (activeState.equals("node") && qName.equals("tag") && attributes.getValue("k")
+        } else if (activeState == State.NODE && qName.equals("tag") && attributes.getValue("k")
                 .equals("name")) {
 //            System.out.println("Node's name: " + attributes.getValue("v"));
             activeNode.setName(attributes.getValue("v"));
@@ -119,12 +148,7 @@ public class GraphBuildingHandler extends DefaultHandler {
         if (qName.equals("way")) {
             /* We are done looking at a way. (We finished looking at the nodes, speeds, etc...)*/
             if (validWay) {
-                for (int i = 0; i < nodePath.size() - 1; i++) {
-                    long fromID = nodePath.get(i);
-                    long toID = nodePath.get(i + 1);
-                    g.addWeightedEdge(fromID, toID, wayName);
-                    g.addWeightedEdge(toID, fromID, wayName);
-                }
+                addWay(g, nodePath, 0, nodePathLength, wayName);
             }
             clearStates();
         } else if (qName.equals("node")) {
@@ -136,10 +160,10 @@ public class GraphBuildingHandler extends DefaultHandler {
     }
 
     private void clearStates() {
-        activeState = "";
+        activeState = State.NONE;
         activeNode = null;
         validWay = false;
-        nodePath = new ArrayList<>();
+        nodePathLength = 0;
         wayName = "";
     }
 }
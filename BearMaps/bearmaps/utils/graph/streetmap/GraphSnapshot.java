@@ -0,0 +1,388 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary snapshot of a compiled street graph and its indexes, so
+ * that a server can skip parsing OSM XML on startup. A snapshot is written
+ * once, next to the OSM file it was compiled from, and memory-mapped when
+ * loaded.
+ *
+ * The file starts with a header holding a magic number, the format version,
+ * the length and modification time of the source OSM file, and a CRC32 of
+ * everything after the header. It is followed by tagged sections: GRAPH holds
+ * the CSR arrays, and other tags hold indexes contributed by the owners of
+ * those indexes. All values are little-endian, and every section starts on an
+ * 8-byte boundary.
+ */
+public class GraphSnapshot {
+    /** "BMAP" */
+    private static final int MAGIC = 0x424d4150;
+    /** Bump whenever the layout of any section changes. */
+    public static final int VERSION = 2;
+    private static final int HEADER_BYTES = 40;
+    /** Bytes of the file mapped at a time to check its checksum. */
+    private static final long CHECKSUM_CHUNK = 1 << 30;
+
+    /** Section tags. */
+    public static final int GRAPH = 1;
+    public static final int SEARCH_INDEX = 2;
+    public static final int CONTRACTION_HIERARCHY = 3;
+    public static final int TRANSIT_NODES = 4;
+    public static final int LANDMARKS = 5;
+
+    private final CSRGraph graph;
+    private final Map<Integer, ByteBuffer> sections;
+
+    private GraphSnapshot(CSRGraph graph, Map<Integer, ByteBuffer> sections) {
+        this.graph = graph;
+        this.sections = sections;
+    }
+
+    /** Returns the snapshot file that belongs to the OSM file at OSMPATH. */
+    public static String pathFor(String osmPath) {
+        return osmPath + ".snapshot";
+    }
+
+    /** Returns the graph stored in this snapshot. */
+    public CSRGraph graph() {
+        return graph;
+    }
+
+    /**
+     * Returns a read-only view of the section with the given TAG, positioned
+     * at its start, or null if this snapshot has no such section.
+     */
+    public ByteBuffer section(int tag) {
+        return section(sections, tag);
+    }
+
+    private static ByteBuffer section(Map<Integer, ByteBuffer> sections, int tag) {
+        ByteBuffer b = sections.get(tag);
+        if (b == null) {
+            return null;
+        }
+        return b.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Loads the snapshot belonging to the OSM file at OSMPATH. Returns null,
+     * so that the caller falls back to parsing the XML, if there is no
+     * snapshot, or if it was written by another format version, compiled from
+     * a different version of the OSM file, or fails its checksum. Each
+     * section is mapped on its own, so the file may exceed 2 GB but no one
+     * section may.
+     */
+    public static GraphSnapshot load(String osmPath) {
+        File file = new File(pathFor(osmPath));
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            ByteBuffer header = size < HEADER_BYTES ? null : read(channel, 0, HEADER_BYTES);
+            if (header == null || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                System.out.println("Ignoring snapshot " + file + ": unknown format.");
+                return null;
+            }
+            long sourceLength = header.getLong();
+            long sourceModified = header.getLong();
+            long checksum = header.getLong();
+            int sectionCount = header.getInt();
+
+            File source = new File(osmPath);
+            if (source.isFile() && (source.length() != sourceLength
+                    || source.lastModified() != sourceModified)) {
+                System.out.println("Ignoring snapshot " + file + ": " + osmPath
+                        + " has changed since it was compiled.");
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            for (long p = HEADER_BYTES; p < size; p += CHECKSUM_CHUNK) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, p,
+                        Math.min(CHECKSUM_CHUNK, size - p)));
+            }
+            if (crc.getValue() != checksum) {
+                System.out.println("Ignoring snapshot " + file + ": checksum mismatch.");
+                return null;
+            }
+
+            Map<Integer, ByteBuffer> sections = new HashMap<>();
+            long position = HEADER_BYTES;
+            for (int i = 0; i < sectionCount; i++) {
+                if (position + 16 > size) {
+                    System.out.println("Ignoring snapshot " + file + ": truncated.");
+                    return null;
+                }
+                ByteBuffer sectionHeader = read(channel, position, 16);
+                int tag = sectionHeader.getInt();
+                sectionHeader.getInt();
+                long length = sectionHeader.getLong();
+                if (length > Integer.MAX_VALUE) {
+                    System.out.println("Ignoring snapshot " + file + ": section " + tag
+                            + " is " + length + " bytes, over the 2 GB a section can hold.");
+                    return null;
+                }
+                if (length < 0 || position + 16 + length > size) {
+                    System.out.println("Ignoring snapshot " + file + ": truncated.");
+                    return null;
+                }
+                MappedByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position + 16, length);
+                sections.put(tag, section.order(ByteOrder.LITTLE_ENDIAN));
+                position += 16 + padded(length);
+            }
+            if (!sections.containsKey(GRAPH)) {
+                return null;
+            }
+            return new GraphSnapshot(readGraph(section(sections, GRAPH)), sections);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot of GRAPH, compiled from the OSM file at OSMPATH, along
+     * with the given index sections, keyed by tag. Each index buffer is
+     * written from its position to its limit. Sections are streamed to the
+     * file one at a time, and the header, which holds the checksum of all of
+     * them, is written last.
+     */
+    public static void write(String osmPath, CSRGraph graph, Map<Integer, ByteBuffer> indexes)
+            throws IOException {
+        Map<Integer, ByteBuffer> sections = new LinkedHashMap<>();
+        sections.put(GRAPH, writeGraph(graph));
+        sections.putAll(indexes);
+
+        try (RandomAccessFile raf = new RandomAccessFile(pathFor(osmPath), "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            channel.position(HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            for (Map.Entry<Integer, ByteBuffer> entry : sections.entrySet()) {
+                ByteBuffer b = entry.getValue().duplicate();
+                ByteBuffer sectionHeader = newBuffer(16);
+                sectionHeader.putInt(entry.getKey());
+                sectionHeader.putInt(0);
+                sectionHeader.putLong(b.remaining());
+                sectionHeader.flip();
+                ByteBuffer padding = newBuffer(padded(b.remaining()) - b.remaining());
+                for (ByteBuffer part : new ByteBuffer[] {sectionHeader, b, padding}) {
+                    crc.update(part.duplicate());
+                    writeFully(channel, part);
+                }
+            }
+
+            File source = new File(osmPath);
+            ByteBuffer header = newBuffer(HEADER_BYTES);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(source.length());
+            header.putLong(source.lastModified());
+            header.putLong(crc.getValue());
+            header.putInt(sections.size());
+            header.putInt(0);
+            header.flip();
+            channel.position(0);
+            writeFully(channel, header);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+
+    /** Returns a little-endian buffer of the SIZE bytes of CHANNEL from POSITION on. */
+    private static ByteBuffer read(FileChannel channel, long position, int size)
+            throws IOException {
+        ByteBuffer b = newBuffer(size);
+        while (b.hasRemaining()) {
+            if (channel.read(b, position + b.position()) < 0) {
+                throw new IOException("Unexpected end of " + channel);
+            }
+        }
+        b.flip();
+        return b;
+    }
+
+    /*
+     * GRAPH layout: vertex count n, edge count m, then the 8-byte arrays
+     * ids[n], sortedIds[n], lats[n], lons[n], weights[m], then the int arrays
+     * sortedIndex[n], offsets[n + 1], targets[m], the name of each vertex as an
+     * index into the vertex name table (-1 for none), the way name id of each
+     * edge, and finally the vertex name table and the way name table.
+     */
+    private static ByteBuffer writeGraph(CSRGraph g) {
+        int n = g.vertexCount();
+        int m = g.edgeCount();
+        Map<String, Integer> nameIds = new LinkedHashMap<>();
+        int[] vertexNames = new int[n];
+        for (int v = 0; v < n; v++) {
+            vertexNames[v] = intern(g.name(v), nameIds);
+        }
+        String[] table = nameIds.keySet().toArray(new String[0]);
+        String[] wayNames = new String[g.wayNameCount()];
+        for (int i = 0; i < wayNames.length; i++) {
+            wayNames[i] = g.wayName(i);
+        }
+
+        ByteBuffer b = newBuffer(8 + 8 * (4L * n + m) + 4 * (3L * n + 1 + 2L * m)
+                + stringsBytes(table) + stringsBytes(wayNames));
+        b.putInt(n);
+        b.putInt(m);
+        long[] sortedIds = new long[n];
+        int[] sortedIndex = new int[n];
+        g.sortedIdIndex(sortedIds, sortedIndex);
+        for (int v = 0; v < n; v++) {
+            b.putLong(g.id(v));
+        }
+        for (long id : sortedIds) {
+            b.putLong(id);
+        }
+        for (int v = 0; v < n; v++) {
+            b.putDouble(g.lat(v));
+        }
+        for (int v = 0; v < n; v++) {
+            b.putDouble(g.lon(v));
+        }
+        for (int e = 0; e < m; e++) {
+            b.putDouble(g.weight(e));
+        }
+        for (int i : sortedIndex) {
+            b.putInt(i);
+        }
+        for (int v = 0; v <= n; v++) {
+            b.putInt(v < n ? g.edgeBegin(v) : m);
+        }
+        for (int e = 0; e < m; e++) {
+            b.putInt(g.target(e));
+        }
+        for (int id : vertexNames) {
+            b.putInt(id);
+        }
+        for (int e = 0; e < m; e++) {
+            b.putInt(g.edgeNameId(e));
+        }
+        putStrings(b, table);
+        putStrings(b, wayNames);
+        b.flip();
+        return b;
+    }
+
+    private static CSRGraph readGraph(ByteBuffer b) {
+        int n = b.getInt();
+        int m = b.getInt();
+        long[] ids = new long[n];
+        long[] sortedIds = new long[n];
+        double[] lats = new double[n];
+        double[] lons = new double[n];
+        double[] weights = new double[m];
+        b.asLongBuffer().get(ids);
+        b.position(b.position() + 8 * n);
+        b.asLongBuffer().get(sortedIds);
+        b.position(b.position() + 8 * n);
+        b.asDoubleBuffer().get(lats);
+        b.position(b.position() + 8 * n);
+        b.asDoubleBuffer().get(lons);
+        b.position(b.position() + 8 * n);
+        b.asDoubleBuffer().get(weights);
+        b.position(b.position() + 8 * m);
+
+        int[] sortedIndex = getInts(b, n);
+        int[] offsets = getInts(b, n + 1);
+        int[] targets = getInts(b, m);
+        int[] vertexNames = getInts(b, n);
+        int[] edgeNames = getInts(b, m);
+        String[] table = getStrings(b);
+        String[] wayNames = getStrings(b);
+
+        String[] names = new String[n];
+        for (int v = 0; v < n; v++) {
+            names[v] = vertexNames[v] < 0 ? null : table[vertexNames[v]];
+        }
+        return new CSRGraph(ids, sortedIds, sortedIndex, lats, lons, names,
+                offsets, targets, weights, edgeNames, wayNames);
+    }
+
+    private static int intern(String s, Map<String, Integer> ids) {
+        if (s == null) {
+            return -1;
+        }
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = ids.size();
+            ids.put(s, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns a little-endian heap buffer of SIZE bytes. Throws
+     * IllegalArgumentException if SIZE is over the 2 GB a buffer, and so a
+     * snapshot section, can hold.
+     */
+    public static ByteBuffer newBuffer(long size) {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A snapshot section of " + size
+                    + " bytes is over the 2 GB a section can hold.");
+        }
+        return ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Reads COUNT ints from B, advancing its position. */
+    public static int[] getInts(ByteBuffer b, int count) {
+        int[] a = new int[count];
+        b.asIntBuffer().get(a);
+        b.position(b.position() + 4 * count);
+        return a;
+    }
+
+    /** Returns the number of bytes putStrings uses to write STRINGS. */
+    public static int stringsBytes(String[] strings) {
+        int size = 4;
+        for (String s : strings) {
+            size += 4 + s.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return size;
+    }
+
+    /** Writes a count followed by each string as a length and its UTF-8 bytes. */
+    public static void putStrings(ByteBuffer b, String[] strings) {
+        b.putInt(strings.length);
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            b.putInt(bytes.length);
+            b.put(bytes);
+        }
+    }
+
+    /** Reads strings written by putStrings, advancing the position of B. */
+    public static String[] getStrings(ByteBuffer b) {
+        String[] strings = new String[b.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[b.getInt()];
+            b.get(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static long padded(long length) {
+        return (length + 7) & ~7L;
+    }
+}
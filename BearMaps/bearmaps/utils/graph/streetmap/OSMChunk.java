@@ -0,0 +1,63 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.util.Arrays;
+
+/**
+ * Nodes and routable ways decoded from one piece of an OSM file by one of
+ * the parallel readers. Chunks are decoded independently and then added to
+ * the graph in file order, which gives the same graph as reading the file
+ * from start to end with GraphBuildingHandler.
+ */
+class OSMChunk {
+    private Node[] nodes = new Node[256];
+    private int nodeCount;
+    /* Way i spans wayRefs[wayStarts[i]] to wayRefs[wayStarts[i + 1] - 1]. */
+    private long[] wayRefs = new long[256];
+    private int refCount;
+    private int[] wayStarts = new int[16];
+    private String[] wayNames = new String[16];
+    private int wayCount;
+
+    void addNode(Node n) {
+        if (nodeCount == nodes.length) {
+            nodes = Arrays.copyOf(nodes, 2 * nodeCount);
+        }
+        nodes[nodeCount] = n;
+        nodeCount += 1;
+    }
+
+    /** Adds REF to the way currently being read. */
+    void addRef(long ref) {
+        if (refCount == wayRefs.length) {
+            wayRefs = Arrays.copyOf(wayRefs, 2 * refCount);
+        }
+        wayRefs[refCount] = ref;
+        refCount += 1;
+    }
+
+    /** Ends the way made of the refs added since the last call, keeping it if VALID. */
+    void endWay(boolean valid, String name) {
+        if (!valid) {
+            refCount = wayStarts[wayCount];
+            return;
+        }
+        if (wayCount + 2 > wayStarts.length) {
+            wayStarts = Arrays.copyOf(wayStarts, 2 * wayStarts.length);
+            wayNames = Arrays.copyOf(wayNames, 2 * wayNames.length);
+        }
+        wayNames[wayCount] = name;
+        wayCount += 1;
+        wayStarts[wayCount] = refCount;
+    }
+
+    /** Adds the nodes of this chunk to G, then the edges of its ways. */
+    void addTo(StreetMapGraph g) {
+        for (int i = 0; i < nodeCount; i++) {
+            g.addNode(nodes[i]);
+        }
+        for (int i = 0; i < wayCount; i++) {
+            GraphBuildingHandler.addWay(g, wayRefs, wayStarts[i], wayStarts[i + 1],
+                    wayNames[i]);
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads OSM PBF files (the binary format planet and regional extracts are
+ * distributed in) into a StreetMapGraph, applying the same rules as
+ * GraphBuildingHandler: every node is kept along with its name, and ways are
+ * kept if their highway type is allowed, under their name or "".
+ *
+ * A PBF file is a sequence of blobs, each an independently compressed block
+ * of up to 8000 entities. The blobs are read off the file on one thread,
+ * inflated and decoded on a pool of worker threads, and added to the graph in
+ * file order (see ChunkPipeline), so the result does not depend on the number
+ * of threads.
+ *
+ * Only the parts of the format the graph needs are decoded: strings, plain
+ * and dense nodes, and ways. Relations, metadata and unknown fields are
+ * skipped. Blobs must be raw or zlib-compressed.
+ *
+ * @see <a href="https://wiki.openstreetmap.org/wiki/PBF_Format">PBF Format</a>
+ */
+public class PBFReader {
+    /* Limits from the format specification. */
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+    private static final int MAX_BLOB_BYTES = 32 * 1024 * 1024;
+
+    private static final String[] SUPPORTED_FEATURES = {"OsmSchema-V0.6", "DenseNodes"};
+
+    private static final byte[] NAME = "name".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HIGHWAY = "highway".getBytes(StandardCharsets.UTF_8);
+
+    private PBFReader() {
+    }
+
+    /** Reads the OSM PBF file FILENAME into G, using one decoder thread per core. */
+    static void read(String filename, StreetMapGraph g) throws IOException {
+        read(filename, g, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Reads the OSM PBF file FILENAME into G, using THREADS decoder threads. */
+    static void read(String filename, StreetMapGraph g, int threads) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+            ChunkPipeline.run(filename, pipeline -> split(in, pipeline), threads, g);
+        }
+    }
+
+    /* Stage 1: reads each blob off the file and hands it to the decoders, in order. */
+    private static void split(DataInputStream in, ChunkPipeline pipeline)
+            throws IOException, InterruptedException {
+        while (true) {
+            int headerLength;
+            try {
+                headerLength = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (headerLength < 0 || headerLength > MAX_HEADER_BYTES) {
+                throw new IOException("Bad blob header length " + headerLength);
+            }
+            byte[] header = new byte[headerLength];
+            in.readFully(header);
+
+            String type = null;
+            long dataSize = -1;
+            Proto p = new Proto(header, 0, headerLength);
+            while (p.next()) {
+                if (p.field == 1) {
+                    type = p.string();
+                } else if (p.field == 3) {
+                    dataSize = p.varint();
+                } else {
+                    p.skip();
+                }
+            }
+            if (type == null || dataSize < 0 || dataSize > MAX_BLOB_BYTES) {
+                throw new IOException("Bad blob header");
+            }
+            byte[] blob = new byte[(int) dataSize];
+            in.readFully(blob);
+
+            if (type.equals("OSMHeader")) {
+                checkHeader(inflate(blob));
+            } else if (type.equals("OSMData")) {
+                pipeline.submit(() -> decodeBlock(inflate(blob)));
+            }
+            /* Other blob types are allowed by the format and carry nothing we need. */
+        }
+    }
+
+    /* Returns the uncompressed contents of a Blob message. */
+    private static byte[] inflate(byte[] blob) throws IOException {
+        Proto raw = null;
+        Proto zlib = null;
+        long rawSize = -1;
+        Proto p = new Proto(blob, 0, blob.length);
+        while (p.next()) {
+            switch (p.field) {
+                case 1:
+                    raw = p.message();
+                    break;
+                case 2:
+                    rawSize = p.varint();
+                    break;
+                case 3:
+                    zlib = p.message();
+                    break;
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                    throw new IOException("Unsupported blob compression (field " + p.field
+                            + "); only raw and zlib blobs can be read");
+                default:
+                    p.skip();
+            }
+        }
+        if (raw != null) {
+            return Arrays.copyOfRange(raw.buf, raw.pos, raw.limit);
+        }
+        if (zlib == null || rawSize < 0 || rawSize > MAX_BLOB_BYTES) {
+            throw new IOException("Bad blob");
+        }
+        byte[] data = new byte[(int) rawSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(zlib.buf, zlib.pos, zlib.limit - zlib.pos);
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                int read = inflater.inflate(data, n, data.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != data.length) {
+                throw new IOException("Blob inflated to " + n + " bytes, expected " + rawSize);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt zlib blob", e);
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /* Rejects files that need features this reader does not implement. */
+    private static void checkHeader(byte[] data) throws IOException {
+        Proto p = new Proto(data, 0, data.length);
+        while (p.next()) {
+            if (p.field == 4) {
+                String feature = p.string();
+                if (!Arrays.asList(SUPPORTED_FEATURES).contains(feature)) {
+                    throw new IOException("Unsupported PBF feature " + feature);
+                }
+            } else {
+                p.skip();
+            }
+        }
+    }
+
+    /* Stage 2: decodes one PrimitiveBlock. Runs on a worker thread. */
+    private static OSMChunk decodeBlock(byte[] data) throws IOException {
+        Proto strings = null;
+        List<Proto> groups = new ArrayList<>();
+        long granularity = 100;
+        long latOffset = 0;
+        long lonOffset = 0;
+        Proto p = new Proto(data, 0, data.length);
+        while (p.next()) {
+            switch (p.field) {
+                case 1:
+                    strings = p.message();
+                    break;
+                case 2:
+                    groups.add(p.message());
+                    break;
+                case 17:
+                    granularity = p.varint();
+                    break;
+                case 19:
+                    latOffset = p.varint();
+                    break;
+                case 20:
+                    lonOffset = p.varint();
+                    break;
+                default:
+                    p.skip();
+            }
+        }
+
+        Block block = new Block(strings, granularity, latOffset, lonOffset);
+        for (Proto group : groups) {
+            while (group.next()) {
+                switch (group.field) {
+                    case 1:
+                        block.node(group.message());
+                        break;
+                    case 2:
+                        block.denseNodes(group.message());
+                        break;
+                    case 3:
+                        block.way(group.message());
+                        break;
+                    default:
+                        group.skip();
+                }
+            }
+        }
+        return block.chunk;
+    }
+
+    /** Decodes the entities of one PrimitiveBlock into a chunk. */
+    private static class Block {
+        private final OSMChunk chunk = new OSMChunk();
+        private final long granularity;
+        private final long latOffset;
+        private final long lonOffset;
+
+        /* The string table, as ranges of buf. Strings are decoded when first used. */
+        private final byte[] buf;
+        private int[] starts = new int[64];
+        private int[] ends = new int[64];
+        private String[] decoded;
+        private int nameKey = -1;
+        private int highwayKey = -1;
+
+        Block(Proto strings, long granularity, long latOffset, long lonOffset)
+                throws IOException {
+            this.granularity = granularity;
+            this.latOffset = latOffset;
+            this.lonOffset = lonOffset;
+            this.buf = strings == null ? new byte[0] : strings.buf;
+            int count = 0;
+            while (strings != null && strings.next()) {
+                if (strings.field != 1) {
+                    strings.skip();
+                    continue;
+                }
+                Proto s = strings.message();
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, 2 * count);
+                    ends = Arrays.copyOf(ends, 2 * count);
+                }
+                starts[count] = s.pos;
+                ends[count] = s.limit;
+                if (is(count, NAME)) {
+                    nameKey = count;
+                } else if (is(count, HIGHWAY)) {
+                    highwayKey = count;
+                }
+                count += 1;
+            }
+            decoded = new String[count];
+        }
+
+        /* Returns true if string I of the table is KEY. */
+        private boolean is(int i, byte[] key) {
+            return Arrays.equals(buf, starts[i], ends[i], key, 0, key.length);
+        }
+
+        private String string(long i) throws IOException {
+            if (i < 0 || i >= decoded.length) {
+                throw new IOException("String index " + i + " out of range");
+            }
+            int k = (int) i;
+            if (decoded[k] == null) {
+                decoded[k] = new String(buf, starts[k], ends[k] - starts[k],
+                        StandardCharsets.UTF_8);
+            }
+            return decoded[k];
+        }
+
+        /*
+         * Converts a coordinate from the block's units to degrees. Dividing the
+         * exact nanodegree count gives the same double as parsing the decimal
+         * value from XML.
+         */
+        private double degrees(long offset, long value) {
+            return (offset + granularity * value) / 1e9;
+        }
+
+        void node(Proto p) throws IOException {
+            long id = 0;
+            long lat = 0;
+            long lon = 0;
+            Proto keys = null;
+            Proto vals = null;
+            while (p.next()) {
+                switch (p.field) {
+                    case 1:
+                        id = p.signedVarint();
+                        break;
+                    case 2:
+                        keys = p.packed();
+                        break;
+                    case 3:
+                        vals = p.packed();
+                        break;
+                    case 8:
+                        lat = p.signedVarint();
+                        break;
+                    case 9:
+                        lon = p.signedVarint();
+                        break;
+                    default:
+                        p.skip();
+                }
+            }
+            Node n = Node.of(id, degrees(latOffset, lat), degrees(lonOffset, lon));
+            while (keys != null && vals != null && keys.hasMore() && vals.hasMore()) {
+                long k = keys.varint();
+                long v = vals.varint();
+                if (k == nameKey) {
+                    n.setName(string(v));
+                }
+            }
+            chunk.addNode(n);
+        }
+
+        void denseNodes(Proto p) throws IOException {
+            Proto ids = null;
+            Proto lats = null;
+            Proto lons = null;
+            Proto tags = null;
+            while (p.next()) {
+                switch (p.field) {
+                    case 1:
+                        ids = p.packed();
+                        break;
+                    case 8:
+                        lats = p.packed();
+                        break;
+                    case 9:
+                        lons = p.packed();
+                        break;
+                    case 10:
+                        tags = p.packed();
+                        break;
+                    default:
+                        p.skip();
+                }
+            }
+            if (ids == null || lats == null || lons == null) {
+                return;
+            }
+            long id = 0;
+            long lat = 0;
+            long lon = 0;
+            while (ids.hasMore()) {
+                id += ids.signedVarint();
+                lat += lats.signedVarint();
+                lon += lons.signedVarint();
+                Node n = Node.of(id, degrees(latOffset, lat), degrees(lonOffset, lon));
+                /* Each node's tags are key, value pairs ending with a 0. */
+                while (tags != null && tags.hasMore()) {
+                    long k = tags.varint();
+                    if (k == 0) {
+                        break;
+                    }
+                    long v = tags.varint();
+                    if (k == nameKey) {
+                        n.setName(string(v));
+                    }
+                }
+                chunk.addNode(n);
+            }
+        }
+
+        void way(Proto p) throws IOException {
+            Proto keys = null;
+            Proto vals = null;
+            Proto refs = null;
+            while (p.next()) {
+                switch (p.field) {
+                    case 2:
+                        keys = p.packed();
+                        break;
+                    case 3:
+                        vals = p.packed();
+                        break;
+                    case 8:
+                        refs = p.packed();
+                        break;
+                    default:
+                        p.skip();
+                }
+            }
+            boolean validWay = false;
+            String wayName = "";
+            while (keys != null && vals != null && keys.hasMore() && vals.hasMore()) {
+                long k = keys.varint();
+                long v = vals.varint();
+                if (k == highwayKey) {
+                    validWay = GraphBuildingHandler.isAllowedHighway(string(v));
+                } else if (k == nameKey) {
+                    wayName = string(v);
+                }
+            }
+            long ref = 0;
+            while (refs != null && refs.hasMore()) {
+                ref += refs.signedVarint();
+                chunk.addRef(ref);
+            }
+            chunk.endWay(validWay, wayName);
+        }
+    }
+
+    /**
+     * Minimal protocol buffer decoder over the range [pos, limit) of a byte
+     * array. next() steps to the following field, after which field holds its
+     * number and exactly one of the value methods, or skip(), must be called.
+     */
+    private static class Proto {
+        private static final int VARINT = 0;
+        private static final int FIXED64 = 1;
+        private static final int DELIMITED = 2;
+        private static final int FIXED32 = 5;
+
+        final byte[] buf;
+        int pos;
+        final int limit;
+        int field;
+        private int wireType;
+
+        Proto(byte[] buf, int pos, int limit) {
+            this.buf = buf;
+            this.pos = pos;
+            this.limit = limit;
+        }
+
+        boolean hasMore() {
+            return pos < limit;
+        }
+
+        boolean next() throws IOException {
+            if (pos >= limit) {
+                return false;
+            }
+            long key = varint();
+            field = (int) (key >>> 3);
+            wireType = (int) (key & 7);
+            return true;
+        }
+
+        long varint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= limit) {
+                    throw new IOException("Truncated varint");
+                }
+                byte b = buf[pos];
+                pos += 1;
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /* Reads a zigzag-encoded sint64. */
+        long signedVarint() throws IOException {
+            long v = varint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        /* Returns a decoder over the current length-delimited field, and steps past it. */
+        Proto message() throws IOException {
+            if (wireType != DELIMITED) {
+                throw new IOException("Field " + field + " is not length-delimited");
+            }
+            long length = varint();
+            if (length < 0 || length > limit - pos) {
+                throw new IOException("Truncated field " + field);
+            }
+            Proto p = new Proto(buf, pos, pos + (int) length);
+            pos = p.limit;
+            return p;
+        }
+
+        /* Returns a decoder over the values of the current packed repeated field. */
+        Proto packed() throws IOException {
+            return message();
+        }
+
+        String string() throws IOException {
+            Proto p = message();
+            return new String(buf, p.pos, p.limit - p.pos, StandardCharsets.UTF_8);
+        }
+
+        void skip() throws IOException {
+            switch (wireType) {
+                case VARINT:
+                    varint();
+                    break;
+                case FIXED64:
+                    pos += 8;
+                    break;
+                case DELIMITED:
+                    message();
+                    break;
+                case FIXED32:
+                    pos += 4;
+                    break;
+                default:
+                    throw new IOException("Unsupported wire type " + wireType);
+            }
+            if (pos > limit) {
+                throw new IOException("Truncated field " + field);
+            }
+        }
+    }
+}
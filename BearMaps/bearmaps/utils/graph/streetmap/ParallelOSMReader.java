@@ -0,0 +1,415 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads OSM XML into a StreetMapGraph with a pipeline that scales with the
+ * number of cores, instead of a single SAX pass.
+ *
+ * The pipeline has three stages connected by a bounded queue (see
+ * ChunkPipeline):
+ * <ol>
+ *     <li>A scanner thread splits the file into chunks of about CHUNK_BYTES,
+ *     each cut just before a top-level node, way or relation element.</li>
+ *     <li>A pool of parser threads turns each chunk into nodes and routable
+ *     ways, with a byte-level scanner. Ways whose highway type is not allowed
+ *     are dropped here.</li>
+ *     <li>The calling thread takes the parsed chunks in file order and adds
+ *     their nodes and way edges to the graph, so the result is the same as
+ *     with GraphBuildingHandler.</li>
+ * </ol>
+ */
+public class ParallelOSMReader {
+    private static final int CHUNK_BYTES = 1 << 22;
+    private static final int BOUNDARY_WINDOW = 1 << 16;
+
+    private static final byte[] NODE = ascii("node");
+    private static final byte[] WAY = ascii("way");
+    private static final byte[] ND = ascii("nd");
+    private static final byte[] TAG = ascii("tag");
+    private static final byte[] RELATION = ascii("relation");
+    private static final byte[] ID = ascii("id");
+    private static final byte[] LAT = ascii("lat");
+    private static final byte[] LON = ascii("lon");
+    private static final byte[] REF = ascii("ref");
+    private static final byte[] NAME = ascii("name");
+    private static final byte[] HIGHWAY = ascii("highway");
+
+    private ParallelOSMReader() {
+    }
+
+    /** Reads the OSM XML file FILENAME into G, using one parser thread per core. */
+    static void read(String filename, StreetMapGraph g) throws IOException {
+        read(filename, g, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Reads the OSM XML file FILENAME into G, using THREADS parser threads. */
+    static void read(String filename, StreetMapGraph g, int threads) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ChunkPipeline.run(filename, pipeline -> scan(channel, pipeline), threads, g);
+        }
+    }
+
+    /* Stage 1: cuts the file into chunks and hands them to the parsers, in order. */
+    private static void scan(FileChannel channel, ChunkPipeline pipeline)
+            throws IOException, InterruptedException {
+        long size = channel.size();
+        long start = 0;
+        while (start < size) {
+            long end = start + CHUNK_BYTES < size
+                    ? nextBoundary(channel, start + CHUNK_BYTES, size) : size;
+            long from = start;
+            pipeline.submit(() -> parse(channel, from, end));
+            start = end;
+        }
+    }
+
+    /**
+     * Returns the offset of the first top-level element start at or after
+     * POS, or SIZE if there is none. A '<' cannot appear unescaped inside an
+     * attribute value, so a match is always a real element.
+     */
+    private static long nextBoundary(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(BOUNDARY_WINDOW + 16);
+        while (pos < size) {
+            window.clear();
+            int read = 0;
+            while (window.hasRemaining() && pos + read < size) {
+                int n = channel.read(window, pos + read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            byte[] b = window.array();
+            for (int i = 0; i < Math.min(read, BOUNDARY_WINDOW); i++) {
+                if (b[i] == '<' && (isElement(b, i + 1, read, NODE) || isElement(b, i + 1, read, WAY)
+                        || isElement(b, i + 1, read, RELATION))) {
+                    return pos + i;
+                }
+            }
+            pos += BOUNDARY_WINDOW;
+        }
+        return size;
+    }
+
+    /* Returns true if an element named NAME starts at B[I]. */
+    private static boolean isElement(byte[] b, int i, int limit, byte[] name) {
+        if (i + name.length >= limit) {
+            return false;
+        }
+        for (int j = 0; j < name.length; j++) {
+            if (b[i + j] != name[j]) {
+                return false;
+            }
+        }
+        byte after = b[i + name.length];
+        return after == ' ' || after == '>' || after == '/' || after == '\t'
+                || after == '\n' || after == '\r';
+    }
+
+    /* Stage 2: parses the bytes [FROM, TO) of the file. */
+    private static OSMChunk parse(FileChannel channel, long from, long to) throws IOException {
+        byte[] bytes = new byte[(int) (to - from)];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, from + buffer.position()) < 0) {
+                break;
+            }
+        }
+        ChunkParser parser = new ChunkParser(bytes);
+        parser.run();
+        return parser.chunk;
+    }
+
+    /**
+     * Byte-level scanner for one chunk. It follows the same rules as
+     * GraphBuildingHandler: tags inside a way set its highway type and name,
+     * and a name tag inside a node names the node.
+     */
+    private static class ChunkParser {
+        private final byte[] b;
+        private int pos;
+        private final OSMChunk chunk = new OSMChunk();
+
+        private boolean inNode;
+        private boolean inWay;
+        private Node activeNode;
+        private boolean validWay;
+        private String wayName = "";
+
+        /* Attributes of the element being read, as [start, end) byte ranges. */
+        private int idStart, idEnd, latStart, latEnd, lonStart, lonEnd;
+        private int refStart, refEnd, kStart, kEnd, vStart, vEnd;
+
+        ChunkParser(byte[] b) {
+            this.b = b;
+        }
+
+        void run() {
+            int n = b.length;
+            while (true) {
+                while (pos < n && b[pos] != '<') {
+                    pos += 1;
+                }
+                if (pos + 1 >= n) {
+                    return;
+                }
+                pos += 1;
+                byte c = b[pos];
+                if (c == '/') {
+                    pos += 1;
+                    int nameStart = pos;
+                    pos = skipName(pos);
+                    endElement(nameStart, pos);
+                    pos = indexOf('>', pos);
+                } else if (c == '!') {
+                    if (pos + 2 < n && b[pos + 1] == '-' && b[pos + 2] == '-') {
+                        pos = indexOf("-->", pos);
+                    } else {
+                        pos = indexOf('>', pos);
+                    }
+                } else if (c == '?') {
+                    pos = indexOf("?>", pos);
+                } else {
+                    startElement();
+                }
+                if (pos < 0) {
+                    return;
+                }
+            }
+        }
+
+        /* Reads the element starting at pos, through its closing '>'. */
+        private void startElement() {
+            int nameStart = pos;
+            pos = skipName(pos);
+            int nameEnd = pos;
+            idStart = -1;
+            latStart = -1;
+            lonStart = -1;
+            refStart = -1;
+            kStart = -1;
+            vStart = -1;
+            boolean selfClosing = false;
+            while (pos < b.length) {
+                byte c = b[pos];
+                if (c == '>') {
+                    break;
+                } else if (c == '/') {
+                    selfClosing = true;
+                    pos += 1;
+                } else if (isSpace(c)) {
+                    pos += 1;
+                } else {
+                    readAttribute();
+                }
+            }
+
+            if (equals(nameStart, nameEnd, NODE)) {
+                inNode = true;
+                activeNode = Node.of(parseLong(idStart, idEnd),
+                        parseDouble(latStart, latEnd), parseDouble(lonStart, lonEnd));
+                if (selfClosing) {
+                    endElement(nameStart, nameEnd);
+                }
+            } else if (equals(nameStart, nameEnd, WAY)) {
+                inWay = true;
+                if (selfClosing) {
+                    endElement(nameStart, nameEnd);
+                }
+            } else if (inWay && equals(nameStart, nameEnd, ND)) {
+                chunk.addRef(parseLong(refStart, refEnd));
+            } else if (inWay && equals(nameStart, nameEnd, TAG)) {
+                if (equals(kStart, kEnd, HIGHWAY)) {
+                    validWay = GraphBuildingHandler.isAllowedHighway(text(vStart, vEnd));
+                } else if (equals(kStart, kEnd, NAME)) {
+                    wayName = text(vStart, vEnd);
+                }
+            } else if (inNode && equals(nameStart, nameEnd, TAG) && equals(kStart, kEnd, NAME)) {
+                activeNode.setName(text(vStart, vEnd));
+            }
+        }
+
+        private void endElement(int nameStart, int nameEnd) {
+            if (equals(nameStart, nameEnd, WAY)) {
+                chunk.endWay(validWay, wayName);
+                clearStates();
+            } else if (equals(nameStart, nameEnd, NODE)) {
+                if (activeNode != null) {
+                    chunk.addNode(activeNode);
+                }
+                clearStates();
+            }
+        }
+
+        private void clearStates() {
+            inNode = false;
+            inWay = false;
+            activeNode = null;
+            validWay = false;
+            wayName = "";
+        }
+
+        /* Reads name="value" at pos, recording the value range if it is one we use. */
+        private void readAttribute() {
+            int nameStart = pos;
+            pos = skipName(pos);
+            int nameEnd = pos;
+            while (pos < b.length && b[pos] != '"' && b[pos] != '\'') {
+                pos += 1;
+            }
+            if (pos >= b.length) {
+                return;
+            }
+            byte quote = b[pos];
+            int valueStart = pos + 1;
+            int valueEnd = valueStart;
+            while (valueEnd < b.length && b[valueEnd] != quote) {
+                valueEnd += 1;
+            }
+            pos = valueEnd + 1;
+
+            int length = nameEnd - nameStart;
+            if (length == 1 && b[nameStart] == 'k') {
+                kStart = valueStart;
+                kEnd = valueEnd;
+            } else if (length == 1 && b[nameStart] == 'v') {
+                vStart = valueStart;
+                vEnd = valueEnd;
+            } else if (equals(nameStart, nameEnd, ID)) {
+                idStart = valueStart;
+                idEnd = valueEnd;
+            } else if (equals(nameStart, nameEnd, LAT)) {
+                latStart = valueStart;
+                latEnd = valueEnd;
+            } else if (equals(nameStart, nameEnd, LON)) {
+                lonStart = valueStart;
+                lonEnd = valueEnd;
+            } else if (equals(nameStart, nameEnd, REF)) {
+                refStart = valueStart;
+                refEnd = valueEnd;
+            }
+        }
+
+        private int skipName(int i) {
+            while (i < b.length && b[i] != '>' && b[i] != '/' && b[i] != '='
+                    && !isSpace(b[i])) {
+                i += 1;
+            }
+            return i;
+        }
+
+        private int indexOf(char c, int from) {
+            for (int i = from; i < b.length; i++) {
+                if (b[i] == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int indexOf(String s, int from) {
+            outer:
+            for (int i = from; i <= b.length - s.length(); i++) {
+                for (int j = 0; j < s.length(); j++) {
+                    if (b[i + j] != s.charAt(j)) {
+                        continue outer;
+                    }
+                }
+                return i + s.length() - 1;
+            }
+            return -1;
+        }
+
+        private boolean equals(int start, int end, byte[] s) {
+            if (start < 0 || end - start != s.length) {
+                return false;
+            }
+            for (int i = 0; i < s.length; i++) {
+                if (b[start + i] != s[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long parseLong(int start, int end) {
+            if (start < 0) {
+                throw new NumberFormatException("Missing numeric attribute");
+            }
+            boolean negative = b[start] == '-';
+            long value = 0;
+            for (int i = negative ? start + 1 : start; i < end; i++) {
+                int digit = b[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException(text(start, end));
+                }
+                value = 10 * value + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        private double parseDouble(int start, int end) {
+            if (start < 0) {
+                throw new NumberFormatException("Missing numeric attribute");
+            }
+            return Double.parseDouble(new String(b, start, end - start,
+                    StandardCharsets.ISO_8859_1));
+        }
+
+        /* Decodes the attribute value in [START, END), resolving entity references. */
+        private String text(int start, int end) {
+            String raw = new String(b, start, end - start, StandardCharsets.UTF_8);
+            if (raw.indexOf('&') < 0) {
+                return raw;
+            }
+            StringBuilder sb = new StringBuilder(raw.length());
+            int i = 0;
+            while (i < raw.length()) {
+                char c = raw.charAt(i);
+                int semi = c == '&' ? raw.indexOf(';', i) : -1;
+                if (semi < 0) {
+                    sb.append(c);
+                    i += 1;
+                    continue;
+                }
+                String entity = raw.substring(i + 1, semi);
+                if (entity.equals("amp")) {
+                    sb.append('&');
+                } else if (entity.equals("lt")) {
+                    sb.append('<');
+                } else if (entity.equals("gt")) {
+                    sb.append('>');
+                } else if (entity.equals("quot")) {
+                    sb.append('"');
+                } else if (entity.equals("apos")) {
+                    sb.append('\'');
+                } else if (entity.startsWith("#x")) {
+                    sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+                } else if (entity.startsWith("#")) {
+                    sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+                } else {
+                    sb.append(c);
+                    i += 1;
+                    continue;
+                }
+                i = semi + 1;
+            }
+            return sb.toString();
+        }
+
+        private static boolean isSpace(byte c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,53 @@
+package bearmaps.utils.graph.streetmap;
+
+import java.util.Arrays;
+
+/**
+ * The set of node ids referenced by routable ways, collected in the first
+ * pass of a two-pass build so that the second pass only keeps nodes that can
+ * end up in the graph. Stored as a sorted array of distinct ids, which takes
+ * 8 bytes per node instead of a Node object and a map entry.
+ */
+class ReferencedNodes {
+    private long[] ids = new long[1 << 12];
+    private int size;
+    /* Number of leading entries of ids that are sorted and distinct. */
+    private int sorted;
+
+    /** Adds ID. Must not be called after contains. */
+    void add(long id) {
+        if (size == ids.length) {
+            compact();
+            if (2 * size > ids.length) {
+                ids = Arrays.copyOf(ids, 2 * ids.length);
+            }
+        }
+        ids[size] = id;
+        size += 1;
+    }
+
+    boolean contains(long id) {
+        if (sorted < size) {
+            compact();
+            ids = Arrays.copyOf(ids, size);
+        }
+        return Arrays.binarySearch(ids, 0, size, id) >= 0;
+    }
+
+    /* Sorts the ids and removes repeats. */
+    private void compact() {
+        if (sorted == size) {
+            return;
+        }
+        Arrays.sort(ids, 0, size);
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (n == 0 || ids[i] != ids[n - 1]) {
+                ids[n] = ids[i];
+                n += 1;
+            }
+        }
+        size = n;
+        sorted = n;
+    }
+}
@@ -1,6 +1,7 @@
 package bearmaps.utils.graph.streetmap;
 
 import bearmaps.utils.graph.AStarGraph;
+import bearmaps.utils.graph.NeighborConsumer;
 import bearmaps.utils.graph.WeightedEdge;
 import org.xml.sax.SAXException;
 
@@ -13,16 +14,69 @@ import java.io.IOException;
 import java.util.*;
 
 public class StreetMapGraph implements AStarGraph<Long> {
+    /** The compiled graph. Set once loading finishes. */
+    private CSRGraph graph;
+    /** The snapshot the graph was loaded from, or null if it was parsed from OSM. */
+    private GraphSnapshot snapshot;
+
+    /* Nodes and edges collected while parsing, discarded once the graph is compiled. */
     private Map<Long, Node> nodes = new HashMap<>();
-    private Map<Long, Set<WeightedEdge<Long>>> neighbors = new HashMap<>();
+    private long[] edgeFrom = new long[16];
+    private long[] edgeTo = new long[16];
+    private int[] edgeWays = new int[16];
+    private int edgeCount;
+    /* Way names seen so far, and the id of each. */
+    private Map<String, Integer> wayNameIds = new HashMap<>();
+    private List<String> wayNames = new ArrayList<>();
+    /*
+     * In a two-pass build, the ids referenced by routable ways. While
+     * collecting is set, nothing is added to the graph and way edges only
+     * record their endpoints here; afterwards, addNode skips unnamed nodes
+     * that are not in it.
+     */
+    private ReferencedNodes referenced;
+    private boolean collecting;
 
     private StreetMapGraph() {
     }
 
     public StreetMapGraph(String filename) {
-        StreetMapGraph smg = StreetMapGraph.readFromXML(filename);
-        this.nodes = smg.nodes;
-        this.neighbors = smg.neighbors;
+        this(filename, true);
+    }
+
+    protected StreetMapGraph(String filename, boolean useSnapshot) {
+        this(filename, useSnapshot, false);
+    }
+
+    /**
+     * Loads the graph for the OSM file FILENAME. If USESNAPSHOT is set and
+     * FILENAME has an up to date GraphSnapshot, the graph is read from the
+     * snapshot; otherwise the file is parsed by readFromOSM, in two passes if
+     * TWOPASS is set.
+     */
+    protected StreetMapGraph(String filename, boolean useSnapshot, boolean twoPass) {
+        if (useSnapshot) {
+            snapshot = GraphSnapshot.load(filename);
+        }
+        if (snapshot != null) {
+            this.graph = snapshot.graph();
+        } else {
+            StreetMapGraph smg = StreetMapGraph.readFromOSM(filename, twoPass);
+            this.graph = smg.graph;
+        }
+    }
+
+    /** Returns the snapshot this graph was loaded from, or null if it was parsed from OSM. */
+    protected GraphSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the compiled graph, which identifies vertices by dense int index
+     * rather than OSM id.
+     */
+    public CSRGraph csr() {
+        return graph;
     }
 
     /**
@@ -31,24 +85,34 @@ public class StreetMapGraph implements AStarGraph<Long> {
      **/
     @Override
     public List<WeightedEdge<Long>> neighbors(Long v) {
-        Set<WeightedEdge<Long>> incidentSet = neighbors.get(v);
-        List<WeightedEdge<Long>> incidentList = new ArrayList<>();
-        for (WeightedEdge<Long> e : incidentSet) {
-            incidentList.add(e);
+        int i = graph.indexOf(v);
+        List<WeightedEdge<Long>> incidentList = new ArrayList<>(graph.degree(i));
+        for (int e = graph.edgeBegin(i); e < graph.edgeEnd(i); e++) {
+            WeightedEdge<Long> weightedEdge = new WeightedEdge<>(v,
+                    graph.id(graph.target(e)), graph.weight(e));
+            weightedEdge.setName(graph.edgeName(e));
+            incidentList.add(weightedEdge);
         }
 
         return incidentList;
     }
 
+    /** Calls C once for each outgoing edge of V, straight off the CSR arrays. */
+    @Override
+    public void forEachNeighbor(Long v, NeighborConsumer<Long> c) {
+        int i = graph.indexOf(v);
+        for (int e = graph.edgeBegin(i); e < graph.edgeEnd(i); e++) {
+            c.accept(graph.id(graph.target(e)), graph.weight(e));
+        }
+    }
+
     /**
      * Returns the great-circle distance between S and GOAL. Assumes
      * S and GOAL exist in this graph.
      */
     @Override
     public double estimatedDistanceToGoal(Long s, Long goal) {
-        Node sNode = nodes.get(s);
-        Node goalNode = nodes.get(goal);
-        return distance(sNode.lon(), goalNode.lon(), sNode.lat(), goalNode.lat());
+        return graph.distance(graph.indexOf(s), graph.indexOf(goal));
     }
 
     /**
@@ -57,74 +121,179 @@ public class StreetMapGraph implements AStarGraph<Long> {
      **/
     private Set<Long> vertices() {
         Set<Long> vertices = new HashSet<>();
-        for (long id : nodes.keySet()) {
-            vertices.add(id);
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            vertices.add(graph.id(v));
         }
 
         return vertices;
     }
 
     /**
-     * Factory method. Creates and returns a graph from an OSM XML
-     * file. Assumes file is correctly formatted.
+     * Factory method. Creates and returns a graph from an OSM XML file, with
+     * the multi-threaded ParallelOSMReader if PARALLEL is set, or else with a
+     * single SAX pass through GraphBuildingHandler. Both produce the same graph.
      */
-    private static StreetMapGraph readFromXML(String filename) {
+    public static StreetMapGraph readFromXML(String filename, boolean parallel) {
         StreetMapGraph smg = new StreetMapGraph();
         try {
-            File inputFile = new File(filename);
-            FileInputStream inputStream = new FileInputStream(inputFile);
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(smg);
-            saxParser.parse(inputStream, gbh);
+            if (parallel) {
+                ParallelOSMReader.read(filename, smg);
+            } else {
+                File inputFile = new File(filename);
+                FileInputStream inputStream = new FileInputStream(inputFile);
+                SAXParserFactory factory = SAXParserFactory.newInstance();
+                SAXParser saxParser = factory.newSAXParser();
+                GraphBuildingHandler gbh = new GraphBuildingHandler(smg);
+                saxParser.parse(inputStream, gbh);
+            }
         } catch (ParserConfigurationException | SAXException | IOException e) {
             e.printStackTrace();
         }
 
-        smg.clean();
+        smg.compile();
+        return smg;
+    }
+
+    /**
+     * Factory method. Creates and returns a graph from an OSM PBF file, with
+     * the same nodes and edges as the XML version of the file would give.
+     */
+    public static StreetMapGraph readFromPBF(String filename) {
+        StreetMapGraph smg = new StreetMapGraph();
+        try {
+            PBFReader.read(filename, smg);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        smg.compile();
+        return smg;
+    }
+
+    /**
+     * Factory method. Creates and returns a graph from an OSM file, read as
+     * PBF if its name ends in ".pbf" and as XML otherwise.
+     *
+     * If TWOPASS is set, the file is read twice to bound memory use on large
+     * extracts. The first pass only collects the ids of the nodes that
+     * routable ways reference; the second keeps just those nodes and named
+     * ones, instead of every node in the file. The result is the same graph
+     * as with a single pass.
+     */
+    public static StreetMapGraph readFromOSM(String filename, boolean twoPass) {
+        StreetMapGraph smg = new StreetMapGraph();
+        try {
+            if (twoPass) {
+                smg.referenced = new ReferencedNodes();
+                smg.collecting = true;
+                readInto(filename, smg);
+                smg.collecting = false;
+            }
+            readInto(filename, smg);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        smg.referenced = null;
+        smg.compile();
         return smg;
     }
 
+    private static void readInto(String filename, StreetMapGraph smg) throws IOException {
+        if (filename.endsWith(".pbf")) {
+            PBFReader.read(filename, smg);
+        } else {
+            ParallelOSMReader.read(filename, smg);
+        }
+    }
+
     /** Adds a node to this graph, if it doesn't yet exist. **/
     void addNode(Node node) {
+        if (collecting) {
+            return;
+        }
+        if (referenced != null && node.name() == null && !referenced.contains(node.id())) {
+            return;
+        }
         if (!nodes.containsKey(node.id())) {
             nodes.put(node.id(), node);
-            neighbors.put(node.id(), new HashSet<>());
         }
     }
 
+    /** Returns the id of the way name NAME, giving it the next id if it is new. */
+    int wayNameId(String name) {
+        Integer id = wayNameIds.get(name);
+        if (id == null) {
+            id = wayNames.size();
+            wayNameIds.put(name, id);
+            wayNames.add(name);
+        }
+        return id;
+    }
+
     /** Adds an edge to this graph, if FROMID and TOID are in this graph. Does
-     *  not add additional edge if edge already exists.
+     *  not add additional edge if edge already exists. NAMEID is the id of
+     *  its way name, from wayNameId.
      **/
-    void addWeightedEdge(long fromID, long toID, String name) {
+    void addWeightedEdge(long fromID, long toID, int nameId) {
+        if (collecting) {
+            referenced.add(fromID);
+            referenced.add(toID);
+            return;
+        }
         if (nodes.containsKey(fromID) && nodes.containsKey(toID)) {
-            Node from = nodes.get(fromID);
-            Node to = nodes.get(toID);
-            double weight = distance(from.lon(), to.lon(), from.lat(), to.lat());
-
-            Set<WeightedEdge<Long>> edgeSet = neighbors.get(fromID);
-            WeightedEdge<Long> weightedEdge = new WeightedEdge<>(from.id(), to.id(), weight);
-            weightedEdge.setName(name);
-            edgeSet.add(weightedEdge);
+            if (edgeCount == edgeFrom.length) {
+                edgeFrom = Arrays.copyOf(edgeFrom, 2 * edgeCount);
+                edgeTo = Arrays.copyOf(edgeTo, 2 * edgeCount);
+                edgeWays = Arrays.copyOf(edgeWays, 2 * edgeCount);
+            }
+            edgeFrom[edgeCount] = fromID;
+            edgeTo[edgeCount] = toID;
+            edgeWays[edgeCount] = nameId;
+            edgeCount += 1;
         }
     }
 
     /**
-     * Removes vertices with 0 out-degree from graph. Note that this will
-     * cause issues if edges are not bidirectional.
+     * Compiles the parsed nodes and edges into the CSR graph. Vertices with
+     * 0 out-degree and no name are dropped. Note that this will cause issues
+     * if edges are not bidirectional.
      **/
-    private void clean() {
-        List<Long> toRemove = new ArrayList<>();
+    private void compile() {
+        int parsed = nodes.size();
+        long[] ids = new long[parsed];
+        int i = 0;
         for (long id : nodes.keySet()) {
-            if (neighbors(id).size() == 0 && nodes.get(id).name() == null) {
-                toRemove.add(id);
-            }
+            ids[i] = id;
+            i += 1;
+        }
+        Arrays.sort(ids);
+
+        double[] lats = new double[parsed];
+        double[] lons = new double[parsed];
+        String[] names = new String[parsed];
+        for (i = 0; i < parsed; i++) {
+            Node n = nodes.get(ids[i]);
+            lats[i] = n.lat();
+            lons[i] = n.lon();
+            names[i] = n.name();
         }
 
-        for (long id : toRemove) {
-            nodes.remove(id);
-            neighbors.remove(id);
+        int[] from = new int[edgeCount];
+        int[] to = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            from[e] = Arrays.binarySearch(ids, edgeFrom[e]);
+            to[e] = Arrays.binarySearch(ids, edgeTo[e]);
         }
+
+        graph = CSRGraph.build(ids, lats, lons, names, from, to, edgeWays,
+                wayNames.toArray(new String[0]), edgeCount);
+        nodes = null;
+        edgeFrom = null;
+        edgeTo = null;
+        edgeWays = null;
+        wayNameIds = null;
+        wayNames = null;
     }
 
     /**
@@ -179,7 +348,7 @@ public class StreetMapGraph implements AStarGraph<Long> {
      *
      * @source Kevin Lowe & Antares Chen, and https://www.movable-type.co.uk/scripts/latlong.html
      **/
-    private double distance(double lonV, double lonW, double latV, double latW) {
+    static double distance(double lonV, double lonW, double latV, double latW) {
         double phi1 = Math.toRadians(latV);
         double phi2 = Math.toRadians(latW);
         double dphi = Math.toRadians(latW - latV);
@@ -197,10 +366,11 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The longitude of the vertex.
      */
     public double lon(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = graph.indexOf(v);
+        if (i < 0) {
             return 0.0;
         }
-        return nodes.get(v).lon();
+        return graph.lon(i);
     }
 
     /**
@@ -209,10 +379,11 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The latitude of the vertex.
      */
     public double lat(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = graph.indexOf(v);
+        if (i < 0) {
             return 0.0;
         }
-        return nodes.get(v).lat();
+        return graph.lat(i);
     }
 
     /**
@@ -221,16 +392,19 @@ public class StreetMapGraph implements AStarGraph<Long> {
      * @return The name of the vertex.
      */
     public String name(long v) {
-        if (!nodes.containsKey(v)) {
+        int i = graph.indexOf(v);
+        if (i < 0) {
             return null;
         }
-        return nodes.get(v).name();
+        return graph.name(i);
     }
 
     protected List<Node> getNodes() {
-        List<Node> nodes = new ArrayList<>();
-        for(Map.Entry<Long, Node> nodeEntry: this.nodes.entrySet()){
-            nodes.add(nodeEntry.getValue());
+        List<Node> nodes = new ArrayList<>(graph.vertexCount());
+        for (int v = 0; v < graph.vertexCount(); v++) {
+            Node n = Node.of(graph.id(v), graph.lat(v), graph.lon(v));
+            n.setName(graph.name(v));
+            nodes.add(n);
         }
         return nodes;
     }
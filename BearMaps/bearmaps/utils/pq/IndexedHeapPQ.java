@@ -0,0 +1,82 @@
+package bearmaps.utils.pq;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+/* A PriorityQueue backed by an IntPriorityQueue, by default an IntMinHeap.
+   Each distinct item is given an int index the first time it is inserted,
+   and the IntPriorityQueue orders the indices, so
+   contains() takes constant time and changePriority() logarithmic time,
+   unlike MinHeapPQ, which scans for the item, and DoubleMapPQ, which moves it
+   between two maps. Indices are kept after an item is polled, so an item
+   inserted again reuses its index. */
+public class IndexedHeapPQ<T> implements PriorityQueue<T> {
+
+    private final IntPriorityQueue heap;
+    private final HashMap<T, Integer> indices = new HashMap<>();
+    private final ArrayList<T> items = new ArrayList<>();
+
+    /* Initializes an empty IndexedHeapPQ backed by a 4-ary IntMinHeap. */
+    public IndexedHeapPQ() {
+        this(new IntMinHeap(16));
+    }
+
+    /* Initializes an empty IndexedHeapPQ that orders items with HEAP, which
+       must be empty. A RadixHeap may be used if priorities are monotone. */
+    public IndexedHeapPQ(IntPriorityQueue heap) {
+        this.heap = heap;
+    }
+
+    /* Returns the item with the smallest priority value, but does not remove
+       it from the IndexedHeapPQ. */
+    @Override
+    public T peek() {
+        return items.get(heap.peek());
+    }
+
+    /* Inserts ITEM with the priority value PRIORITYVALUE. If ITEM is already in
+       the IndexedHeapPQ, throw an IllegalArgumentException. */
+    @Override
+    public void insert(T item, double priorityValue) {
+        Integer index = indices.get(item);
+        if (index == null) {
+            index = items.size();
+            indices.put(item, index);
+            items.add(item);
+            if (index >= heap.capacity()) {
+                heap.ensureCapacity(Math.max(2 * index, 16));
+            }
+        } else if (heap.contains(index)) {
+            throw new IllegalArgumentException("Already contains " + item);
+        }
+        heap.insert(index, priorityValue);
+    }
+
+    /* Removes and returns the item with the smallest priority value. */
+    @Override
+    public T poll() {
+        return items.get(heap.poll());
+    }
+
+    /* Changes the priority value of ITEM to PRIORITYVALUE. If ITEM is not in
+       the IndexedHeapPQ, throw a NoSuchElementException. */
+    @Override
+    public void changePriority(T item, double priorityValue) {
+        if (!contains(item)) {
+            throw new NoSuchElementException("Does not contain " + item);
+        }
+        heap.changePriority(indices.get(item), priorityValue);
+    }
+
+    @Override
+    public int size() {
+        return heap.size();
+    }
+
+    @Override
+    public boolean contains(T item) {
+        Integer index = indices.get(item);
+        return index != null && heap.contains(index);
+    }
+}
@@ -0,0 +1,188 @@
+package bearmaps.utils.pq;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A d-ary min heap of the ints 0 to capacity() - 1, each with a double
+ * priority. The position of every item in the heap is kept in an array
+ * indexed by the item, so contains() takes constant time, changePriority()
+ * logarithmic time, and nothing is allocated once the heap has grown to the
+ * number of items in use.
+ *
+ * By default each node has 4 children. Compared with a binary heap, that
+ * halves the depth, so inserts and decreases, the common operations in a
+ * shortest path search, are cheaper, and the children compared on a poll
+ * sit next to each other in memory.
+ *
+ * Positions are stamped with the generation they were written in, and
+ * clear() starts a new generation instead of resetting them, so a heap over
+ * a large graph can be reused for many small searches.
+ */
+public class IntMinHeap implements IntPriorityQueue {
+    private static final int DEFAULT_ARITY = 4;
+
+    private final int arity;
+    private int[] items;
+    private double[] priorities;
+    private int size;
+
+    /** Slot of each item in items, valid only if stamp[item] == generation. */
+    private int[] position;
+    private int[] stamp;
+    private int generation = 1;
+
+    /** Creates an empty 4-ary heap for the items 0 to CAPACITY - 1. */
+    public IntMinHeap(int capacity) {
+        this(capacity, DEFAULT_ARITY);
+    }
+
+    /** Creates an empty heap for the items 0 to CAPACITY - 1 whose nodes have ARITY children. */
+    public IntMinHeap(int capacity, int arity) {
+        if (arity < 2) {
+            throw new IllegalArgumentException("Arity must be at least 2: " + arity);
+        }
+        this.arity = arity;
+        items = new int[Math.max(capacity, 1)];
+        priorities = new double[items.length];
+        position = new int[capacity];
+        stamp = new int[capacity];
+    }
+
+    /** Returns the number of items this heap can hold. */
+    @Override
+    public int capacity() {
+        return position.length;
+    }
+
+    /** Makes room for the items 0 to CAPACITY - 1, keeping the current contents. */
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > position.length) {
+            position = Arrays.copyOf(position, capacity);
+            stamp = Arrays.copyOf(stamp, capacity);
+        }
+    }
+
+    /** Removes every item in time independent of the capacity. */
+    @Override
+    public void clear() {
+        size = 0;
+        generation += 1;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(int item) {
+        return stamp[item] == generation && position[item] >= 0;
+    }
+
+    /** Returns the item with the smallest priority without removing it. */
+    @Override
+    public int peek() {
+        if (size == 0) {
+            throw new NoSuchElementException("Heap is empty");
+        }
+        return items[0];
+    }
+
+    /** Returns the smallest priority in the heap. */
+    @Override
+    public double peekPriority() {
+        if (size == 0) {
+            throw new NoSuchElementException("Heap is empty");
+        }
+        return priorities[0];
+    }
+
+    /** Inserts ITEM, which must not be in the heap, with priority PRIORITY. */
+    @Override
+    public void insert(int item, double priority) {
+        if (contains(item)) {
+            throw new IllegalArgumentException("Item is already in the heap: " + item);
+        }
+        if (size == items.length) {
+            items = Arrays.copyOf(items, 2 * size);
+            priorities = Arrays.copyOf(priorities, 2 * size);
+        }
+        stamp[item] = generation;
+        siftUp(size, item, priority);
+        size += 1;
+    }
+
+    /** Removes and returns the item with the smallest priority. */
+    @Override
+    public int poll() {
+        int min = peek();
+        position[min] = -1;
+        size -= 1;
+        if (size > 0) {
+            siftDown(0, items[size], priorities[size]);
+        }
+        return min;
+    }
+
+    /** Changes the priority of ITEM, which must be in the heap, to PRIORITY. */
+    @Override
+    public void changePriority(int item, double priority) {
+        if (!contains(item)) {
+            throw new NoSuchElementException("Item is not in the heap: " + item);
+        }
+        int slot = position[item];
+        if (priority < priorities[slot]) {
+            siftUp(slot, item, priority);
+        } else {
+            siftDown(slot, item, priority);
+        }
+    }
+
+    /* Moves the hole at SLOT up until ITEM with PRIORITY fits in it. */
+    private void siftUp(int slot, int item, double priority) {
+        while (slot > 0) {
+            int parent = (slot - 1) / arity;
+            if (priorities[parent] <= priority) {
+                break;
+            }
+            place(slot, items[parent], priorities[parent]);
+            slot = parent;
+        }
+        place(slot, item, priority);
+    }
+
+    /* Moves the hole at SLOT down until ITEM with PRIORITY fits in it. */
+    private void siftDown(int slot, int item, double priority) {
+        while (true) {
+            int first = arity * slot + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + arity, size);
+            int child = first;
+            for (int c = first + 1; c < last; c++) {
+                if (priorities[c] < priorities[child]) {
+                    child = c;
+                }
+            }
+            if (priority <= priorities[child]) {
+                break;
+            }
+            place(slot, items[child], priorities[child]);
+            slot = child;
+        }
+        place(slot, item, priority);
+    }
+
+    private void place(int slot, int item, double priority) {
+        items[slot] = item;
+        priorities[slot] = priority;
+        position[item] = slot;
+    }
+}
@@ -0,0 +1,42 @@
+package bearmaps.utils.pq;
+
+/* The primitive counterpart of PriorityQueue, for items that are the ints 0
+   to capacity() - 1. Implementations keep the position of each item in an
+   array, so nothing is boxed or hashed, and may be cleared and reused. */
+public interface IntPriorityQueue {
+
+    /* Returns but does not remove the item with the smallest priority value. */
+    int peek();
+
+    /* Returns the smallest priority value in the IntPriorityQueue. */
+    double peekPriority();
+
+    /* Inserts ITEM into the IntPriorityQueue with priority value PRIORITYVALUE. */
+    void insert(int item, double priorityValue);
+
+    /* Removes and returns the item with the smallest priority value. */
+    int poll();
+
+    /* Changes the priority value of ITEM to PRIORITYVALUE. */
+    void changePriority(int item, double priorityValue);
+
+    /* Returns the number of items in the IntPriorityQueue. */
+    int size();
+
+    /* Returns true if ITEM is in the IntPriorityQueue. */
+    boolean contains(int item);
+
+    /* Removes every item. */
+    void clear();
+
+    /* Returns the number of distinct items the IntPriorityQueue can hold. */
+    int capacity();
+
+    /* Makes room for the items 0 to CAPACITY - 1, keeping the current contents. */
+    void ensureCapacity(int capacity);
+
+    /* Returns true if the IntPriorityQueue has no items. */
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+}
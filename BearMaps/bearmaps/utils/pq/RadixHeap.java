@@ -0,0 +1,187 @@
+package bearmaps.utils.pq;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A radix heap of the ints 0 to capacity() - 1: a priority queue for
+ * monotone use, where no priority inserted is below the last one polled.
+ * That holds for the fringe of Dijkstra's algorithm, and for A* with a
+ * consistent heuristic such as the straight-line distance on a street graph.
+ *
+ * Priorities must be non-negative, and are compared by their bit patterns,
+ * which for non-negative doubles sort in the same order as the values. Item
+ * v sits in bucket b if the highest bit in which its key differs from the
+ * last minimum is bit b - 1, and bucket 0 holds the items equal to it. A
+ * poll that finds bucket 0 empty takes the first non-empty bucket, makes its
+ * smallest key the new minimum and spreads its items over lower buckets.
+ * Each item can only move down, so the amortized cost of an operation is
+ * bounded by the 64 bits of a key, with no comparisons between items.
+ *
+ * A priority below the last minimum is treated as equal to it. This absorbs
+ * the rounding error by which a consistent heuristic can make a key smaller
+ * than its parent's, but the order is wrong if the use is not monotone.
+ */
+public class RadixHeap implements IntPriorityQueue {
+    private static final int BUCKETS = 65;
+
+    private final int[][] buckets = new int[BUCKETS][];
+    private final int[] bucketSizes = new int[BUCKETS];
+    private long last;
+    private int size;
+
+    /** Key of each item, and its bucket and slot in it, valid if stamp[item] == generation. */
+    private long[] keys;
+    private int[] bucketOf;
+    private int[] slotOf;
+    private int[] stamp;
+    private int generation = 1;
+
+    /** Creates an empty heap for the items 0 to CAPACITY - 1. */
+    public RadixHeap(int capacity) {
+        for (int b = 0; b < BUCKETS; b++) {
+            buckets[b] = new int[4];
+        }
+        keys = new long[capacity];
+        bucketOf = new int[capacity];
+        slotOf = new int[capacity];
+        stamp = new int[capacity];
+    }
+
+    @Override
+    public int capacity() {
+        return keys.length;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > keys.length) {
+            keys = Arrays.copyOf(keys, capacity);
+            bucketOf = Arrays.copyOf(bucketOf, capacity);
+            slotOf = Arrays.copyOf(slotOf, capacity);
+            stamp = Arrays.copyOf(stamp, capacity);
+        }
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(bucketSizes, 0);
+        size = 0;
+        last = 0;
+        generation += 1;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(int item) {
+        return stamp[item] == generation && bucketOf[item] >= 0;
+    }
+
+    @Override
+    public int peek() {
+        if (size == 0) {
+            throw new NoSuchElementException("Heap is empty");
+        }
+        if (bucketSizes[0] == 0) {
+            redistribute();
+        }
+        return buckets[0][bucketSizes[0] - 1];
+    }
+
+    @Override
+    public double peekPriority() {
+        peek();
+        return Double.longBitsToDouble(last);
+    }
+
+    @Override
+    public void insert(int item, double priorityValue) {
+        if (contains(item)) {
+            throw new IllegalArgumentException("Item is already in the heap: " + item);
+        }
+        stamp[item] = generation;
+        keys[item] = key(priorityValue);
+        add(item);
+        size += 1;
+    }
+
+    @Override
+    public int poll() {
+        int min = peek();
+        bucketSizes[0] -= 1;
+        bucketOf[min] = -1;
+        size -= 1;
+        return min;
+    }
+
+    @Override
+    public void changePriority(int item, double priorityValue) {
+        if (!contains(item)) {
+            throw new NoSuchElementException("Item is not in the heap: " + item);
+        }
+        remove(item);
+        keys[item] = key(priorityValue);
+        add(item);
+    }
+
+    /* Returns the key for PRIORITYVALUE, raised to the last minimum if below it. */
+    private long key(double priorityValue) {
+        if (!(priorityValue >= 0)) {
+            throw new IllegalArgumentException("Priority must be non-negative: " + priorityValue);
+        }
+        return Math.max(Double.doubleToLongBits(priorityValue + 0.0), last);
+    }
+
+    private int bucketFor(long key) {
+        return key == last ? 0 : 64 - Long.numberOfLeadingZeros(key ^ last);
+    }
+
+    private void add(int item) {
+        int b = bucketFor(keys[item]);
+        if (bucketSizes[b] == buckets[b].length) {
+            buckets[b] = Arrays.copyOf(buckets[b], 2 * bucketSizes[b]);
+        }
+        buckets[b][bucketSizes[b]] = item;
+        bucketOf[item] = b;
+        slotOf[item] = bucketSizes[b];
+        bucketSizes[b] += 1;
+    }
+
+    /* Takes ITEM out of its bucket by moving the bucket's last item into its slot. */
+    private void remove(int item) {
+        int b = bucketOf[item];
+        bucketSizes[b] -= 1;
+        int moved = buckets[b][bucketSizes[b]];
+        buckets[b][slotOf[item]] = moved;
+        slotOf[moved] = slotOf[item];
+    }
+
+    /* Makes the smallest key in the first non-empty bucket the minimum, and spreads
+     * that bucket's items over the lower buckets. */
+    private void redistribute() {
+        int b = 1;
+        while (bucketSizes[b] == 0) {
+            b += 1;
+        }
+        int[] items = buckets[b];
+        int count = bucketSizes[b];
+        long min = Long.MAX_VALUE;
+        for (int k = 0; k < count; k++) {
+            min = Math.min(min, keys[items[k]]);
+        }
+        last = min;
+        bucketSizes[b] = 0;
+        /* Every key here now differs from last below bit b - 1, so no item lands in b. */
+        for (int k = 0; k < count; k++) {
+            add(items[k]);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package bearmaps.utils.ps;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The convex hull of a set of points, by Andrew's monotone chain: the points
+ * are sorted by x, then the lower and upper halves of the hull are built in
+ * one sweep each, popping every point that would make a clockwise turn.
+ */
+public class ConvexHull {
+
+    private ConvexHull() {
+    }
+
+    /**
+     * Returns the indices of the points (XS[i], YS[i]), for i below COUNT,
+     * that are corners of their convex hull, in counterclockwise order.
+     * Collinear points on an edge are left out.
+     */
+    public static int[] of(double[] xs, double[] ys, int count) {
+        if (count < 3) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingDouble(i -> xs[i])
+                .thenComparingDouble(i -> ys[i]));
+
+        int[] hull = new int[2 * count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            while (size >= 2 && cross(xs, ys, hull[size - 2], hull[size - 1], order[i]) <= 0) {
+                size -= 1;
+            }
+            hull[size] = order[i];
+            size += 1;
+        }
+        int lower = size + 1;
+        for (int i = count - 2; i >= 0; i--) {
+            while (size >= lower && cross(xs, ys, hull[size - 2], hull[size - 1], order[i]) <= 0) {
+                size -= 1;
+            }
+            hull[size] = order[i];
+            size += 1;
+        }
+        /* The last point is the first one again. */
+        return Arrays.copyOf(hull, size - 1);
+    }
+
+    /* Returns the cross product of A->B and A->C, positive if A, B, C turn counterclockwise. */
+    private static double cross(double[] xs, double[] ys, int a, int b, int c) {
+        return (xs[b] - xs[a]) * (ys[c] - ys[a]) - (ys[b] - ys[a]) * (xs[c] - xs[a]);
+    }
+}
@@ -0,0 +1,165 @@
+package bearmaps.utils.ps;
+
+/**
+ * A balanced KD-tree over a fixed set of items with (x, y) coordinates,
+ * stored implicitly in arrays: the root of the items in [lo, hi) is at
+ * (lo + hi) / 2, items left of it are on its low side and items right of it
+ * on its high side. Levels alternate between splitting on x and on y,
+ * starting with x. Distances are haversine, with x as the longitude and y as
+ * the latitude, the same as Point.distance.
+ *
+ * Because the whole tree is one permutation of the item ids, it can be saved
+ * with layout() and restored with fromLayout() without rebuilding it.
+ */
+public class StaticKDTree {
+    /* Item ids and their coordinates, in tree order. */
+    private final int[] items;
+    private final double[] xs;
+    private final double[] ys;
+
+    private StaticKDTree(int[] items, double[] xs, double[] ys) {
+        this.items = items;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    /**
+     * Builds a tree over ITEMS, where the coordinates of item i are
+     * (X[i], Y[i]).
+     */
+    public static StaticKDTree build(int[] items, double[] x, double[] y) {
+        int n = items.length;
+        int[] order = items.clone();
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = x[order[i]];
+            ys[i] = y[order[i]];
+        }
+        StaticKDTree t = new StaticKDTree(order, xs, ys);
+        t.split(0, n, true);
+        return t;
+    }
+
+    /**
+     * Restores a tree from a LAYOUT previously returned by layout(), where
+     * the coordinates of item i are (X[i], Y[i]).
+     */
+    public static StaticKDTree fromLayout(int[] layout, double[] x, double[] y) {
+        double[] xs = new double[layout.length];
+        double[] ys = new double[layout.length];
+        for (int i = 0; i < layout.length; i++) {
+            xs[i] = x[layout[i]];
+            ys[i] = y[layout[i]];
+        }
+        return new StaticKDTree(layout, xs, ys);
+    }
+
+    /** Returns the item ids in tree order. Do not modify. */
+    public int[] layout() {
+        return items;
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    /** Returns the id of the item nearest to (X, Y), or -1 if the tree is empty. */
+    public int nearest(double x, double y) {
+        if (items.length == 0) {
+            return -1;
+        }
+        int mid = items.length >>> 1;
+        int best = nearest(0, items.length, true, x, y, mid,
+                Point.distance(xs[mid], x, ys[mid], y));
+        return items[best];
+    }
+
+    /* Returns the tree position nearest to (X, Y) among [LO, HI) and BEST. */
+    private int nearest(int lo, int hi, boolean splitX, double x, double y,
+                        int best, double bestDist) {
+        if (lo >= hi) {
+            return best;
+        }
+        int mid = (lo + hi) >>> 1;
+        double d = Point.distance(xs[mid], x, ys[mid], y);
+        if (d < bestDist) {
+            best = mid;
+            bestDist = d;
+        }
+        double toPartitionLine;
+        double toPartitionDist;
+        if (splitX) {
+            toPartitionLine = x - xs[mid];
+            toPartitionDist = Point.distance(xs[mid], x, y, y);
+        } else {
+            toPartitionLine = y - ys[mid];
+            toPartitionDist = Point.distance(x, x, ys[mid], y);
+        }
+        int nearLo = lo, nearHi = mid, farLo = mid + 1, farHi = hi;
+        if (toPartitionLine > 0) {
+            nearLo = mid + 1;
+            nearHi = hi;
+            farLo = lo;
+            farHi = mid;
+        }
+        best = nearest(nearLo, nearHi, !splitX, x, y, best, bestDist);
+        bestDist = Point.distance(xs[best], x, ys[best], y);
+        if (bestDist > toPartitionDist) {
+            best = nearest(farLo, farHi, !splitX, x, y, best, bestDist);
+        }
+        return best;
+    }
+
+    /* Arranges [LO, HI) so that its median on the split axis is at its middle, recursively. */
+    private void split(int lo, int hi, boolean splitX) {
+        if (hi - lo < 2) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, splitX ? xs : ys);
+        split(lo, mid, !splitX);
+        split(mid + 1, hi, !splitX);
+    }
+
+    /* Quickselect: puts the K-th smallest of [LO, HI] by KEY at K. */
+    private void select(int lo, int hi, int k, double[] key) {
+        while (lo < hi) {
+            double pivot = key[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (key[i] < pivot) {
+                    i += 1;
+                }
+                while (key[j] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i, j);
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int item = items[i];
+        items[i] = items[j];
+        items[j] = item;
+        double x = xs[i];
+        xs[i] = xs[j];
+        xs[j] = x;
+        double y = ys[i];
+        ys[i] = ys[j];
+        ys[j] = y;
+    }
+}